@@ -1,6 +1,5 @@
 package org.reactivecouchbase.sql;
 
-import org.joda.time.DateTime;
 import org.reactivecouchbase.common.Invariant;
 import org.reactivecouchbase.common.Throwables;
 import org.reactivecouchbase.functional.Option;
@@ -8,10 +7,12 @@ import org.reactivecouchbase.functional.Tuple;
 
 import java.math.BigDecimal;
 import java.sql.*;
-import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 import java.util.function.Function;
+import java.util.function.ToDoubleFunction;
+import java.util.function.ToIntFunction;
+import java.util.function.ToLongFunction;
 
 public class API {
 
@@ -29,66 +30,103 @@ public class API {
         API.defaultPageOfValue = defaultPageOfValue;
     }
 
+    public static void globalQueryCacheSize(int maxSize) {
+        Query.CACHE.resize(maxSize);
+    }
+
+    public static QueryCache queryCache() {
+        return Query.CACHE;
+    }
+
+    public static void globalStatementCacheSize(int maxSize) {
+        StatementCache.defaultMaxSize = maxSize;
+    }
+
+    /**
+     * Report the metrics of every execution of SQL, Call and Batch to the registry, or to none if it is null
+     */
+    public static void globalMetrics(MetricsRegistry registry) {
+        Query.metricsRegistry = registry;
+    }
+
+    /**
+     * Record the slow executions of SQL, Call and Batch in the log, or in none if it is null
+     */
+    public static void globalSlowQueryLog(SlowQueryLog log) {
+        Query.slowQueryLog = log;
+    }
+
+    public static <T> void registerBinder(Class<T> type, ParamBinder<? super T> binder) {
+        Invariant.checkNotNull(type);
+        Invariant.checkNotNull(binder);
+        Binders.register(type, binder);
+    }
+
+    /**
+     * Bind the enums without a registered binder by their name with setString, instead of with setObject
+     */
+    public static void bindEnumsByName() {
+        Binders.register(Enum.class, Binders.ENUM);
+    }
+
     public static Call call(Connection connection, String sql) {
-        return new Call(connection, Query.preparedQuery(sql), new ArrayList<>());
+        return new Call(connection, Query.preparedQuery(sql));
     }
 
     public static SQL sql(Connection connection, String sql) {
-        return new SQL(connection, Query.preparedQuery(sql), new ArrayList<>());
+        return new SQL(connection, Query.preparedQuery(sql));
     }
 
     public static SQL sql(Connection connection, Query preparedQuery) {
-        return new SQL(connection, preparedQuery, new ArrayList<>());
+        return new SQL(connection, preparedQuery);
     }
 
     public static Batch batch(Connection connection, String sql) {
-        return new Batch(connection, Query.preparedQuery(sql), new ArrayList<>(), -1);
+        return new Batch(connection, Query.preparedQuery(sql), -1);
     }
 
     public static Batch batch(Connection connection, Query preparedQuery) {
-        return new Batch(connection, preparedQuery, new ArrayList<>(), -1);
+        return new Batch(connection, preparedQuery, -1);
     }
 
     public static Batch batch(Connection connection, int batchSize, String sql) {
-        return new Batch(connection, Query.preparedQuery(sql), new ArrayList<>(), batchSize);
+        return new Batch(connection, Query.preparedQuery(sql), batchSize);
     }
 
     public static Batch batch(Connection connection, int batchSize, Query preparedQuery) {
-        return new Batch(connection, preparedQuery, new ArrayList<>(), batchSize);
+        return new Batch(connection, preparedQuery, batchSize);
     }
 
-    static <T extends PreparedStatement> T fillStatement(T pst, List<String> names, Map<String, Tuple<String, Object>> params) {
-        int i = 1;
-        for (String name : names) {
-            pst = fillParam(pst, i, name, params);
-            i++;
+    static <T extends PreparedStatement> T fillStatement(T pst, Params params) {
+        Query query = params.query();
+        int count = query.getParamNames().size();
+        for (int position = 0; position < count; position++) {
+            int slot = query.slotAt(position);
+            if (params.isSet(slot)) {
+                fillParam(pst, query, position, params.get(slot));
+            }
         }
         return pst;
     }
 
-    private static <T extends PreparedStatement> T fillParam(T pst, int index, String name, Map<String, Tuple<String, Object>> params) {
-        if (params.containsKey(name)) {
-            Object value = params.get(name)._2;
-            try {
-                if (value instanceof String) {
-                    pst.setString(index, (String) value);
-                } else if (value instanceof Time) {
-                    pst.setTime(index, (Time) value);
-                } else if (value instanceof Timestamp) {
-                    pst.setTimestamp(index, (Timestamp) value);
-                } else if (value instanceof java.util.Date) {
-                    pst.setDate(index, new java.sql.Date(((java.util.Date) value).getTime()));
-                } else if (value instanceof DateTime) {
-                    pst.setDate(index, new java.sql.Date(((DateTime) value).toDate().getTime()));
-                } else {
-                    pst.setObject(index, value);
-                }
-            } catch (Exception e) {
-                throw Throwables.propagate(e);
+    private static void fillParam(PreparedStatement pst, Query query, int position, Object value) {
+        fillParam(pst, query, position, position + 1, value);
+    }
+
+    /**
+     * Bind the value of a parameter position of the query at a given index of the statement, which differs
+     * from the position when the statement repeats the parameters of the query
+     */
+    static void fillParam(PreparedStatement pst, Query query, int position, int index, Object value) {
+        try {
+            if (value == null) {
+                pst.setObject(index, null);
+            } else {
+                query.binderFor(position, value.getClass()).bind(pst, index, value);
             }
+        } catch (Exception e) {
+            throw Throwables.propagate(e);
         }
-
-        return pst;
     }
 
     /*static PreparedStatement fillPreparedStatement(PreparedStatement pst, List<String> names, Map<String, Tuple<String, Object>> params) {
@@ -203,6 +241,37 @@ public class API {
         return row -> Option.apply(row.obj(name));
     }
 
+    public static ToLongFunction<Row> longColumn(final String name) {
+        return row -> row.getLong(name);
+    }
+
+    public static ToIntFunction<Row> intColumn(final String name) {
+        return row -> row.getInt(name);
+    }
+
+    public static ToDoubleFunction<Row> doubleColumn(final String name) {
+        return row -> row.getDouble(name);
+    }
+
+    /**
+     * A parser filling a new instance of the class, through its public no-arg constructor, from the columns
+     * named like its public setters and fields (or their snake case form). The mapping is compiled once per
+     * result set schema.
+     */
+    public static <T> Function<Row, Option<T>> beanParser(Class<T> type) {
+        return RowMappers.beanParser(type);
+    }
+
+    /**
+     * A parser calling the constructor of the class with the columns named like its parameters (or their
+     * snake case form): the canonical constructor of a record, or a constructor annotated with
+     * java.beans.ConstructorProperties, or the single public constructor of a class compiled with
+     * -parameters. The mapping is compiled once per result set schema.
+     */
+    public static <T> Function<Row, Option<T>> recordParser(Class<T> type) {
+        return RowMappers.constructorParser(type);
+    }
+
     public static <T> Function<Row, Option<T>> unsafeParser(final Function<Row, T> parser) {
         Invariant.checkNotNull(parser);
         return row -> Option.apply(parser.apply(row));
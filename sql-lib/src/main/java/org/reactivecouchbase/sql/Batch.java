@@ -4,43 +4,235 @@ import org.reactivecouchbase.common.Invariant;
 import org.reactivecouchbase.common.Throwables;
 import org.reactivecouchbase.functional.Tuple;
 
+import java.sql.BatchUpdateException;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.sql.Statement;
 import java.util.*;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicReference;
 
-public class Batch {
-    private final Map<String, Tuple<String, Object>> params;
+/**
+ * Accumulate rows and execute them as JDBC batches.
+ *
+ * A batch is flushed when it reaches batchSize rows, when the estimated size of the parameters of its
+ * rows reaches maxBytes, or when its oldest row reaches maxAge. The age is checked lazily, when a row is
+ * added or flushIfAged is called, unless the batch is given the executor owning its connection: the shared
+ * timer of the library then hands the flush of the aged rows to that executor, so the last rows of a slow
+ * trickle are flushed too. JDBC is never used from the timer thread. Close (or executeBatch) the batch
+ * before giving its connection back.
+ *
+ * A simple INSERT ... VALUES (...) batch can also be sent as multi-row INSERT statements, see
+ * withMultiRowInserts.
+ *
+ * The update counts of a flush are available as a List (executeBatch), an int[] (executeBatchArray) or a
+ * long[] (executeLargeBatch), and the running totals of all the flushes as a BatchSummary. A bulk load
+ * can ask for the summary only (withSummaryOnly), so no per row result is kept at all.
+ */
+public class Batch implements AutoCloseable {
+    private final Connection connection;
+    private final Params params;
     private int batchSize;
     private final AtomicReference<PreparedStatement> statement = new AtomicReference<>();
     private final Query preparedQuery;
     private final AtomicInteger counter = new AtomicInteger(0);
     private final List<Batch> triggerBefore = new ArrayList<>();
     private final List<Batch> triggerAfter = new ArrayList<>();
+    private final FlushStats stats = new FlushStats();
+    private long maxBytes = 0;
+    private long maxAgeNanos = 0;
+    private long pendingBytes = 0;
+    private long firstEnqueuedAt = 0;
+    private Executor ageFlusher;
+    private ScheduledFuture<?> ageTimer;
+    private InsertRewrite rewrite;
+    private int rowsPerStatement;
+    private final List<Object[]> pendingRows = new ArrayList<>();
+    private Object[] lastRow;
+    private Params loggedRow;
+    private final BatchSummary.Accumulator summary = new BatchSummary.Accumulator();
+    private boolean summaryOnly = false;
 
     public Integer enqueued() {
         return counter.get();
     }
 
-    Batch(Connection connection, Query preparedQuery, List<Tuple<String, Object>> params, int batchSize) {
+    /**
+     * Flush the batch once the estimated size of the parameters of its rows reaches maxBytes
+     */
+    public final synchronized Batch withMaxBytes(long maxBytes) {
+        this.maxBytes = maxBytes;
+        return this;
+    }
+
+    /**
+     * Flush the batch once its oldest row has waited for maxAge, when the next row is added or flushIfAged
+     * is called
+     */
+    public final synchronized Batch withMaxAge(long maxAge, TimeUnit unit) {
+        this.maxAgeNanos = unit.toNanos(maxAge);
+        this.ageFlusher = null;
+        return this;
+    }
+
+    /**
+     * Flush the batch once its oldest row has waited for maxAge, on the executor owning the connection of
+     * the batch (typically the single thread using it). A failure of such a flush is thrown on the executor.
+     */
+    public final synchronized Batch withMaxAge(long maxAge, TimeUnit unit, Executor owner) {
+        Invariant.checkNotNull(owner);
+        this.maxAgeNanos = unit.toNanos(maxAge);
+        this.ageFlusher = owner;
+        return this;
+    }
+
+    /**
+     * Flush the pending rows if the oldest one has waited for maxAge, returns their update counts or an
+     * empty list
+     */
+    public final synchronized List<Integer> flushIfAged() {
+        if (!aged()) {
+            return Collections.emptyList();
+        }
+        return asList(flush(FlushStats.Reason.AGE, INT_COUNTS));
+    }
+
+    private boolean aged() {
+        return maxAgeNanos > 0 && counter.get() > 0 && System.nanoTime() - firstEnqueuedAt >= maxAgeNanos;
+    }
+
+    /**
+     * Send the rows as INSERT ... VALUES (...), (...), ... statements of at most 64 rows
+     */
+    public final Batch withMultiRowInserts() {
+        return withMultiRowInserts(64);
+    }
+
+    /**
+     * Send the rows as INSERT ... VALUES (...), (...), ... statements of at most maxRowsPerStatement rows
+     * and 2100 bound parameters, see withMultiRowInserts(maxRowsPerStatement, maxParameters)
+     */
+    public final Batch withMultiRowInserts(int maxRowsPerStatement) {
+        return withMultiRowInserts(maxRowsPerStatement, InsertRewrite.MAX_PARAMETERS);
+    }
+
+    /**
+     * Send the rows as INSERT ... VALUES (...), (...), ... statements of at most maxRowsPerStatement rows
+     * and maxParameters bound parameters (the limit of the driver, 2100 for SQL Server, 65535 for PostgreSQL),
+     * when the query is a simple INSERT with a single VALUES group and nothing after it (otherwise the batch
+     * is left as it is, see rewritesInserts). The pending rows are split in statements of maxRowsPerStatement
+     * rows, then of a quarter of it, and so on down to one row, so only a few statement shapes are prepared.
+     *
+     * The update count of each row is 1 when its statement inserted all its rows, and
+     * Statement.SUCCESS_NO_INFO when the count of the statement cannot be attributed to its rows.
+     */
+    public final synchronized Batch withMultiRowInserts(int maxRowsPerStatement, int maxParameters) {
+        if (maxRowsPerStatement <= 0) {
+            throw new IllegalArgumentException("maxRowsPerStatement must be strictly positive");
+        }
+        if (maxParameters <= 0) {
+            throw new IllegalArgumentException("maxParameters must be strictly positive");
+        }
+        if (counter.get() > 0) {
+            throw new IllegalStateException("The batch has pending rows");
+        }
+        InsertRewrite insertRewrite = preparedQuery.insertRewrite();
+        if (insertRewrite != null) {
+            this.rewrite = insertRewrite;
+            this.rowsPerStatement = insertRewrite.maxRows(maxRowsPerStatement, maxParameters);
+            releaseStatement(false);
+        }
+        return this;
+    }
+
+    /**
+     * Returns true if the rows are sent as multi-row INSERT statements
+     */
+    public final synchronized boolean rewritesInserts() {
+        return rewrite != null;
+    }
+
+    /**
+     * Only keep the summary of the flushes: batch and executeBatch return empty lists, executeBatchArray
+     * and executeLargeBatch empty arrays
+     */
+    public final synchronized Batch withSummaryOnly() {
+        this.summaryOnly = true;
+        return this;
+    }
+
+    /**
+     * The totals of the rows flushed since the creation of the batch
+     */
+    public final synchronized BatchSummary summary() {
+        return summary.snapshot();
+    }
+
+    public final FlushStats flushStats() {
+        return stats;
+    }
+
+    Batch(Connection connection, Query preparedQuery, int batchSize) {
+        this.connection = connection;
         this.preparedQuery = preparedQuery;
-        this.params = new HashMap<>();
+        this.params = new Params(preparedQuery);
         this.batchSize = batchSize;
-        for (Tuple<String, Object> p : params) {
-            this.params.put(p._1, p);
-        }
+        statement();
+    }
+
+    /**
+     * The statement is borrowed from the statement cache of the connection while rows are pending
+     * and given back once the batch has been executed. Without a statement cache, the batch keeps its
+     * statement until it is closed.
+     */
+    private PreparedStatement statement() {
         if (statement.get() == null) {
             try {
-                statement.set(connection.prepareStatement(preparedQuery.getPreparedSqlQuery()));
+                QueryMetrics metrics = preparedQuery.metrics();
+                long start = metrics == null ? 0L : System.nanoTime();
+                statement.set(StatementCache.prepare(connection, preparedQuery.getPreparedSqlQuery()));
+                if (metrics != null) {
+                    metrics.prepared(System.nanoTime() - start);
+                }
             } catch (Exception e) {
                 throw Throwables.propagate(e);
             }
         }
+        return statement.get();
     }
 
-    private void cancelAutoBatch() {
+    private void releaseStatement(boolean failed) {
+        PreparedStatement pst = statement.getAndSet(null);
+        if (pst != null) {
+            try {
+                if (failed) {
+                    StatementCache.discard(connection, pst);
+                } else {
+                    StatementCache.release(connection, pst);
+                }
+            } catch (Exception e) {
+                throw Throwables.propagate(e);
+            }
+        }
+    }
+
+    private synchronized void cancelAutoBatch() {
         this.batchSize = -1;
+        this.maxBytes = 0;
+        this.maxAgeNanos = 0;
+        cancelAgeTimer();
+    }
+
+    private void cancelAgeTimer() {
+        if (ageTimer != null) {
+            ageTimer.cancel(false);
+            ageTimer = null;
+        }
     }
 
     public Batch triggerBeforeSelf(Batch... batches) {
@@ -72,7 +264,7 @@ public class Batch {
     }
 
     public final Batch on(String name, Object value) {
-        this.params.put(name.trim(), Tuple.of(name.trim(), value));
+        params.set(name, value);
         return this;
     }
 
@@ -88,61 +280,377 @@ public class Batch {
     }
 
     public final Batch add(List<Tuple<String, Object>> pairs) {
-        for (Tuple<String, Object> p : pairs) {
-            this.params.put(p._1, p);
+        params.set(pairs);
+        return this;
+    }
+
+    /**
+     * Set the parameters of the row from the public getters, accessors and fields of the object, see SQL.bind
+     */
+    @SuppressWarnings("unchecked")
+    public final Batch add(Object value) {
+        Invariant.checkNotNull(value);
+        if (value instanceof Tuple) {
+            // add(pair) with a single pair resolves to this overload
+            return add(Collections.singletonList((Tuple<String, Object>) value));
         }
+        params.bind(value);
         return this;
     }
 
-    public final List<Integer> batch() {
-        statement.set(API.fillStatement(statement.get(), preparedQuery.getParamNames(), params));
-        try {
-            statement.get().addBatch();
-        } catch (Exception e) {
-            throw Throwables.propagate(e);
+    public final synchronized List<Integer> batch() {
+        if (rewrite != null) {
+            pendingRows.add(rowValues());
+        } else {
+            statement.set(API.fillStatement(statement(), params));
+            try {
+                statement.get().addBatch();
+            } catch (Exception e) {
+                throw Throwables.propagate(e);
+            }
+        }
+        int[] results = null;
+        if (counter.incrementAndGet() == 1) {
+            firstEnqueuedAt = System.nanoTime();
+            Executor owner = ageFlusher;
+            if (maxAgeNanos > 0 && owner != null) {
+                ageTimer = Timers.schedule(() -> owner.execute(this::flushIfAged), maxAgeNanos, TimeUnit.NANOSECONDS);
+            }
+        }
+        if (maxBytes > 0) {
+            pendingBytes += params.estimatedSize();
+        }
+        if (Query.slowQueryLog != null) {
+            // the last row of a batch is its parameters in the slow query log
+            if (loggedRow == null) {
+                loggedRow = new Params(preparedQuery);
+            }
+            loggedRow.merge(params);
         }
-        List<Integer> results = new ArrayList<>();
-        counter.incrementAndGet();
         if (batchSize > 0 && counter.get() >= batchSize) {
-            results = executeBatch();
+            results = flush(FlushStats.Reason.ROWS, INT_COUNTS);
+        } else if (maxBytes > 0 && pendingBytes >= maxBytes) {
+            results = flush(FlushStats.Reason.BYTES, INT_COUNTS);
+        } else if (aged()) {
+            results = flush(FlushStats.Reason.AGE, INT_COUNTS);
         }
         params.clear();
-        return results;
+        return asList(results);
+    }
+
+    /**
+     * The values of the row by parameter position. Like a JDBC statement between two rows of a batch, a
+     * parameter that is not set keeps the value of the previous row.
+     */
+    private Object[] rowValues() {
+        int width = rewrite.width();
+        Object[] row = new Object[width];
+        for (int position = 0; position < width; position++) {
+            int slot = preparedQuery.slotAt(position);
+            if (params.isSet(slot)) {
+                row[position] = params.get(slot);
+            } else if (lastRow != null) {
+                row[position] = lastRow[position];
+            } else {
+                throw Throwables.propagate(new SQLException("No value specified for parameter "
+                        + preparedQuery.getParamNames().get(position)));
+            }
+        }
+        lastRow = row;
+        return row;
     }
 
-    public final void clearBatch() {
+    public final synchronized void clearBatch() {
         try {
-            counter.set(0);
+            resetPending();
             params.clear();
-            statement.get().clearBatch();
-            statement.get().clearParameters();
+            lastRow = null;
+            loggedRow = null;
+            PreparedStatement pst = statement.get();
+            if (pst != null) {
+                pst.clearBatch();
+                pst.clearParameters();
+            }
         } catch (Exception e) {
             throw Throwables.propagate(e);
         }
     }
 
-    public final List<Integer> executeBatch() {
+    private void resetPending() {
+        counter.set(0);
+        pendingRows.clear();
+        pendingBytes = 0;
+        cancelAgeTimer();
+    }
+
+    public final synchronized List<Integer> executeBatch() {
+        return asList(executeBatch(INT_COUNTS));
+    }
+
+    /**
+     * Execute the pending rows and return their update counts without boxing them
+     */
+    public final synchronized int[] executeBatchArray() {
+        int[] results = executeBatch(INT_COUNTS);
+        return results == null ? NO_COUNTS : results;
+    }
+
+    /**
+     * Execute the pending rows with PreparedStatement.executeLargeBatch, or executeBatch if the driver does
+     * not support it
+     */
+    public final synchronized long[] executeLargeBatch() {
+        long[] results = executeBatch(LARGE_COUNTS);
+        return results == null ? NO_LARGE_COUNTS : results;
+    }
+
+    private synchronized <C> C executeBatch(Counts<C> counts) {
+        C results = flush(FlushStats.Reason.EXPLICIT, counts);
+        params.clear();
+        return results;
+    }
+
+    private static final int[] NO_COUNTS = new int[0];
+    private static final long[] NO_LARGE_COUNTS = new long[0];
+
+    private static List<Integer> asList(int[] counts) {
+        if (counts == null || counts.length == 0) {
+            return Collections.emptyList();
+        }
+        List<Integer> result = new ArrayList<>(counts.length);
+        for (int count : counts) {
+            result.add(count);
+        }
+        return result;
+    }
+
+    /**
+     * How a flush gets the update counts of its rows: an int[] from executeBatch, or a long[] from
+     * executeLargeBatch, so neither is copied into the other
+     */
+    private abstract static class Counts<C> {
+
+        abstract C execute(PreparedStatement pst) throws SQLException;
+
+        /**
+         * The counts of the rows sent as multi-row inserts
+         */
+        abstract C ofRows(int[] counts);
+
+        abstract void record(BatchSummary.Accumulator summary, C counts, int rows);
+
+        abstract long updatedRows(C counts);
+    }
+
+    private static final Counts<int[]> INT_COUNTS = new Counts<int[]>() {
+        @Override
+        int[] execute(PreparedStatement pst) throws SQLException {
+            return pst.executeBatch();
+        }
+
+        @Override
+        int[] ofRows(int[] counts) {
+            return counts;
+        }
+
+        @Override
+        void record(BatchSummary.Accumulator summary, int[] counts, int rows) {
+            summary.record(counts, rows);
+        }
+
+        @Override
+        long updatedRows(int[] counts) {
+            long updated = 0;
+            for (int count : counts) {
+                if (count > 0) {
+                    updated += count;
+                }
+            }
+            return updated;
+        }
+    };
+
+    private static final Counts<long[]> LARGE_COUNTS = new Counts<long[]>() {
+        @Override
+        long[] execute(PreparedStatement pst) throws SQLException {
+            try {
+                return pst.executeLargeBatch();
+            } catch (UnsupportedOperationException | SQLFeatureNotSupportedException e) {
+                return ofRows(pst.executeBatch());
+            }
+        }
+
+        @Override
+        long[] ofRows(int[] counts) {
+            long[] result = new long[counts.length];
+            for (int i = 0; i < counts.length; i++) {
+                result[i] = counts[i];
+            }
+            return result;
+        }
+
+        @Override
+        void record(BatchSummary.Accumulator summary, long[] counts, int rows) {
+            summary.record(counts, rows);
+        }
+
+        @Override
+        long updatedRows(long[] counts) {
+            long updated = 0;
+            for (long count : counts) {
+                if (count > 0) {
+                    updated += count;
+                }
+            }
+            return updated;
+        }
+    };
+
+    /**
+     * Execute the pending rows, and any triggered batch, without touching the parameters of the row
+     * being built. Returns null if there was nothing to execute or only the summary is kept.
+     */
+    private <C> C flush(FlushStats.Reason reason, Counts<C> counts) {
         for (Batch batch : triggerBefore) {
-            batch.executeBatch();
+            batch.executeBatch(INT_COUNTS);
         }
+        boolean failed = true;
+        int rows = counter.get();
+        long bytes = pendingBytes;
+        long start = System.nanoTime();
+        Probe probe = rows > 0 ? Probe.start(preparedQuery, loggedRow, 0) : null;
         try {
-            int[] ret = statement.get().executeBatch();
-            clearBatch();
-            if (ret != null) {
-                List<Integer> result = new ArrayList<>();
-                for (Integer i : ret) {
-                    result.add(i);
+            C ret;
+            if (rewrite != null) {
+                if (pendingRows.isEmpty()) {
+                    failed = false;
+                    return null;
                 }
-                return result;
+                ret = counts.ofRows(executeMultiRowInserts());
             } else {
-                return Collections.emptyList();
+                PreparedStatement pst = statement.get();
+                if (pst == null) {
+                    failed = false;
+                    return null;
+                }
+                ret = counts.execute(pst);
+                pst.clearBatch();
+            }
+            counts.record(summary, ret, rows);
+            failed = false;
+            if (rows > 0) {
+                stats.record(reason, rows, bytes, System.nanoTime() - start, false);
+            }
+            if (probe != null) {
+                probe.executed(counts.updatedRows(ret));
+                probe.finished(false);
             }
+            resetPending();
+            if (StatementCache.caches(connection)) {
+                releaseStatement(false);
+            }
+            return summaryOnly ? null : ret;
+        } catch (BatchUpdateException e) {
+            summary.record(e.getLargeUpdateCounts(), rows);
+            throw Throwables.propagate(e);
         } catch (Exception e) {
+            summary.record((int[]) null, rows);
             throw Throwables.propagate(e);
         } finally {
+            if (failed) {
+                if (rows > 0) {
+                    stats.record(reason, rows, bytes, System.nanoTime() - start, true);
+                }
+                if (probe != null) {
+                    probe.finished(true);
+                }
+                resetPending();
+                releaseStatement(true);
+            }
+            if (rows > 0) {
+                // even a failed batch may have written some of its rows
+                ResultCache.written(connection, preparedQuery.writtenTables());
+            }
             for (Batch batch : triggerAfter) {
-                batch.executeBatch();
+                batch.executeBatch(INT_COUNTS);
             }
         }
     }
-}
\ No newline at end of file
+
+    /**
+     * Execute the pending rows as statements of rowsPerStatement rows, then a quarter of it, and so on
+     */
+    private int[] executeMultiRowInserts() throws SQLException {
+        int[] counts = new int[pendingRows.size()];
+        int offset = 0;
+        for (int size = rowsPerStatement; offset < pendingRows.size(); size = Math.max(1, size / 4)) {
+            int statements = (pendingRows.size() - offset) / size;
+            if (statements > 0) {
+                executeMultiRowInserts(size, statements, offset, counts);
+                offset += statements * size;
+            }
+        }
+        return counts;
+    }
+
+    private void executeMultiRowInserts(int size, int statements, int offset, int[] counts) throws SQLException {
+        PreparedStatement pst = StatementCache.prepare(connection, rewrite.sqlFor(size));
+        boolean failed = true;
+        try {
+            int width = rewrite.width();
+            for (int i = 0; i < statements; i++) {
+                for (int r = 0; r < size; r++) {
+                    Object[] row = pendingRows.get(offset + i * size + r);
+                    for (int position = 0; position < width; position++) {
+                        API.fillParam(pst, preparedQuery, position, r * width + position + 1, row[position]);
+                    }
+                }
+                pst.addBatch();
+            }
+            int[] results;
+            try {
+                results = pst.executeBatch();
+            } catch (BatchUpdateException e) {
+                int[] executed = e.getUpdateCounts() == null ? new int[0] : e.getUpdateCounts();
+                int known = Math.min(executed.length, statements);
+                fillRowCounts(executed, known, size, offset, counts);
+                throw new BatchUpdateException(e.getMessage(), e.getSQLState(), e.getErrorCode(),
+                        Arrays.copyOf(counts, offset + known * size), e);
+            }
+            pst.clearBatch();
+            fillRowCounts(results, statements, size, offset, counts);
+            failed = false;
+        } finally {
+            if (failed) {
+                StatementCache.discard(connection, pst);
+            } else {
+                StatementCache.release(connection, pst);
+            }
+        }
+    }
+
+    /**
+     * Spread the counts of multi-row statements on their rows: 1 per row when a statement inserted all its
+     * rows, SUCCESS_NO_INFO when its count cannot be attributed
+     */
+    private static void fillRowCounts(int[] results, int statements, int size, int offset, int[] counts) {
+        for (int i = 0; i < statements; i++) {
+            int count = i < results.length ? results[i] : Statement.SUCCESS_NO_INFO;
+            int perRow = count == size ? 1 : count == Statement.EXECUTE_FAILED ? count : Statement.SUCCESS_NO_INFO;
+            Arrays.fill(counts, offset + i * size, offset + (i + 1) * size, perRow);
+        }
+    }
+
+    /**
+     * Execute the pending rows, stop the time based flush and close the statement
+     */
+    @Override
+    public final synchronized void close() {
+        try {
+            executeBatch(INT_COUNTS);
+        } finally {
+            cancelAgeTimer();
+            releaseStatement(false);
+        }
+    }
+}
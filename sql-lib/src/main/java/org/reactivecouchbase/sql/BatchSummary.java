@@ -0,0 +1,119 @@
+package org.reactivecouchbase.sql;
+
+import java.sql.Statement;
+import java.util.Arrays;
+
+/**
+ * The outcome of the rows flushed by a batch since its creation: how many rows were executed, how many rows
+ * they affected, and the positions (0 based, in the order the rows were added) of the rows that failed.
+ */
+public final class BatchSummary {
+
+    private final long rows;
+    private final long affectedRows;
+    private final long unknownRows;
+    private final long[] failedPositions;
+
+    private BatchSummary(long rows, long affectedRows, long unknownRows, long[] failedPositions) {
+        this.rows = rows;
+        this.affectedRows = affectedRows;
+        this.unknownRows = unknownRows;
+        this.failedPositions = failedPositions;
+    }
+
+    public long rows() {
+        return rows;
+    }
+
+    /**
+     * The sum of the update counts reported by the driver
+     */
+    public long affectedRows() {
+        return affectedRows;
+    }
+
+    /**
+     * The number of rows executed successfully without an update count (Statement.SUCCESS_NO_INFO)
+     */
+    public long unknownRows() {
+        return unknownRows;
+    }
+
+    public long failedRows() {
+        return failedPositions.length;
+    }
+
+    public long[] failedPositions() {
+        return failedPositions.clone();
+    }
+
+    public boolean hasFailures() {
+        return failedPositions.length > 0;
+    }
+
+    @Override
+    public String toString() {
+        return "BatchSummary{" + "rows=" + rows + ", affectedRows=" + affectedRows + ", unknownRows=" + unknownRows
+                + ", failedRows=" + failedPositions.length + '}';
+    }
+
+    /**
+     * Running totals of a batch, fed with the update counts of each flush
+     */
+    static final class Accumulator {
+
+        private long rows = 0;
+        private long affectedRows = 0;
+        private long unknownRows = 0;
+        private long[] failedPositions = new long[0];
+        private int failures = 0;
+
+        /**
+         * Record the counts of a flush of the given number of rows. Rows without a count (the driver stopped
+         * at a failure) are failed.
+         */
+        void record(long[] counts, int flushedRows) {
+            int known = counts == null ? 0 : Math.min(counts.length, flushedRows);
+            for (int i = 0; i < known; i++) {
+                count(counts[i], rows + i);
+            }
+            finish(known, flushedRows);
+        }
+
+        void record(int[] counts, int flushedRows) {
+            int known = counts == null ? 0 : Math.min(counts.length, flushedRows);
+            for (int i = 0; i < known; i++) {
+                count(counts[i], rows + i);
+            }
+            finish(known, flushedRows);
+        }
+
+        private void count(long count, long position) {
+            if (count >= 0) {
+                affectedRows += count;
+            } else if (count == Statement.SUCCESS_NO_INFO) {
+                unknownRows++;
+            } else {
+                fail(position);
+            }
+        }
+
+        private void finish(int known, int flushedRows) {
+            for (int i = known; i < flushedRows; i++) {
+                fail(rows + i);
+            }
+            rows += flushedRows;
+        }
+
+        private void fail(long position) {
+            if (failures == failedPositions.length) {
+                failedPositions = Arrays.copyOf(failedPositions, Math.max(16, failures * 2));
+            }
+            failedPositions[failures++] = position;
+        }
+
+        BatchSummary snapshot() {
+            return new BatchSummary(rows, affectedRows, unknownRows, Arrays.copyOf(failedPositions, failures));
+        }
+    }
+}
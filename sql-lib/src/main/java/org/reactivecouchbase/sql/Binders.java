@@ -0,0 +1,101 @@
+package org.reactivecouchbase.sql;
+
+import org.joda.time.DateTime;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.sql.Time;
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.time.ZonedDateTime;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Registry of parameter binders. The binder of a Java class is resolved once (exact match first, then the
+ * closest registered super class or interface) and falls back to setObject.
+ */
+final class Binders {
+
+    static final ParamBinder<Object> OBJECT = (pst, index, value) -> pst.setObject(index, value);
+    static final ParamBinder<Object> ENUM = (pst, index, value) -> pst.setString(index, ((Enum<?>) value).name());
+
+    private static final Map<Class<?>, ParamBinder<?>> REGISTERED = new LinkedHashMap<>();
+    private static volatile ClassValue<ParamBinder<Object>> resolved = newResolver();
+    private static volatile int version = 0;
+
+    static {
+        register(String.class, (pst, index, value) -> pst.setString(index, value));
+        register(Integer.class, (pst, index, value) -> pst.setInt(index, value));
+        register(Long.class, (pst, index, value) -> pst.setLong(index, value));
+        register(Short.class, (pst, index, value) -> pst.setShort(index, value));
+        register(Byte.class, (pst, index, value) -> pst.setByte(index, value));
+        register(Double.class, (pst, index, value) -> pst.setDouble(index, value));
+        register(Float.class, (pst, index, value) -> pst.setFloat(index, value));
+        register(Boolean.class, (pst, index, value) -> pst.setBoolean(index, value));
+        register(Character.class, (pst, index, value) -> pst.setString(index, String.valueOf(value)));
+        register(BigDecimal.class, (pst, index, value) -> pst.setBigDecimal(index, value));
+        register(BigInteger.class, (pst, index, value) -> pst.setBigDecimal(index, new BigDecimal(value)));
+        register(byte[].class, (pst, index, value) -> pst.setBytes(index, value));
+        register(Time.class, (pst, index, value) -> pst.setTime(index, value));
+        register(Timestamp.class, (pst, index, value) -> pst.setTimestamp(index, value));
+        register(java.sql.Date.class, (pst, index, value) -> pst.setDate(index, value));
+        register(java.util.Date.class, (pst, index, value) -> pst.setDate(index, new java.sql.Date(value.getTime())));
+        register(DateTime.class, (pst, index, value) -> pst.setDate(index, new java.sql.Date(value.toDate().getTime())));
+        register(LocalDate.class, (pst, index, value) -> pst.setDate(index, java.sql.Date.valueOf(value)));
+        register(LocalTime.class, (pst, index, value) -> pst.setTime(index, Time.valueOf(value)));
+        register(LocalDateTime.class, (pst, index, value) -> pst.setTimestamp(index, Timestamp.valueOf(value)));
+        register(Instant.class, (pst, index, value) -> pst.setTimestamp(index, Timestamp.from(value)));
+        register(ZonedDateTime.class, (pst, index, value) -> pst.setObject(index, value.toOffsetDateTime()));
+    }
+
+    private Binders() {
+    }
+
+    static <T> void register(Class<T> type, ParamBinder<? super T> binder) {
+        synchronized (REGISTERED) {
+            REGISTERED.put(type, binder);
+            resolved = newResolver();
+            version++;
+        }
+    }
+
+    static int version() {
+        return version;
+    }
+
+    static ParamBinder<Object> binderFor(Class<?> type) {
+        return resolved.get(type);
+    }
+
+    private static ClassValue<ParamBinder<Object>> newResolver() {
+        return new ClassValue<ParamBinder<Object>>() {
+            @Override
+            protected ParamBinder<Object> computeValue(Class<?> type) {
+                return resolve(type);
+            }
+        };
+    }
+
+    @SuppressWarnings("unchecked")
+    private static ParamBinder<Object> resolve(Class<?> type) {
+        synchronized (REGISTERED) {
+            ParamBinder<?> binder = null;
+            for (Class<?> current = type; binder == null && current != null; current = current.getSuperclass()) {
+                binder = REGISTERED.get(current);
+                for (Class<?> itf : current.getInterfaces()) {
+                    if (binder == null) {
+                        binder = REGISTERED.get(itf);
+                    }
+                }
+            }
+            if (binder == null) {
+                return OBJECT;
+            }
+            return (ParamBinder<Object>) binder;
+        }
+    }
+}
@@ -11,12 +11,12 @@ import org.reactivecouchbase.json.JsValue;
 import org.reactivecouchbase.json.Json;
 import rx.Observable;
 import rx.Single;
-import rx.Subscriber;
 import rx.functions.Func1;
 
 import java.sql.*;
 import java.util.*;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
 import java.util.function.BiFunction;
 import java.util.function.Consumer;
 import java.util.function.Function;
@@ -26,8 +26,10 @@ public class Call {
 
     private final Query preparedQuery;
     private final Connection connection;
-    private final Map<String, Tuple<String, Object>> params;
+    private final Params params;
     private final List<Tuple<String, SQLType>> outs;
+    private final Cancellation cancellation = new Cancellation();
+    private long timeoutMillis = 0;
     private boolean safeMode = API.defaultSafeModeValue;
     private Option<Integer> page = API.defaultPageOfValue;
 
@@ -36,14 +38,11 @@ public class Call {
         return this;
     }
 
-    Call(Connection connection, Query preparedQuery, List<Tuple<String, Object>> params) {
+    Call(Connection connection, Query preparedQuery) {
         this.preparedQuery = preparedQuery;
         this.connection = connection;
-        this.params = new HashMap<>();
+        this.params = new Params(preparedQuery);
         this.outs = new ArrayList<>();
-        for (Tuple<String, Object> p : params) {
-            this.params.put(p._1.trim(), p);
-        }
     }
 
     public final Call withPageOf(int of) {
@@ -56,8 +55,25 @@ public class Call {
         return this;
     }
 
+    /**
+     * Cancel every execution of this call that takes longer than the timeout, including the consumption
+     * of its rows. The call is stopped on the server side.
+     */
+    public final Call withTimeout(long timeout, TimeUnit unit) {
+        this.timeoutMillis = unit.toMillis(timeout);
+        return this;
+    }
+
+    /**
+     * Cancel the executions of this call that are currently running, from any thread. Later executions
+     * are not affected.
+     */
+    public final void cancel() {
+        cancellation.cancelRunning();
+    }
+
     public final Call on(String name, Object value) {
-        this.params.put(name.trim(), Tuple.of(name.trim(), value));
+        params.set(name, value);
         return this;
     }
 
@@ -66,73 +82,147 @@ public class Call {
         return this;
     }
 
-    private final <T> List<T> executeQueryWithLimit(Function<CallRow, Option<T>> parser, Long limit) {
+    @FunctionalInterface
+    private interface ResultSetHandler<R> {
+        R handle(ResultSet resultSet, RowSchema schema, CallableStatement pst, Cancellation execution) throws Exception;
+    }
+
+    private Cancellation startExecution() {
+        return cancellation.start(timeoutMillis, Probe.start(preparedQuery, params, page.isDefined() ? page.get() : 0));
+    }
+
+    private <R> R query(ResultSetHandler<R> handler) {
+        Cancellation execution = startExecution();
         ResultSet resultSet = null;
         CallableStatement pst = null;
+        boolean failed = false;
         try {
-            pst = connection.prepareCall(preparedQuery.getPreparedSqlQuery());
-            if (pst != null && page.isDefined()) {
+            pst = execution.prepareCall(connection, preparedQuery.getPreparedSqlQuery());
+            if (page.isDefined()) {
                 pst.setFetchSize(page.get());
             }
-            pst = API.fillStatement(pst, preparedQuery.getParamNames(), params);
+            pst = API.fillStatement(pst, params);
             for (Tuple<String, SQLType> tuple : outs) {
                 pst.registerOutParameter(tuple._1, tuple._2);
             }
             resultSet = pst.executeQuery();
-            List<T> results = new ArrayList<T>();
-            while (resultSet.next()) {
-                int index = resultSet.getRow();
-                Option<T> opt = parser.apply(new CallRow(new Row(index, resultSet, safeMode), pst, safeMode));
-                if (opt.isDefined()) {
-                    results.add(opt.get());
-                    if (limit != null && results.size() >= limit) {
-                        return results;
-                    }
-                }
-            }
-            return results;
+            execution.executed(-1);
+            return handler.handle(resultSet, preparedQuery.schemaOf(resultSet), pst, execution);
         } catch (Exception e) {
+            failed = true;
             throw Throwables.propagate(e);
         } finally {
             if (resultSet != null) {
                 try {
                     resultSet.close();
                 } catch (Exception e) {
+                    failed = true;
                     throw Throwables.propagate(e);
+                } finally {
+                    release(execution, pst, failed);
                 }
+            } else {
+                release(execution, pst, failed);
+            }
+        }
+    }
+
+    private void release(Cancellation execution, CallableStatement pst, boolean failed) {
+        try {
+            execution.release(connection, pst, failed);
+        } catch (Exception e) {
+            if (!failed) {
+                throw Throwables.propagate(e);
+            }
+        }
+    }
+
+    /**
+     * Execute the call and return a cursor over its result, which must be closed by the caller
+     */
+    final Cursor<CallRow> open(Cancellation execution) {
+        CallableStatement pst = null;
+        ResultSet resultSet = null;
+        try {
+            pst = execution.prepareCall(connection, preparedQuery.getPreparedSqlQuery());
+            if (page.isDefined()) {
+                pst.setFetchSize(page.get());
+            }
+            pst = API.fillStatement(pst, params);
+            for (Tuple<String, SQLType> tuple : outs) {
+                pst.registerOutParameter(tuple._1, tuple._2);
             }
-            if (pst != null) {
+            resultSet = pst.executeQuery();
+            execution.executed(-1);
+            Row row = new Row(0, resultSet, preparedQuery.schemaOf(resultSet), safeMode);
+            return new Cursor<>(execution, connection, pst, resultSet, row, new CallRow(row, pst, safeMode));
+        } catch (Exception e) {
+            if (resultSet != null) {
                 try {
-                    pst.close();
-                } catch (Exception e) {
-                    throw Throwables.propagate(e);
+                    resultSet.close();
+                } catch (Exception ignore) {
+                    // the original failure is more interesting than the close one
                 }
             }
+            release(execution, pst, true);
+            throw Throwables.propagate(e);
         }
     }
 
+    private final <T> List<T> executeQueryWithLimit(Function<CallRow, Option<T>> parser, Long limit) {
+        return query((resultSet, schema, pst, execution) -> {
+            List<T> results = new ArrayList<T>();
+            while (execution.next(resultSet)) {
+                int index = resultSet.getRow();
+                Option<T> opt = parser.apply(new CallRow(new Row(index, resultSet, schema, safeMode), pst, safeMode));
+                if (opt.isDefined()) {
+                    results.add(opt.get());
+                    if (limit != null && results.size() >= limit) {
+                        return results;
+                    }
+                }
+            }
+            return results;
+        });
+    }
+
     public final boolean execute() {
+        Cancellation execution = startExecution();
+        CallableStatement pst = null;
         try {
-            CallableStatement pst = connection.prepareCall(preparedQuery.getPreparedSqlQuery());
-            pst = API.fillStatement(pst, preparedQuery.getParamNames(), params);
+            pst = execution.prepareCall(connection, preparedQuery.getPreparedSqlQuery());
+            pst = API.fillStatement(pst, params);
             for (Tuple<String, SQLType> tuple : outs) {
                 pst.registerOutParameter(tuple._1, tuple._2);
             }
-            return pst.execute();
+            boolean result = pst.execute();
+            execution.executed(-1);
+            release(execution, pst, false);
+            // a procedure may write any table
+            ResultCache.written(connection, null);
+            return result;
         } catch (Exception e) {
+            release(execution, pst, true);
             throw Throwables.propagate(e);
         }
     }
 
     public final int executeUpdate() {
+        Cancellation execution = startExecution();
+        CallableStatement pst = null;
         try {
-            CallableStatement pst = connection.prepareCall(preparedQuery.getPreparedSqlQuery());
-            pst = API.fillStatement(pst, preparedQuery.getParamNames(), params);
+            pst = execution.prepareCall(connection, preparedQuery.getPreparedSqlQuery());
+            pst = API.fillStatement(pst, params);
             for (Tuple<String, SQLType> tuple : outs) {
                 pst.registerOutParameter(tuple._1, tuple._2);
             }
-            return pst.executeUpdate();
+            int result = pst.executeUpdate();
+            execution.executed(result);
+            release(execution, pst, false);
+            ResultCache.written(connection, null);
+            return result;
         } catch (Exception e) {
+            release(execution, pst, true);
             throw Throwables.propagate(e);
         }
     }
@@ -205,40 +295,20 @@ public class Call {
         return this.withPageOf(pageOf).asBlockingObservable();
     }
 
+    /**
+     * An observable emitting the rows as the subscriber requests them, on the executor.
+     * Rows are emitted in cursor mode and are only valid during onNext.
+     */
     public Observable<CallRow> asAsyncObservable(ExecutorService ec) {
-        Call sql = this;
-        return Observable.create(new Observable.OnSubscribe<CallRow>() {
-            @Override
-            public void call(Subscriber<? super CallRow> subscriber) {
-                Future.async(() -> {
-                    subscriber.onStart();
-                    try {
-                        sql.foreach(subscriber::onNext);
-                        subscriber.onCompleted();
-                    } catch (Throwable e) {
-                        e.printStackTrace();
-                        subscriber.onError(e);
-                    }
-                }, ec);
-            }
-        });
+        return CursorProducer.observable(this::startExecution, this::open, page, ec);
     }
 
+    /**
+     * An observable emitting the rows as the subscriber requests them, on the subscribing thread.
+     * Rows are emitted in cursor mode and are only valid during onNext.
+     */
     public Observable<CallRow> asBlockingObservable() {
-        Call sql = this;
-        return Observable.create(new Observable.OnSubscribe<CallRow>() {
-            @Override
-            public void call(Subscriber<? super CallRow> subscriber) {
-                subscriber.onStart();
-                try {
-                    sql.foreach(subscriber::onNext);
-                    subscriber.onCompleted();
-                } catch (Throwable e) {
-                    e.printStackTrace();
-                    subscriber.onError(e);
-                }
-            }
-        });
+        return CursorProducer.observable(this::startExecution, this::open, page, null);
     }
 
     public final JsArray asJsArray() {
@@ -292,10 +362,20 @@ public class Call {
     }
 
 
+    /**
+     * Pass every row of the result to the action in cursor mode: a single CallRow instance is advanced
+     * over the whole result set. The row is only valid during the call to the action and must not escape it.
+     */
     public final void foreach(final Consumer<CallRow> action) {
-        collect(row -> {
-            action.accept(row);
-            return Option.none();
+        query((resultSet, schema, pst, execution) -> {
+            Row row = new Row(0, resultSet, schema, safeMode);
+            CallRow callRow = new CallRow(row, pst, safeMode);
+            int index = 0;
+            while (execution.next(resultSet)) {
+                row.moveTo(++index);
+                action.accept(callRow);
+            }
+            return null;
         });
     }
 
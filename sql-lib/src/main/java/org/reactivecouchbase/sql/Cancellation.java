@@ -0,0 +1,171 @@
+package org.reactivecouchbase.sql;
+
+import java.sql.CallableStatement;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Track the statements of running executions so they can be cancelled from another thread with
+ * Statement.cancel, which stops the query on the server side and makes the blocked call fail.
+ *
+ * Each execution gets its own child, which also registers its statements in its parent: cancelling a child
+ * stops one execution (and the ones it would start later), cancelling the running statements of the parent
+ * stops all of them. A statement that has been cancelled is closed instead of being cached.
+ *
+ * An execution also carries the probe timing its phases (prepare, execute, first row and fetch) for the
+ * metrics and the slow query log, reported once when it is released.
+ */
+final class Cancellation {
+
+    static final String CANCELLED_STATE = "57014";
+
+    private final Cancellation parent;
+    private final ConcurrentHashMap<Statement, Boolean> running = new ConcurrentHashMap<>();
+    private volatile boolean cancelled = false;
+    private ScheduledFuture<?> timer;
+    private Probe probe;
+
+    Cancellation() {
+        this(null);
+    }
+
+    private Cancellation(Cancellation parent) {
+        this.parent = parent;
+    }
+
+    /**
+     * Start a new execution, cancelled after the timeout if it is positive
+     */
+    Cancellation start(long timeoutMillis) {
+        return start(timeoutMillis, null);
+    }
+
+    /**
+     * Start a new execution timed by the probe, if it is not null
+     */
+    Cancellation start(long timeoutMillis, Probe probe) {
+        Cancellation execution = new Cancellation(this);
+        execution.probe = probe;
+        if (timeoutMillis > 0) {
+            execution.timer = Timers.schedule(execution::cancel, timeoutMillis, TimeUnit.MILLISECONDS);
+        }
+        return execution;
+    }
+
+    PreparedStatement prepare(Connection connection, String sql) throws SQLException {
+        return prepared(track(connection, StatementCache.prepare(connection, sql)));
+    }
+
+    CallableStatement prepareCall(Connection connection, String sql) throws SQLException {
+        return prepared(track(connection, StatementCache.prepareCall(connection, sql)));
+    }
+
+    private <S extends PreparedStatement> S prepared(S statement) {
+        if (probe != null) {
+            probe.prepared();
+        }
+        return statement;
+    }
+
+    /**
+     * The statement has been executed, with its update count or -1
+     */
+    void executed(long updateCount) {
+        if (probe != null) {
+            probe.executed(updateCount);
+        }
+    }
+
+    /**
+     * Move the result set of the execution to its next row, counting the rows read
+     */
+    boolean next(ResultSet resultSet) throws SQLException {
+        return probe == null ? resultSet.next() : probe.next(resultSet);
+    }
+
+    private <S extends PreparedStatement> S track(Connection connection, S statement) throws SQLException {
+        try {
+            enter(statement);
+            return statement;
+        } catch (SQLException e) {
+            StatementCache.discard(connection, statement);
+            throw e;
+        }
+    }
+
+    /**
+     * End the execution: stop tracking the statement and give it back to the cache of its connection,
+     * or close it if the execution failed or has been cancelled
+     */
+    void release(Connection connection, PreparedStatement statement, boolean failed) throws SQLException {
+        if (timer != null) {
+            timer.cancel(false);
+        }
+        if (probe != null) {
+            probe.finished(failed || cancelled);
+        }
+        if (statement == null) {
+            return;
+        }
+        if (exit(statement) || failed) {
+            StatementCache.discard(connection, statement);
+        } else {
+            StatementCache.release(connection, statement);
+        }
+    }
+
+    private void enter(Statement statement) throws SQLException {
+        if (parent != null) {
+            parent.enter(statement);
+        }
+        running.put(statement, Boolean.FALSE);
+        if (cancelled) {
+            exit(statement);
+            throw new SQLException("The execution has been cancelled", CANCELLED_STATE);
+        }
+    }
+
+    /**
+     * Returns true if the statement has been cancelled while it was tracked
+     */
+    private boolean exit(Statement statement) {
+        boolean interrupted = Boolean.TRUE.equals(running.remove(statement));
+        if (parent != null && parent.exit(statement)) {
+            interrupted = true;
+        }
+        return interrupted;
+    }
+
+    /**
+     * Cancel the running statements and refuse the ones that would be started later
+     */
+    void cancel() {
+        cancelled = true;
+        cancelRunning();
+    }
+
+    /**
+     * Cancel the running statements only
+     */
+    void cancelRunning() {
+        for (Statement statement : running.keySet()) {
+            if (running.replace(statement, Boolean.FALSE, Boolean.TRUE)) {
+                try {
+                    statement.cancel();
+                } catch (SQLException ignore) {
+                    // the statement is already done or closed
+                }
+            }
+        }
+    }
+
+    boolean isCancelled() {
+        return cancelled;
+    }
+}
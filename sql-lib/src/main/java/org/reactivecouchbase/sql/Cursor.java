@@ -0,0 +1,90 @@
+package org.reactivecouchbase.sql;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * An open result set that is advanced one row at a time by its owner, outside of any callback.
+ *
+ * The same row instance is moved over the whole result set (cursor mode), and the statement is given back
+ * to the statement cache of the connection when the cursor is closed, unless the execution failed or has
+ * been cancelled.
+ */
+final class Cursor<T> implements AutoCloseable {
+
+    private final Cancellation execution;
+    private final Connection connection;
+    private final PreparedStatement statement;
+    private final ResultSet resultSet;
+    private final Row row;
+    private final T current;
+    private int index = 0;
+    private int fetchSize = -1;
+    private boolean closed = false;
+
+    Cursor(Cancellation execution, Connection connection, PreparedStatement statement, ResultSet resultSet, Row row, T current) {
+        this.execution = execution;
+        this.connection = connection;
+        this.statement = statement;
+        this.resultSet = resultSet;
+        this.row = row;
+        this.current = current;
+    }
+
+    /**
+     * Move to the next row, returns false once the result set is exhausted or the cursor closed
+     */
+    boolean next() throws SQLException {
+        if (closed || !execution.next(resultSet)) {
+            return false;
+        }
+        row.moveTo(++index);
+        return true;
+    }
+
+    /**
+     * The current row, only valid until the next call to next or close
+     */
+    T current() {
+        return current;
+    }
+
+    /**
+     * Hint the driver about the number of rows to fetch in the next round trip
+     */
+    void fetchSize(int rows) throws SQLException {
+        if (!closed && rows > 0 && rows != fetchSize) {
+            resultSet.setFetchSize(rows);
+            fetchSize = rows;
+        }
+    }
+
+    boolean isClosed() {
+        return closed;
+    }
+
+    @Override
+    public void close() throws SQLException {
+        close(false);
+    }
+
+    /**
+     * Close the result set and give the statement back to the cache, or close it if the cursor failed
+     */
+    void close(boolean failed) throws SQLException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            resultSet.close();
+        } catch (SQLException e) {
+            failed = true;
+            throw e;
+        } finally {
+            execution.release(connection, statement, failed);
+        }
+    }
+}
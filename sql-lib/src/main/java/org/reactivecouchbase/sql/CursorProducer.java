@@ -0,0 +1,169 @@
+package org.reactivecouchbase.sql;
+
+import org.reactivecouchbase.functional.Option;
+import rx.Observable;
+import rx.Producer;
+import rx.Subscriber;
+import rx.subscriptions.Subscriptions;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * Emit the rows of a cursor to a subscriber as it requests them.
+ *
+ * Rows are only read from the result set when there is outstanding demand, and the driver fetch size
+ * follows that demand (bounded by the page size when there is one), so a slow subscriber never makes the
+ * whole result set pile up in memory. Requests, cancellation and emission are serialized in a single drain
+ * loop, which runs on the requesting thread or on the executor if one is given.
+ */
+final class CursorProducer<T> implements Producer {
+
+    static final int MAX_FETCH_SIZE = 1000;
+
+    private final Subscriber<? super T> subscriber;
+    private final Cancellation execution;
+    private final Function<Cancellation, Cursor<T>> opener;
+    private final Option<Integer> page;
+    private final Executor executor;
+    private final AtomicLong requested = new AtomicLong(0);
+    private final AtomicInteger wip = new AtomicInteger(0);
+    private Cursor<T> cursor;
+    private boolean done = false;
+
+    private CursorProducer(Subscriber<? super T> subscriber, Cancellation execution, Function<Cancellation, Cursor<T>> opener,
+                           Option<Integer> page, Executor executor) {
+        this.subscriber = subscriber;
+        this.execution = execution;
+        this.opener = opener;
+        this.page = page;
+        this.executor = executor;
+    }
+
+    /**
+     * An observable opening a new cursor for each subscriber, in a new execution. Without executor, rows
+     * are emitted on the thread calling request.
+     *
+     * Unsubscribing cancels the execution: a query still running on the server is stopped and the thread
+     * blocked on it is released right away, then the cursor is closed by the drain loop.
+     */
+    static <T> Observable<T> observable(Supplier<Cancellation> executions, Function<Cancellation, Cursor<T>> opener,
+                                        Option<Integer> page, Executor executor) {
+        return Observable.create(new Observable.OnSubscribe<T>() {
+            @Override
+            public void call(Subscriber<? super T> subscriber) {
+                CursorProducer<T> producer = new CursorProducer<>(subscriber, executions.get(), opener, page, executor);
+                subscriber.add(Subscriptions.create(producer::cancel));
+                subscriber.setProducer(producer);
+            }
+        });
+    }
+
+    @Override
+    public void request(long n) {
+        if (n < 0) {
+            throw new IllegalArgumentException("n >= 0 required but it was " + n);
+        }
+        if (n == 0) {
+            return;
+        }
+        long current;
+        long next;
+        do {
+            current = requested.get();
+            next = current + n;
+            if (next < 0) {
+                next = Long.MAX_VALUE;
+            }
+        } while (!requested.compareAndSet(current, next));
+        schedule();
+    }
+
+    private void cancel() {
+        execution.cancel();
+        schedule();
+    }
+
+    private void schedule() {
+        if (wip.getAndIncrement() == 0) {
+            if (executor == null) {
+                drain();
+            } else {
+                executor.execute(this::drain);
+            }
+        }
+    }
+
+    private void drain() {
+        int missed = 1;
+        while (true) {
+            if (!done) {
+                emit();
+            }
+            missed = wip.addAndGet(-missed);
+            if (missed == 0) {
+                return;
+            }
+        }
+    }
+
+    private void emit() {
+        try {
+            if (subscriber.isUnsubscribed()) {
+                finish(false);
+                return;
+            }
+            long demand = requested.get();
+            if (demand == 0) {
+                return;
+            }
+            if (cursor == null) {
+                cursor = opener.apply(execution);
+            }
+            cursor.fetchSize(fetchSizeFor(demand));
+            long emitted = 0;
+            while (emitted != demand) {
+                if (subscriber.isUnsubscribed()) {
+                    finish(false);
+                    return;
+                }
+                if (!cursor.next()) {
+                    finish(false);
+                    subscriber.onCompleted();
+                    return;
+                }
+                subscriber.onNext(cursor.current());
+                emitted++;
+            }
+            if (demand != Long.MAX_VALUE) {
+                requested.addAndGet(-emitted);
+            }
+        } catch (Throwable e) {
+            try {
+                finish(true);
+            } catch (Throwable ignore) {
+                // the original failure is more interesting than the close one
+            }
+            if (!subscriber.isUnsubscribed()) {
+                subscriber.onError(e);
+            }
+        }
+    }
+
+    private int fetchSizeFor(long demand) {
+        long max = page.isDefined() ? page.get() : MAX_FETCH_SIZE;
+        return (int) Math.max(1L, Math.min(demand, max));
+    }
+
+    private void finish(boolean failed) throws Exception {
+        done = true;
+        if (cursor != null) {
+            cursor.close(failed);
+        } else {
+            execution.release(null, null, failed);
+        }
+    }
+}
@@ -0,0 +1,97 @@
+package org.reactivecouchbase.sql;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters of the flushes of a batch: how many, why, how large and how long they took.
+ */
+public final class FlushStats {
+
+    public enum Reason {
+        /** the batch reached its maximum number of rows */
+        ROWS,
+        /** the batch reached its maximum estimated size */
+        BYTES,
+        /** the oldest row of the batch reached its maximum age */
+        AGE,
+        /** executeBatch or close has been called */
+        EXPLICIT
+    }
+
+    private final LongAdder flushes = new LongAdder();
+    private final LongAdder failures = new LongAdder();
+    private final LongAdder rows = new LongAdder();
+    private final LongAdder bytes = new LongAdder();
+    private final LongAdder nanos = new LongAdder();
+    private final LongAccumulator maxNanos = new LongAccumulator(Math::max, 0L);
+    private final LongAccumulator maxRows = new LongAccumulator(Math::max, 0L);
+    private final LongAdder[] reasons = new LongAdder[Reason.values().length];
+
+    FlushStats() {
+        for (int i = 0; i < reasons.length; i++) {
+            reasons[i] = new LongAdder();
+        }
+    }
+
+    void record(Reason reason, int flushedRows, long flushedBytes, long elapsedNanos, boolean failed) {
+        flushes.increment();
+        reasons[reason.ordinal()].increment();
+        if (failed) {
+            failures.increment();
+        }
+        rows.add(flushedRows);
+        bytes.add(flushedBytes);
+        nanos.add(elapsedNanos);
+        maxNanos.accumulate(elapsedNanos);
+        maxRows.accumulate(flushedRows);
+    }
+
+    public long flushes() {
+        return flushes.sum();
+    }
+
+    public long flushes(Reason reason) {
+        return reasons[reason.ordinal()].sum();
+    }
+
+    public long failures() {
+        return failures.sum();
+    }
+
+    public long rows() {
+        return rows.sum();
+    }
+
+    public long maxRows() {
+        return maxRows.get();
+    }
+
+    /**
+     * The estimated size of the parameters of the flushed rows
+     */
+    public long bytes() {
+        return bytes.sum();
+    }
+
+    public long totalLatency(TimeUnit unit) {
+        return unit.convert(nanos.sum(), TimeUnit.NANOSECONDS);
+    }
+
+    public long maxLatency(TimeUnit unit) {
+        return unit.convert(maxNanos.get(), TimeUnit.NANOSECONDS);
+    }
+
+    public double meanLatency(TimeUnit unit) {
+        long count = flushes.sum();
+        return count == 0 ? 0.0 : (double) unit.convert(nanos.sum(), TimeUnit.NANOSECONDS) / count;
+    }
+
+    @Override
+    public String toString() {
+        return "FlushStats{" + "flushes=" + flushes() + ", failures=" + failures() + ", rows=" + rows()
+                + ", bytes=" + bytes() + ", meanLatencyMs=" + meanLatency(TimeUnit.MILLISECONDS)
+                + ", maxLatencyMs=" + maxLatency(TimeUnit.MILLISECONDS) + '}';
+    }
+}
@@ -0,0 +1,196 @@
+package org.reactivecouchbase.sql;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A registry keeping the metrics of each query in memory, to be scraped with queries() or totals().
+ *
+ * It tracks at most maxQueries distinct queries, the executions of the others are all counted under
+ * OTHERS, so SQL built by concatenation cannot make it grow without bound.
+ */
+public final class InMemoryMetrics implements MetricsRegistry {
+
+    public static final String OTHERS = "<others>";
+
+    private final int maxQueries;
+    private final ConcurrentHashMap<String, Stats> queries = new ConcurrentHashMap<>();
+
+    public InMemoryMetrics() {
+        this(1024);
+    }
+
+    public InMemoryMetrics(int maxQueries) {
+        if (maxQueries <= 0) {
+            throw new IllegalArgumentException("maxQueries must be strictly positive");
+        }
+        this.maxQueries = maxQueries;
+    }
+
+    @Override
+    public QueryMetrics forQuery(String preparedSql) {
+        Stats stats = queries.get(preparedSql);
+        if (stats != null) {
+            return stats;
+        }
+        if (queries.size() >= maxQueries) {
+            return queries.computeIfAbsent(OTHERS, Stats::new);
+        }
+        return queries.computeIfAbsent(preparedSql, Stats::new);
+    }
+
+    /**
+     * The live metrics of each prepared query
+     */
+    public Map<String, Stats> queries() {
+        return Collections.unmodifiableMap(queries);
+    }
+
+    /**
+     * The metrics of a prepared query, or null if it has not been executed
+     */
+    public Stats query(String preparedSql) {
+        return queries.get(preparedSql);
+    }
+
+    /**
+     * The sum of the metrics of all the queries
+     */
+    public Stats totals() {
+        Stats totals = new Stats("<totals>");
+        for (Stats stats : queries.values()) {
+            totals.add(stats);
+        }
+        return totals;
+    }
+
+    /**
+     * Forget the queries and their metrics, the queries already prepared keep updating their old metrics
+     * until they are parsed again
+     */
+    public void clear() {
+        queries.clear();
+    }
+
+    /**
+     * The metrics of one query
+     */
+    public static final class Stats implements QueryMetrics {
+
+        private final String sql;
+        private final LongAdder executions = new LongAdder();
+        private final LongAdder failures = new LongAdder();
+        private final LongAdder rows = new LongAdder();
+        private final LongAdder updatedRows = new LongAdder();
+        private final LatencyHistogram prepare = new LatencyHistogram();
+        private final LatencyHistogram execute = new LatencyHistogram();
+        private final LatencyHistogram firstRow = new LatencyHistogram();
+        private final LatencyHistogram fetch = new LatencyHistogram();
+
+        Stats(String sql) {
+            this.sql = sql;
+        }
+
+        @Override
+        public void prepared(long nanos) {
+            prepare.record(nanos);
+        }
+
+        @Override
+        public void executed(long nanos) {
+            executions.increment();
+            execute.record(nanos);
+        }
+
+        @Override
+        public void firstRow(long nanos) {
+            firstRow.record(nanos);
+        }
+
+        @Override
+        public void fetched(long nanos, long fetchedRows) {
+            fetch.record(nanos);
+            rows.add(fetchedRows);
+        }
+
+        @Override
+        public void updated(long count) {
+            updatedRows.add(count);
+        }
+
+        @Override
+        public void failed() {
+            failures.increment();
+        }
+
+        private void add(Stats other) {
+            executions.add(other.executions.sum());
+            failures.add(other.failures.sum());
+            rows.add(other.rows.sum());
+            updatedRows.add(other.updatedRows.sum());
+            prepare.add(other.prepare.snapshot());
+            execute.add(other.execute.snapshot());
+            firstRow.add(other.firstRow.snapshot());
+            fetch.add(other.fetch.snapshot());
+        }
+
+        public String sql() {
+            return sql;
+        }
+
+        /**
+         * The number of statements executed by the database, failures counts the other ones too
+         */
+        public long executions() {
+            return executions.sum();
+        }
+
+        public long failures() {
+            return failures.sum();
+        }
+
+        /**
+         * The number of rows read from the result sets
+         */
+        public long rows() {
+            return rows.sum();
+        }
+
+        public long updatedRows() {
+            return updatedRows.sum();
+        }
+
+        public LatencyHistogram.Snapshot prepareLatency() {
+            return prepare.snapshot();
+        }
+
+        public LatencyHistogram.Snapshot executeLatency() {
+            return execute.snapshot();
+        }
+
+        /**
+         * The time from the start of an execution to its first row
+         */
+        public LatencyHistogram.Snapshot firstRowLatency() {
+            return firstRow.snapshot();
+        }
+
+        /**
+         * The time spent reading the rows of a result set, once the statement has been executed
+         */
+        public LatencyHistogram.Snapshot fetchLatency() {
+            return fetch.snapshot();
+        }
+
+        @Override
+        public String toString() {
+            return "Stats{" + "sql='" + sql + '\'' + ", executions=" + executions() + ", failures=" + failures()
+                    + ", rows=" + rows() + ", updatedRows=" + updatedRows()
+                    + ", executeMeanUs=" + executeLatency().mean(TimeUnit.MICROSECONDS)
+                    + ", fetchMeanUs=" + fetchLatency().mean(TimeUnit.MICROSECONDS) + '}';
+        }
+    }
+}
@@ -0,0 +1,166 @@
+package org.reactivecouchbase.sql;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The analysis of a simple INSERT ... VALUES (...) template, which can be rewritten as a single statement
+ * inserting several rows: INSERT ... VALUES (...), (...), ...
+ *
+ * Only templates with a single VALUES group holding every parameter, and nothing after it, are rewritten.
+ */
+final class InsertRewrite {
+
+    /**
+     * The default limit of bound parameters per statement, the lowest among the common drivers (SQL Server
+     * allows 2100, PostgreSQL 65535)
+     */
+    static final int MAX_PARAMETERS = 2100;
+
+    private final String head;
+    private final String group;
+    private final int width;
+    private final ConcurrentHashMap<Integer, String> statements = new ConcurrentHashMap<>();
+
+    private InsertRewrite(String head, String group, int width) {
+        this.head = head;
+        this.group = group;
+        this.width = width;
+    }
+
+    /**
+     * Returns the analysis of the template, or null if it cannot be rewritten
+     */
+    static InsertRewrite of(String sql, int parameters) {
+        String trimmed = sql.trim();
+        if (trimmed.length() < 6 || !trimmed.regionMatches(true, 0, "INSERT", 0, 6) || parameters == 0) {
+            return null;
+        }
+        int values = findValuesKeyword(trimmed);
+        if (values < 0) {
+            return null;
+        }
+        int open = values + 6;
+        while (open < trimmed.length() && Character.isWhitespace(trimmed.charAt(open))) {
+            open++;
+        }
+        if (open >= trimmed.length() || trimmed.charAt(open) != '(') {
+            return null;
+        }
+        int close = matchingParenthesis(trimmed, open);
+        if (close < 0) {
+            return null;
+        }
+        for (int i = close + 1; i < trimmed.length(); i++) {
+            char c = trimmed.charAt(i);
+            if (c != ';' && !Character.isWhitespace(c)) {
+                return null;
+            }
+        }
+        String group = trimmed.substring(open, close + 1);
+        if (countPlaceholders(group) != parameters) {
+            return null;
+        }
+        return new InsertRewrite(trimmed.substring(0, open), group, parameters);
+    }
+
+    int width() {
+        return width;
+    }
+
+    /**
+     * The maximum number of rows per statement allowed by the number of parameters per row
+     */
+    int maxRows(int requested, int maxParameters) {
+        return Math.max(1, Math.min(requested, maxParameters / width));
+    }
+
+    /**
+     * The statement inserting the given number of rows, built once per size
+     */
+    String sqlFor(int rows) {
+        return statements.computeIfAbsent(rows, size -> {
+            StringBuilder builder = new StringBuilder(head.length() + size * (group.length() + 1));
+            builder.append(head);
+            for (int i = 0; i < size; i++) {
+                if (i > 0) {
+                    builder.append(',');
+                }
+                builder.append(group);
+            }
+            return builder.toString();
+        });
+    }
+
+    private static int findValuesKeyword(String sql) {
+        int depth = 0;
+        for (int i = 0; i < sql.length(); i++) {
+            char c = sql.charAt(i);
+            if (c == '\'' || c == '"' || c == '`') {
+                i = skipQuoted(sql, i);
+                if (i < 0) {
+                    return -1;
+                }
+            } else if (c == '(') {
+                depth++;
+            } else if (c == ')') {
+                depth--;
+            } else if (depth == 0 && (c == 'v' || c == 'V') && sql.regionMatches(true, i, "VALUES", 0, 6)
+                    && (i == 0 || !Character.isLetterOrDigit(sql.charAt(i - 1)))
+                    && (i + 6 == sql.length() || !Character.isLetterOrDigit(sql.charAt(i + 6)))) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static int matchingParenthesis(String sql, int open) {
+        int depth = 0;
+        for (int i = open; i < sql.length(); i++) {
+            char c = sql.charAt(i);
+            if (c == '\'' || c == '"' || c == '`') {
+                i = skipQuoted(sql, i);
+                if (i < 0) {
+                    return -1;
+                }
+            } else if (c == '(') {
+                depth++;
+            } else if (c == ')') {
+                depth--;
+                if (depth == 0) {
+                    return i;
+                }
+            }
+        }
+        return -1;
+    }
+
+    private static int countPlaceholders(String group) {
+        int count = 0;
+        for (int i = 0; i < group.length(); i++) {
+            char c = group.charAt(i);
+            if (c == '\'' || c == '"' || c == '`') {
+                i = skipQuoted(group, i);
+            } else if (c == '?') {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Returns the index of the closing quote, doubled quotes being escapes, or -1 if there is none
+     */
+    private static int skipQuoted(String sql, int start) {
+        char quote = sql.charAt(start);
+        for (int i = start + 1; i < sql.length(); i++) {
+            if (sql.charAt(i) == quote) {
+                if (i + 1 < sql.length() && sql.charAt(i + 1) == quote) {
+                    i++;
+                } else {
+                    return i;
+                }
+            }
+        }
+        return -1;
+    }
+}
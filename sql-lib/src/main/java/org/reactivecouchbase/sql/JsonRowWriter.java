@@ -0,0 +1,250 @@
+package org.reactivecouchbase.sql;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.math.BigDecimal;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.Base64;
+
+/**
+ * Write the rows of a result set as JSON objects, straight from the result set to a writer.
+ *
+ * The keys of every column are encoded once per result set, and each value is read with the getter
+ * matching its SQL type so no intermediate map or boxed value is built per row. Temporal values are
+ * written as strings, binary values as base64 strings.
+ */
+final class JsonRowWriter {
+
+    private static final int BOOLEAN = 0;
+    private static final int INTEGRAL = 1;
+    private static final int FLOATING = 2;
+    private static final int DECIMAL = 3;
+    private static final int TEXT = 4;
+    private static final int BINARY = 5;
+    private static final int OTHER = 6;
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private final String[] keys;
+    private final int[] kinds;
+    private final char[] digits = new char[20];
+
+    JsonRowWriter(RowSchema schema) {
+        int count = schema.columnCount();
+        this.keys = new String[count];
+        this.kinds = new int[count];
+        for (int i = 0; i < count; i++) {
+            StringBuilder key = new StringBuilder();
+            key.append(i == 0 ? "{" : ",");
+            appendString(key, schema.columnName(i + 1));
+            key.append(':');
+            keys[i] = key.toString();
+            kinds[i] = kindOf(schema.columnType(i + 1));
+        }
+    }
+
+    private static int kindOf(int sqlType) {
+        switch (sqlType) {
+            case Types.BIT:
+            case Types.BOOLEAN:
+                return BOOLEAN;
+            case Types.TINYINT:
+            case Types.SMALLINT:
+            case Types.INTEGER:
+            case Types.BIGINT:
+                return INTEGRAL;
+            case Types.REAL:
+            case Types.FLOAT:
+            case Types.DOUBLE:
+                return FLOATING;
+            case Types.NUMERIC:
+            case Types.DECIMAL:
+                return DECIMAL;
+            case Types.CHAR:
+            case Types.VARCHAR:
+            case Types.LONGVARCHAR:
+            case Types.NCHAR:
+            case Types.NVARCHAR:
+            case Types.LONGNVARCHAR:
+            case Types.CLOB:
+            case Types.NCLOB:
+            case Types.DATE:
+            case Types.TIME:
+            case Types.TIMESTAMP:
+                return TEXT;
+            case Types.BINARY:
+            case Types.VARBINARY:
+            case Types.LONGVARBINARY:
+            case Types.BLOB:
+                return BINARY;
+            default:
+                return OTHER;
+        }
+    }
+
+    void writeRow(ResultSet set, Writer out) throws SQLException, IOException {
+        if (keys.length == 0) {
+            out.write("{}");
+            return;
+        }
+        for (int i = 0; i < keys.length; i++) {
+            out.write(keys[i]);
+            int column = i + 1;
+            switch (kinds[i]) {
+                case BOOLEAN: {
+                    boolean value = set.getBoolean(column);
+                    out.write(set.wasNull() ? "null" : (value ? "true" : "false"));
+                    break;
+                }
+                case INTEGRAL: {
+                    long value = set.getLong(column);
+                    if (set.wasNull()) {
+                        out.write("null");
+                    } else {
+                        writeLong(value, out);
+                    }
+                    break;
+                }
+                case FLOATING: {
+                    double value = set.getDouble(column);
+                    if (set.wasNull() || Double.isNaN(value) || Double.isInfinite(value)) {
+                        out.write("null");
+                    } else {
+                        out.write(Double.toString(value));
+                    }
+                    break;
+                }
+                case DECIMAL: {
+                    BigDecimal value = set.getBigDecimal(column);
+                    out.write(value == null ? "null" : value.toString());
+                    break;
+                }
+                case TEXT:
+                    writeString(set.getString(column), out);
+                    break;
+                case BINARY: {
+                    byte[] value = set.getBytes(column);
+                    if (value == null) {
+                        out.write("null");
+                    } else {
+                        out.write('"');
+                        out.write(Base64.getEncoder().encodeToString(value));
+                        out.write('"');
+                    }
+                    break;
+                }
+                default:
+                    writeObject(set.getObject(column), out);
+            }
+        }
+        out.write('}');
+    }
+
+    private void writeObject(Object value, Writer out) throws IOException {
+        if (value == null) {
+            out.write("null");
+        } else if (value instanceof Boolean) {
+            out.write(((Boolean) value) ? "true" : "false");
+        } else if (value instanceof Long || value instanceof Integer || value instanceof Short || value instanceof Byte) {
+            writeLong(((Number) value).longValue(), out);
+        } else if (value instanceof BigDecimal) {
+            out.write(value.toString());
+        } else if (value instanceof Double || value instanceof Float) {
+            double d = ((Number) value).doubleValue();
+            out.write(Double.isNaN(d) || Double.isInfinite(d) ? "null" : Double.toString(d));
+        } else if (value instanceof byte[]) {
+            out.write('"');
+            out.write(Base64.getEncoder().encodeToString((byte[]) value));
+            out.write('"');
+        } else {
+            writeString(value.toString(), out);
+        }
+    }
+
+    private void writeLong(long value, Writer out) throws IOException {
+        if (value == Long.MIN_VALUE) {
+            out.write(Long.toString(value));
+            return;
+        }
+        boolean negative = value < 0;
+        long remaining = negative ? -value : value;
+        int position = digits.length;
+        do {
+            digits[--position] = (char) ('0' + (remaining % 10));
+            remaining /= 10;
+        } while (remaining != 0);
+        if (negative) {
+            digits[--position] = '-';
+        }
+        out.write(digits, position, digits.length - position);
+    }
+
+    private static void writeString(String value, Writer out) throws IOException {
+        if (value == null) {
+            out.write("null");
+            return;
+        }
+        out.write('"');
+        int start = 0;
+        int length = value.length();
+        for (int i = 0; i < length; i++) {
+            char c = value.charAt(i);
+            if (c < 0x20 || c == '"' || c == '\\' || c == 0x2028 || c == 0x2029) {
+                if (i > start) {
+                    out.write(value, start, i - start);
+                }
+                writeEscaped(c, out);
+                start = i + 1;
+            }
+        }
+        if (start < length) {
+            out.write(value, start, length - start);
+        }
+        out.write('"');
+    }
+
+    private static void writeEscaped(char c, Writer out) throws IOException {
+        switch (c) {
+            case '"':
+                out.write("\\\"");
+                break;
+            case '\\':
+                out.write("\\\\");
+                break;
+            case '\n':
+                out.write("\\n");
+                break;
+            case '\r':
+                out.write("\\r");
+                break;
+            case '\t':
+                out.write("\\t");
+                break;
+            case '\b':
+                out.write("\\b");
+                break;
+            case '\f':
+                out.write("\\f");
+                break;
+            default:
+                out.write("\\u");
+                out.write(HEX[(c >> 12) & 0xF]);
+                out.write(HEX[(c >> 8) & 0xF]);
+                out.write(HEX[(c >> 4) & 0xF]);
+                out.write(HEX[c & 0xF]);
+        }
+    }
+
+    private static void appendString(StringBuilder builder, String value) {
+        StringWriter writer = new StringWriter();
+        try {
+            writeString(value, writer);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        builder.append(writer.toString());
+    }
+}
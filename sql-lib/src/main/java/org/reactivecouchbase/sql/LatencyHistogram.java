@@ -0,0 +1,189 @@
+package org.reactivecouchbase.sql;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A lock free histogram of latencies in nanoseconds, with logarithmic buckets: each power of two is split
+ * in 4 buckets, so a percentile is known within 25% whatever the magnitude of the latencies.
+ *
+ * Recording a latency only increments a LongAdder. Snapshots are immutable and can be merged, to aggregate
+ * the histograms of several queries or several processes.
+ */
+public final class LatencyHistogram {
+
+    private static final int SUB_BUCKET_BITS = 2;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    static final int BUCKETS = (64 - SUB_BUCKET_BITS + 1) * SUB_BUCKETS;
+
+    private final LongAdder[] counts = new LongAdder[BUCKETS];
+    private final LongAdder total = new LongAdder();
+    private final LongAccumulator max = new LongAccumulator(Math::max, 0L);
+
+    public LatencyHistogram() {
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] = new LongAdder();
+        }
+    }
+
+    public void record(long nanos) {
+        long value = Math.max(0L, nanos);
+        counts[bucketOf(value)].increment();
+        total.add(value);
+        max.accumulate(value);
+    }
+
+    /**
+     * The values below 4 have a bucket each, then every power of two has 4 buckets
+     */
+    static int bucketOf(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int mantissa = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + mantissa;
+    }
+
+    /**
+     * The highest value of a bucket
+     */
+    static long upperBoundOf(int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+        int exponent = bucket / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+        long mantissa = bucket % SUB_BUCKETS;
+        long lower = (1L << exponent) + (mantissa << (exponent - SUB_BUCKET_BITS));
+        long width = 1L << (exponent - SUB_BUCKET_BITS);
+        return lower > Long.MAX_VALUE - width ? Long.MAX_VALUE : lower + width - 1;
+    }
+
+    /**
+     * Add the counts of a snapshot to this histogram
+     */
+    public void add(Snapshot snapshot) {
+        for (int i = 0; i < counts.length; i++) {
+            if (snapshot.counts[i] > 0) {
+                counts[i].add(snapshot.counts[i]);
+            }
+        }
+        total.add(snapshot.total);
+        max.accumulate(snapshot.max);
+    }
+
+    public Snapshot snapshot() {
+        long[] values = new long[BUCKETS];
+        long count = 0;
+        for (int i = 0; i < values.length; i++) {
+            values[i] = counts[i].sum();
+            count += values[i];
+        }
+        return new Snapshot(values, count, total.sum(), max.get());
+    }
+
+    public void reset() {
+        for (LongAdder count : counts) {
+            count.reset();
+        }
+        total.reset();
+        max.reset();
+    }
+
+    @Override
+    public String toString() {
+        return snapshot().toString();
+    }
+
+    /**
+     * The counts of a histogram at some point in time
+     */
+    public static final class Snapshot {
+
+        public static final Snapshot EMPTY = new Snapshot(new long[BUCKETS], 0, 0, 0);
+
+        private final long[] counts;
+        private final long count;
+        private final long total;
+        private final long max;
+
+        private Snapshot(long[] counts, long count, long total, long max) {
+            this.counts = counts;
+            this.count = count;
+            this.total = total;
+            this.max = max;
+        }
+
+        public Snapshot merge(Snapshot other) {
+            long[] merged = new long[BUCKETS];
+            for (int i = 0; i < merged.length; i++) {
+                merged[i] = counts[i] + other.counts[i];
+            }
+            return new Snapshot(merged, count + other.count, total + other.total, Math.max(max, other.max));
+        }
+
+        public long count() {
+            return count;
+        }
+
+        public long total(TimeUnit unit) {
+            return unit.convert(total, TimeUnit.NANOSECONDS);
+        }
+
+        public long max(TimeUnit unit) {
+            return unit.convert(max, TimeUnit.NANOSECONDS);
+        }
+
+        public double mean(TimeUnit unit) {
+            return count == 0 ? 0.0 : (double) total / count / unit.toNanos(1);
+        }
+
+        /**
+         * The value under which the quantile (between 0 and 1) of the latencies are, rounded up to the bound
+         * of its bucket (and never above the max)
+         */
+        public long percentile(double quantile, TimeUnit unit) {
+            if (count == 0) {
+                return 0;
+            }
+            long rank = (long) Math.ceil(Math.min(1.0, Math.max(0.0, quantile)) * count);
+            long seen = 0;
+            for (int i = 0; i < counts.length; i++) {
+                seen += counts[i];
+                if (seen >= rank && seen > 0) {
+                    return unit.convert(Math.min(upperBoundOf(i), max), TimeUnit.NANOSECONDS);
+                }
+            }
+            return unit.convert(max, TimeUnit.NANOSECONDS);
+        }
+
+        /**
+         * The number of latencies in each bucket, with the upper bound of the bucket in nanoseconds, for the
+         * non empty buckets only
+         */
+        public long[][] buckets() {
+            int used = 0;
+            for (long c : counts) {
+                if (c > 0) {
+                    used++;
+                }
+            }
+            long[][] buckets = new long[used][];
+            int at = 0;
+            for (int i = 0; i < counts.length; i++) {
+                if (counts[i] > 0) {
+                    buckets[at++] = new long[]{upperBoundOf(i), counts[i]};
+                }
+            }
+            return buckets;
+        }
+
+        @Override
+        public String toString() {
+            return "Latencies{" + "count=" + count + ", meanUs=" + mean(TimeUnit.MICROSECONDS)
+                    + ", p50Us=" + percentile(0.5, TimeUnit.MICROSECONDS) + ", p99Us=" + percentile(0.99, TimeUnit.MICROSECONDS)
+                    + ", maxUs=" + max(TimeUnit.MICROSECONDS) + '}';
+        }
+    }
+}
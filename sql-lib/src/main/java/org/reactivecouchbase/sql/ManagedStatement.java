@@ -0,0 +1,357 @@
+package org.reactivecouchbase.sql;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.SQLWarning;
+import java.sql.Statement;
+
+/**
+ * A statement of a managed connection. It tracks the changes of its state, for the statement cache to
+ * restore it before the statement is reused.
+ */
+class ManagedStatement implements Statement {
+
+    final ManagedConnection connection;
+    private final Statement raw;
+    static final int QUERY_TIMEOUT = 1;
+    static final int MAX_ROWS = 2;
+    static final int MAX_FIELD_SIZE = 4;
+    static final int FETCH_SIZE = 8;
+    static final int FETCH_DIRECTION = 16;
+
+    // the limits, timeout and fetch options changed so far
+    int changed = 0;
+    // a state the cache cannot restore has been changed
+    boolean reusable = true;
+
+    ManagedStatement(ManagedConnection connection, Statement raw) {
+        this.connection = connection;
+        this.raw = raw;
+    }
+
+    @Override
+    public <T> T unwrap(Class<T> iface) throws SQLException {
+        if (iface.isInstance(this)) {
+            return iface.cast(this);
+        }
+        return raw.unwrap(iface);
+    }
+
+    @Override
+    public boolean isWrapperFor(Class<?> iface) throws SQLException {
+        return iface.isInstance(this) || raw.isWrapperFor(iface);
+    }
+
+    @Override
+    public ResultSet executeQuery(String sql) throws SQLException {
+        connection.checkOpen();
+        return raw.executeQuery(sql);
+    }
+
+    @Override
+    public int executeUpdate(String sql) throws SQLException {
+        connection.checkOpen();
+        return raw.executeUpdate(sql);
+    }
+
+    @Override
+    public void close() throws SQLException {
+        raw.close();
+    }
+
+    @Override
+    public int getMaxFieldSize() throws SQLException {
+        connection.checkOpen();
+        return raw.getMaxFieldSize();
+    }
+
+    @Override
+    public void setMaxFieldSize(int max) throws SQLException {
+        connection.checkOpen();
+        changed |= MAX_FIELD_SIZE;
+        raw.setMaxFieldSize(max);
+    }
+
+    @Override
+    public int getMaxRows() throws SQLException {
+        connection.checkOpen();
+        return raw.getMaxRows();
+    }
+
+    @Override
+    public void setMaxRows(int max) throws SQLException {
+        connection.checkOpen();
+        changed |= MAX_ROWS;
+        raw.setMaxRows(max);
+    }
+
+    @Override
+    public void setEscapeProcessing(boolean enable) throws SQLException {
+        connection.checkOpen();
+        reusable = false;
+        raw.setEscapeProcessing(enable);
+    }
+
+    @Override
+    public int getQueryTimeout() throws SQLException {
+        connection.checkOpen();
+        return raw.getQueryTimeout();
+    }
+
+    @Override
+    public void setQueryTimeout(int seconds) throws SQLException {
+        connection.checkOpen();
+        changed |= QUERY_TIMEOUT;
+        raw.setQueryTimeout(seconds);
+    }
+
+    @Override
+    public void cancel() throws SQLException {
+        connection.checkOpen();
+        raw.cancel();
+    }
+
+    @Override
+    public SQLWarning getWarnings() throws SQLException {
+        connection.checkOpen();
+        return raw.getWarnings();
+    }
+
+    @Override
+    public void clearWarnings() throws SQLException {
+        connection.checkOpen();
+        raw.clearWarnings();
+    }
+
+    @Override
+    public void setCursorName(String name) throws SQLException {
+        connection.checkOpen();
+        reusable = false;
+        raw.setCursorName(name);
+    }
+
+    @Override
+    public boolean execute(String sql) throws SQLException {
+        connection.checkOpen();
+        return raw.execute(sql);
+    }
+
+    @Override
+    public ResultSet getResultSet() throws SQLException {
+        connection.checkOpen();
+        return raw.getResultSet();
+    }
+
+    @Override
+    public int getUpdateCount() throws SQLException {
+        connection.checkOpen();
+        return raw.getUpdateCount();
+    }
+
+    @Override
+    public boolean getMoreResults() throws SQLException {
+        connection.checkOpen();
+        return raw.getMoreResults();
+    }
+
+    @Override
+    public void setFetchDirection(int direction) throws SQLException {
+        connection.checkOpen();
+        changed |= FETCH_DIRECTION;
+        raw.setFetchDirection(direction);
+    }
+
+    @Override
+    public int getFetchDirection() throws SQLException {
+        connection.checkOpen();
+        return raw.getFetchDirection();
+    }
+
+    @Override
+    public void setFetchSize(int rows) throws SQLException {
+        connection.checkOpen();
+        changed |= FETCH_SIZE;
+        raw.setFetchSize(rows);
+    }
+
+    @Override
+    public int getFetchSize() throws SQLException {
+        connection.checkOpen();
+        return raw.getFetchSize();
+    }
+
+    @Override
+    public int getResultSetConcurrency() throws SQLException {
+        connection.checkOpen();
+        return raw.getResultSetConcurrency();
+    }
+
+    @Override
+    public int getResultSetType() throws SQLException {
+        connection.checkOpen();
+        return raw.getResultSetType();
+    }
+
+    @Override
+    public void addBatch(String sql) throws SQLException {
+        connection.checkOpen();
+        raw.addBatch(sql);
+    }
+
+    @Override
+    public void clearBatch() throws SQLException {
+        connection.checkOpen();
+        raw.clearBatch();
+    }
+
+    @Override
+    public int[] executeBatch() throws SQLException {
+        connection.checkOpen();
+        return raw.executeBatch();
+    }
+
+    @Override
+    public Connection getConnection() throws SQLException {
+        return connection;
+    }
+
+    @Override
+    public boolean getMoreResults(int current) throws SQLException {
+        connection.checkOpen();
+        return raw.getMoreResults(current);
+    }
+
+    @Override
+    public ResultSet getGeneratedKeys() throws SQLException {
+        connection.checkOpen();
+        return raw.getGeneratedKeys();
+    }
+
+    @Override
+    public int executeUpdate(String sql, int autoGeneratedKeys) throws SQLException {
+        connection.checkOpen();
+        return raw.executeUpdate(sql, autoGeneratedKeys);
+    }
+
+    @Override
+    public int executeUpdate(String sql, int[] columnIndexes) throws SQLException {
+        connection.checkOpen();
+        return raw.executeUpdate(sql, columnIndexes);
+    }
+
+    @Override
+    public int executeUpdate(String sql, String[] columnNames) throws SQLException {
+        connection.checkOpen();
+        return raw.executeUpdate(sql, columnNames);
+    }
+
+    @Override
+    public boolean execute(String sql, int autoGeneratedKeys) throws SQLException {
+        connection.checkOpen();
+        return raw.execute(sql, autoGeneratedKeys);
+    }
+
+    @Override
+    public boolean execute(String sql, int[] columnIndexes) throws SQLException {
+        connection.checkOpen();
+        return raw.execute(sql, columnIndexes);
+    }
+
+    @Override
+    public boolean execute(String sql, String[] columnNames) throws SQLException {
+        connection.checkOpen();
+        return raw.execute(sql, columnNames);
+    }
+
+    @Override
+    public int getResultSetHoldability() throws SQLException {
+        connection.checkOpen();
+        return raw.getResultSetHoldability();
+    }
+
+    @Override
+    public boolean isClosed() throws SQLException {
+        return raw.isClosed();
+    }
+
+    @Override
+    public void setPoolable(boolean poolable) throws SQLException {
+        connection.checkOpen();
+        reusable = false;
+        raw.setPoolable(poolable);
+    }
+
+    @Override
+    public boolean isPoolable() throws SQLException {
+        connection.checkOpen();
+        return raw.isPoolable();
+    }
+
+    @Override
+    public void closeOnCompletion() throws SQLException {
+        connection.checkOpen();
+        reusable = false;
+        raw.closeOnCompletion();
+    }
+
+    @Override
+    public boolean isCloseOnCompletion() throws SQLException {
+        connection.checkOpen();
+        return raw.isCloseOnCompletion();
+    }
+
+    @Override
+    public long getLargeUpdateCount() throws SQLException {
+        connection.checkOpen();
+        return raw.getLargeUpdateCount();
+    }
+
+    @Override
+    public void setLargeMaxRows(long max) throws SQLException {
+        connection.checkOpen();
+        changed |= MAX_ROWS;
+        raw.setLargeMaxRows(max);
+    }
+
+    @Override
+    public long getLargeMaxRows() throws SQLException {
+        connection.checkOpen();
+        return raw.getLargeMaxRows();
+    }
+
+    @Override
+    public long[] executeLargeBatch() throws SQLException {
+        connection.checkOpen();
+        return raw.executeLargeBatch();
+    }
+
+    @Override
+    public long executeLargeUpdate(String sql) throws SQLException {
+        connection.checkOpen();
+        return raw.executeLargeUpdate(sql);
+    }
+
+    @Override
+    public long executeLargeUpdate(String sql, int autoGeneratedKeys) throws SQLException {
+        connection.checkOpen();
+        return raw.executeLargeUpdate(sql, autoGeneratedKeys);
+    }
+
+    @Override
+    public long executeLargeUpdate(String sql, int[] columnIndexes) throws SQLException {
+        connection.checkOpen();
+        return raw.executeLargeUpdate(sql, columnIndexes);
+    }
+
+    @Override
+    public long executeLargeUpdate(String sql, String[] columnNames) throws SQLException {
+        connection.checkOpen();
+        return raw.executeLargeUpdate(sql, columnNames);
+    }
+
+    @Override
+    public String toString() {
+        return raw.toString();
+    }
+}
@@ -0,0 +1,11 @@
+package org.reactivecouchbase.sql;
+
+/**
+ * The metrics of the queries, see API.globalMetrics. The library asks once for the metrics of each
+ * prepared query (the SQL with its {name} placeholders replaced by ?), and keeps them with the query.
+ */
+@FunctionalInterface
+public interface MetricsRegistry {
+
+    QueryMetrics forQuery(String preparedSql);
+}
@@ -0,0 +1,156 @@
+package org.reactivecouchbase.sql;
+
+import org.reactivecouchbase.common.Throwables;
+
+import java.lang.invoke.LambdaMetafactory;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * Copy the properties of an object into the parameter slots of a query, compiled once per class and query.
+ *
+ * The public getters (getX, isX), record component accessors and fields of a class are found once by
+ * reflection and called through lambdas spun by LambdaMetafactory (or method handles when it cannot target
+ * them). Binding an object reads each property matching a parameter name, or its camel case form for snake
+ * case names, and stores it in its slot: no Tuple and no lookup by name.
+ */
+final class ObjectBinder {
+
+    private static final MethodHandles.Lookup LOOKUP = MethodHandles.lookup();
+
+    private static final ClassValue<Map<String, Function<Object, Object>>> GETTERS = new ClassValue<Map<String, Function<Object, Object>>>() {
+        @Override
+        protected Map<String, Function<Object, Object>> computeValue(Class<?> type) {
+            return getters(type);
+        }
+    };
+
+    private final Class<?> type;
+    private final int[] slots;
+    private final List<Function<Object, Object>> getters;
+
+    private ObjectBinder(Class<?> type, Query query) {
+        Map<String, Function<Object, Object>> properties = GETTERS.get(type);
+        List<Integer> boundSlots = new ArrayList<>();
+        List<Function<Object, Object>> boundGetters = new ArrayList<>();
+        boolean[] seen = new boolean[query.slotCount()];
+        List<String> names = query.getParamNames();
+        for (int position = 0; position < names.size(); position++) {
+            int slot = query.slotAt(position);
+            if (seen[slot]) {
+                continue;
+            }
+            seen[slot] = true;
+            String name = names.get(position).trim();
+            Function<Object, Object> getter = properties.get(name);
+            if (getter == null) {
+                getter = properties.get(camelCase(name));
+            }
+            if (getter != null) {
+                boundSlots.add(slot);
+                boundGetters.add(getter);
+            }
+        }
+        this.type = type;
+        this.slots = new int[boundSlots.size()];
+        for (int i = 0; i < slots.length; i++) {
+            slots[i] = boundSlots.get(i);
+        }
+        this.getters = boundGetters;
+    }
+
+    static ObjectBinder of(Class<?> type, Query query) {
+        return new ObjectBinder(type, query);
+    }
+
+    Class<?> type() {
+        return type;
+    }
+
+    /**
+     * Store the properties of the object in the slots of the parameters, the other slots are left as they are
+     */
+    void bind(Object value, Params params) {
+        for (int i = 0; i < slots.length; i++) {
+            params.set(slots[i], getters.get(i).apply(value));
+        }
+    }
+
+    private static String camelCase(String name) {
+        StringBuilder camel = new StringBuilder(name.length());
+        boolean upper = false;
+        for (int i = 0; i < name.length(); i++) {
+            char c = name.charAt(i);
+            if (c == '_') {
+                upper = camel.length() > 0;
+            } else {
+                camel.append(upper ? Character.toUpperCase(c) : c);
+                upper = false;
+            }
+        }
+        return camel.toString();
+    }
+
+    private static Map<String, Function<Object, Object>> getters(Class<?> type) {
+        Map<String, Function<Object, Object>> getters = new HashMap<>();
+        try {
+            for (Field field : type.getFields()) {
+                if (!Modifier.isStatic(field.getModifiers())) {
+                    getters.put(field.getName(), getter(type, LOOKUP.unreflectGetter(field)));
+                }
+            }
+            Map<String, Method> accessors = new HashMap<>();
+            for (Method method : type.getMethods()) {
+                if (Modifier.isStatic(method.getModifiers()) || method.getParameterCount() != 0
+                        || method.getReturnType() == void.class || method.getDeclaringClass() == Object.class) {
+                    continue;
+                }
+                String name = method.getName();
+                if (name.length() > 3 && name.startsWith("get")) {
+                    accessors.put(Character.toLowerCase(name.charAt(3)) + name.substring(4), method);
+                } else if (name.length() > 2 && name.startsWith("is") && method.getReturnType() == boolean.class) {
+                    accessors.put(Character.toLowerCase(name.charAt(2)) + name.substring(3), method);
+                }
+            }
+            String[] components = RowMappers.recordComponents(type);
+            if (components != null) {
+                for (String component : components) {
+                    accessors.put(component, type.getMethod(component));
+                }
+            }
+            for (Map.Entry<String, Method> accessor : accessors.entrySet()) {
+                getters.put(accessor.getKey(), getter(type, LOOKUP.unreflect(accessor.getValue())));
+            }
+        } catch (NoSuchMethodException | IllegalAccessException e) {
+            throw new IllegalArgumentException("Cannot read the properties of " + type.getName(), e);
+        }
+        return getters;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Function<Object, Object> getter(Class<?> type, MethodHandle handle) {
+        try {
+            return (Function<Object, Object>) LambdaMetafactory.metafactory(LOOKUP, "apply",
+                    MethodType.methodType(Function.class), MethodType.methodType(Object.class, Object.class), handle,
+                    MethodType.methodType(handle.type().wrap().returnType(), type)).getTarget().invoke();
+        } catch (Throwable e) {
+            MethodHandle generic = handle.asType(MethodType.methodType(Object.class, Object.class));
+            return value -> {
+                try {
+                    return generic.invokeExact(value);
+                } catch (Throwable t) {
+                    throw Throwables.propagate(t);
+                }
+            };
+        }
+    }
+}
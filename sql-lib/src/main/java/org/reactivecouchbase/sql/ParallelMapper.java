@@ -0,0 +1,122 @@
+package org.reactivecouchbase.sql;
+
+import org.reactivecouchbase.common.Throwables;
+import org.reactivecouchbase.functional.Option;
+
+import java.sql.ResultSet;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.function.Function;
+
+/**
+ * Map the rows of a result set on an executor instead of on the thread reading the result set.
+ *
+ * Rows are detached in chunks, each chunk being mapped by one task. At most maxChunksInFlight chunks are
+ * read ahead of the mapping, which caps the memory used by the detached rows. Results are merged in the
+ * order of the result set, or in the order the chunks complete when ordering does not matter.
+ */
+final class ParallelMapper {
+
+    private final Executor executor;
+    private final int chunkSize;
+    private final int maxChunksInFlight;
+    private final boolean ordered;
+
+    ParallelMapper(Executor executor, int chunkSize, int maxChunksInFlight, boolean ordered) {
+        if (executor == null) {
+            throw new IllegalArgumentException("executor cannot be null");
+        }
+        if (chunkSize <= 0) {
+            throw new IllegalArgumentException("chunkSize must be strictly positive");
+        }
+        if (maxChunksInFlight <= 0) {
+            throw new IllegalArgumentException("maxChunksInFlight must be strictly positive");
+        }
+        this.executor = executor;
+        this.chunkSize = chunkSize;
+        this.maxChunksInFlight = maxChunksInFlight;
+        this.ordered = ordered;
+    }
+
+    <T> List<T> collect(ResultSet resultSet, RowSchema schema, Cancellation execution, boolean safeMode,
+                        Function<Row, Option<T>> parser) throws Exception {
+        List<T> results = new ArrayList<>();
+        List<CompletableFuture<List<T>>> inFlight = new ArrayList<>(maxChunksInFlight);
+        Row row = new Row(0, resultSet, schema, safeMode);
+        int index = 0;
+        try {
+            List<Row> chunk = new ArrayList<>(chunkSize);
+            while (execution.next(resultSet)) {
+                chunk.add(row.moveTo(++index).detach());
+                if (chunk.size() == chunkSize) {
+                    submit(chunk, parser, inFlight, results);
+                    chunk = new ArrayList<>(chunkSize);
+                }
+            }
+            if (!chunk.isEmpty()) {
+                submit(chunk, parser, inFlight, results);
+            }
+            while (!inFlight.isEmpty()) {
+                merge(inFlight, results);
+            }
+            return results;
+        } catch (Exception e) {
+            for (CompletableFuture<List<T>> future : inFlight) {
+                future.cancel(false);
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Submit the chunk once fewer than maxChunksInFlight chunks are in flight
+     */
+    private <T> void submit(List<Row> chunk, Function<Row, Option<T>> parser,
+                            List<CompletableFuture<List<T>>> inFlight, List<T> results) {
+        while (inFlight.size() >= maxChunksInFlight) {
+            merge(inFlight, results);
+        }
+        inFlight.add(submit(chunk, parser));
+    }
+
+    private <T> CompletableFuture<List<T>> submit(List<Row> chunk, Function<Row, Option<T>> parser) {
+        return CompletableFuture.supplyAsync(() -> {
+            List<T> mapped = new ArrayList<>(chunk.size());
+            for (Row detached : chunk) {
+                Option<T> opt = parser.apply(detached);
+                if (opt.isDefined()) {
+                    mapped.add(opt.get());
+                }
+            }
+            return mapped;
+        }, executor);
+    }
+
+    /**
+     * Wait for the oldest chunk (or any chunk if the merge is unordered) and add the results of the
+     * completed chunks
+     */
+    private <T> void merge(List<CompletableFuture<List<T>>> inFlight, List<T> results) {
+        try {
+            if (ordered) {
+                results.addAll(inFlight.remove(0).join());
+                return;
+            }
+            CompletableFuture.anyOf(inFlight.toArray(new CompletableFuture<?>[inFlight.size()])).join();
+            Iterator<CompletableFuture<List<T>>> iterator = inFlight.iterator();
+            while (iterator.hasNext()) {
+                CompletableFuture<List<T>> future = iterator.next();
+                if (future.isDone()) {
+                    iterator.remove();
+                    results.addAll(future.join());
+                }
+            }
+        } catch (CompletionException e) {
+            throw Throwables.propagate(e.getCause() == null ? e : e.getCause());
+        }
+    }
+}
@@ -0,0 +1,12 @@
+package org.reactivecouchbase.sql;
+
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+
+/**
+ * Write a non null value of a given type into a statement parameter slot
+ */
+@FunctionalInterface
+public interface ParamBinder<T> {
+    void bind(PreparedStatement pst, int index, T value) throws SQLException;
+}
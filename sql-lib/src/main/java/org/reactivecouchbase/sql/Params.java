@@ -0,0 +1,108 @@
+package org.reactivecouchbase.sql;
+
+import org.reactivecouchbase.functional.Tuple;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Parameter values of a query, held in a flat array indexed by the slots of the query
+ */
+final class Params {
+
+    private static final Object UNSET = new Object();
+
+    private final Query query;
+    private final Object[] values;
+
+    Params(Query query) {
+        this.query = query;
+        this.values = new Object[query.slotCount()];
+        Arrays.fill(values, UNSET);
+    }
+
+    Query query() {
+        return query;
+    }
+
+    void set(String name, Object value) {
+        int slot = query.slotOf(name);
+        if (slot >= 0) {
+            values[slot] = value;
+        }
+    }
+
+    void set(int slot, Object value) {
+        values[slot] = value;
+    }
+
+    /**
+     * Set the parameters from the properties of an object, with the binder of its class for this query
+     */
+    void bind(Object value) {
+        query.objectBinder(value.getClass()).bind(value, this);
+    }
+
+    void set(List<Tuple<String, Object>> pairs) {
+        for (Tuple<String, Object> p : pairs) {
+            set(p._1, p._2);
+        }
+    }
+
+    boolean isSet(int slot) {
+        return values[slot] != UNSET;
+    }
+
+    Object get(int slot) {
+        return values[slot];
+    }
+
+    /**
+     * A rough estimate of the size of the values once bound, used to bound the size of batches
+     */
+    long estimatedSize() {
+        long size = 0;
+        for (Object value : values) {
+            if (value == UNSET || value == null) {
+                size += 1;
+            } else if (value instanceof CharSequence) {
+                size += ((CharSequence) value).length();
+            } else if (value instanceof byte[]) {
+                size += ((byte[]) value).length;
+            } else if (value instanceof Boolean || value instanceof Byte) {
+                size += 1;
+            } else if (value instanceof Number || value instanceof java.util.Date) {
+                size += 8;
+            } else {
+                size += 16;
+            }
+        }
+        return size;
+    }
+
+    /**
+     * Copy the values set in the other parameters, the other slots keep their values
+     */
+    void merge(Params other) {
+        for (int slot = 0; slot < values.length; slot++) {
+            if (other.isSet(slot)) {
+                values[slot] = other.values[slot];
+            }
+        }
+    }
+
+    /**
+     * A copy of the values, used as the key of a cached result
+     */
+    Object[] snapshot() {
+        return values.clone();
+    }
+
+    void restore(Object[] snapshot) {
+        System.arraycopy(snapshot, 0, values, 0, values.length);
+    }
+
+    void clear() {
+        Arrays.fill(values, UNSET);
+    }
+}
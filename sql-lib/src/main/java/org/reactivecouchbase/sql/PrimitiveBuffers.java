@@ -0,0 +1,79 @@
+package org.reactivecouchbase.sql;
+
+import java.util.Arrays;
+
+/**
+ * Growable buffers of unboxed values, used to collect numeric columns without boxing every value
+ */
+public final class PrimitiveBuffers {
+
+    private static final int INITIAL_CAPACITY = 16;
+
+    private PrimitiveBuffers() {
+    }
+
+    private static int grow(int capacity) {
+        int newCapacity = capacity + (capacity >> 1) + 1;
+        return newCapacity < 0 ? Integer.MAX_VALUE - 8 : newCapacity;
+    }
+
+    public static final class Longs {
+        private long[] values = new long[INITIAL_CAPACITY];
+        private int size = 0;
+
+        public void add(long value) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, grow(values.length));
+            }
+            values[size++] = value;
+        }
+
+        public int size() {
+            return size;
+        }
+
+        public long[] toArray() {
+            return Arrays.copyOf(values, size);
+        }
+    }
+
+    public static final class Ints {
+        private int[] values = new int[INITIAL_CAPACITY];
+        private int size = 0;
+
+        public void add(int value) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, grow(values.length));
+            }
+            values[size++] = value;
+        }
+
+        public int size() {
+            return size;
+        }
+
+        public int[] toArray() {
+            return Arrays.copyOf(values, size);
+        }
+    }
+
+    public static final class Doubles {
+        private double[] values = new double[INITIAL_CAPACITY];
+        private int size = 0;
+
+        public void add(double value) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, grow(values.length));
+            }
+            values[size++] = value;
+        }
+
+        public int size() {
+            return size;
+        }
+
+        public double[] toArray() {
+            return Arrays.copyOf(values, size);
+        }
+    }
+}
@@ -0,0 +1,107 @@
+package org.reactivecouchbase.sql;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * The timings of one execution, reported once it ends to the metrics of its query and to the slow query
+ * log. An execution only gets a probe when one of them is enabled. The parameters are only read once the
+ * slow query log keeps the execution.
+ */
+final class Probe {
+
+    private final Query query;
+    private final QueryMetrics metrics;
+    private final SlowQueryLog log;
+    private final Params params;
+    private final int fetchSize;
+    private final long startedAt = System.nanoTime();
+    private long preparedAt;
+    private long executedAt;
+    private long firstRowAt;
+    private long rows;
+    private long updatedRows = -1;
+    private boolean fetching = false;
+    private boolean finished = false;
+
+    private Probe(Query query, QueryMetrics metrics, SlowQueryLog log, Params params, int fetchSize) {
+        this.query = query;
+        this.metrics = metrics;
+        this.log = log;
+        this.params = params;
+        this.fetchSize = fetchSize;
+    }
+
+    /**
+     * A probe for an execution of the query with the parameters (null for a batch), or null if neither the
+     * metrics nor the slow query log are enabled
+     */
+    static Probe start(Query query, Params params, int fetchSize) {
+        QueryMetrics metrics = query.metrics();
+        SlowQueryLog log = Query.slowQueryLog;
+        if (metrics == null && log == null) {
+            return null;
+        }
+        return new Probe(query, metrics, log, params, fetchSize);
+    }
+
+    void prepared() {
+        preparedAt = System.nanoTime();
+        if (metrics != null) {
+            metrics.prepared(preparedAt - startedAt);
+        }
+    }
+
+    /**
+     * The statement has been executed, with its update count or -1
+     */
+    void executed(long updateCount) {
+        executedAt = System.nanoTime();
+        updatedRows = updateCount;
+        if (metrics != null) {
+            metrics.executed(executedAt - (preparedAt == 0 ? startedAt : preparedAt));
+            if (updateCount >= 0) {
+                metrics.updated(updateCount);
+            }
+        }
+    }
+
+    boolean next(ResultSet resultSet) throws SQLException {
+        fetching = true;
+        if (!resultSet.next()) {
+            return false;
+        }
+        if (rows++ == 0) {
+            firstRowAt = System.nanoTime();
+            if (metrics != null) {
+                metrics.firstRow(firstRowAt - startedAt);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * End the execution, only the first call counts
+     */
+    void finished(boolean failed) {
+        if (finished) {
+            return;
+        }
+        finished = true;
+        long now = System.nanoTime();
+        long fetchNanos = fetching && executedAt != 0 ? now - executedAt : 0;
+        if (metrics != null) {
+            if (failed) {
+                metrics.failed();
+            } else if (fetching) {
+                metrics.fetched(fetchNanos, rows);
+            }
+        }
+        if (log != null) {
+            long prepareNanos = preparedAt == 0 ? 0 : preparedAt - startedAt;
+            long executeNanos = executedAt == 0 ? 0 : executedAt - (preparedAt == 0 ? startedAt : preparedAt);
+            log.offer(query, params, fetchSize, rows, updatedRows, prepareNanos, executeNanos,
+                    firstRowAt == 0 ? -1 : firstRowAt - startedAt, fetchNanos, now - startedAt, failed);
+        }
+    }
+}
@@ -1,18 +1,53 @@
 package org.reactivecouchbase.sql;
 
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 public class Query {
 
+    static final QueryCache CACHE = new QueryCache(1024);
+
+    static volatile MetricsRegistry metricsRegistry;
+
+    static volatile SlowQueryLog slowQueryLog;
+
     private final String preparedSqlQuery;
     private final List<String> paramNames;
+    private final Map<String, Integer> slotsByName;
+    private final int[] slots;
+    private final Binding[] bindings;
+    private volatile RowSchema schema;
+    private volatile boolean insertAnalyzed = false;
+    private volatile InsertRewrite insertRewrite;
+    private volatile ObjectBinder objectBinder;
+    private volatile Metrics metrics;
+    private volatile Set<String> readTables;
+    private volatile boolean writtenAnalyzed = false;
+    private volatile Set<String> writtenTables;
+    private final ConcurrentHashMap<Class<?>, ObjectBinder> objectBinders = new ConcurrentHashMap<>();
 
     private Query(String preparedSqlQuery, List<String> paramNames) {
         this.preparedSqlQuery = preparedSqlQuery;
-        this.paramNames = paramNames;
+        this.paramNames = Collections.unmodifiableList(paramNames);
+        this.slotsByName = new HashMap<>();
+        this.slots = new int[paramNames.size()];
+        for (int position = 0; position < paramNames.size(); position++) {
+            Integer slot = slotsByName.get(paramNames.get(position));
+            if (slot == null) {
+                slot = slotsByName.size();
+                slotsByName.put(paramNames.get(position), slot);
+            }
+            slots[position] = slot;
+        }
+        this.bindings = new Binding[paramNames.size()];
     }
 
     public String getPreparedSqlQuery() {
@@ -23,17 +58,239 @@ public class Query {
         return paramNames;
     }
 
+    /**
+     * Number of distinct parameter names, a repeated name uses a single slot
+     */
+    int slotCount() {
+        return slotsByName.size();
+    }
+
+    /**
+     * Returns the slot of a parameter name, or -1 if the query does not use it
+     */
+    int slotOf(String name) {
+        Integer slot = slotsByName.get(name);
+        if (slot == null) {
+            slot = slotsByName.get(name.trim());
+        }
+        return slot == null ? -1 : slot;
+    }
+
+    /**
+     * Returns the slot holding the value of the parameter at a position (0 based) of the prepared query
+     */
+    int slotAt(int position) {
+        return slots[position];
+    }
+
+    /**
+     * Returns the binder of a parameter position for a value type. The last resolved binder of each position
+     * is remembered, so repeated executions with values of the same type skip the binder lookup.
+     */
+    ParamBinder<Object> binderFor(int position, Class<?> type) {
+        int version = Binders.version();
+        Binding binding = bindings[position];
+        if (binding == null || binding.type != type || binding.version != version) {
+            binding = new Binding(type, Binders.binderFor(type), version);
+            bindings[position] = binding;
+        }
+        return binding.binder;
+    }
+
+    /**
+     * Returns the schema of a result set of this query, reusing the one of the previous execution when
+     * the columns are the same
+     */
+    RowSchema schemaOf(ResultSet set) throws SQLException {
+        ResultSetMetaData metaData = set.getMetaData();
+        RowSchema current = schema;
+        if (current == null || !current.matches(metaData)) {
+            current = RowSchema.of(metaData);
+            schema = current;
+        }
+        return current;
+    }
+
+    /**
+     * Returns the binder copying the properties of objects of a class into the slots of this query, the last
+     * one used being checked first
+     */
+    ObjectBinder objectBinder(Class<?> type) {
+        ObjectBinder binder = objectBinder;
+        if (binder == null || binder.type() != type) {
+            binder = objectBinders.computeIfAbsent(type, t -> ObjectBinder.of(t, this));
+            objectBinder = binder;
+        }
+        return binder;
+    }
+
+    /**
+     * Returns the multi-row rewrite of this query if it is a simple INSERT ... VALUES (...), or null
+     */
+    InsertRewrite insertRewrite() {
+        if (!insertAnalyzed) {
+            insertRewrite = InsertRewrite.of(preparedSqlQuery, paramNames.size());
+            insertAnalyzed = true;
+        }
+        return insertRewrite;
+    }
+
+    /**
+     * Returns the metrics of this query in the global registry, or null if there is none. They are looked
+     * up in the registry once, and again only if the registry changes.
+     */
+    QueryMetrics metrics() {
+        MetricsRegistry registry = metricsRegistry;
+        if (registry == null) {
+            return null;
+        }
+        Metrics current = metrics;
+        if (current == null || current.registry != registry) {
+            current = new Metrics(registry, registry.forQuery(preparedSqlQuery));
+            metrics = current;
+        }
+        return current.metrics;
+    }
+
+    /**
+     * Returns the (lower cased) tables read by this query, see TableNames
+     */
+    Set<String> readTables() {
+        Set<String> tables = readTables;
+        if (tables == null) {
+            tables = TableNames.read(preparedSqlQuery);
+            readTables = tables;
+        }
+        return tables;
+    }
+
+    /**
+     * Returns the (lower cased) tables written by this query, an empty set for a query that only reads, or
+     * null if they are unknown
+     */
+    Set<String> writtenTables() {
+        if (!writtenAnalyzed) {
+            writtenTables = TableNames.written(preparedSqlQuery);
+            writtenAnalyzed = true;
+        }
+        return writtenTables;
+    }
+
     public static Query preparedQuery(String baseSql) {
-        String finalSql = baseSql;
+        return CACHE.get(baseSql, Query::parse);
+    }
+
+    /**
+     * Rewrites every {name} placeholder into a ? in a single pass over the SQL text and records the
+     * parameter name of each slot, in order. Placeholders inside quoted strings, quoted identifiers and
+     * comments are left untouched.
+     */
+    private static Query parse(String baseSql) {
+        int length = baseSql.length();
+        StringBuilder finalSql = new StringBuilder(length);
         List<String> names = new ArrayList<>();
-        Pattern p = Pattern.compile("\\{[a-zA-Z0-9 \\-_]+\\}");
-        Matcher m = p.matcher(baseSql);
-        while (m.find()) {
-            String name = m.group().replace("{", "").replace("}", "");
-            names.add(name.trim());
-            finalSql = finalSql.replace("{" + name + "}", "?");
+        int i = 0;
+        while (i < length) {
+            char c = baseSql.charAt(i);
+            int end;
+            switch (c) {
+                case '\'':
+                case '"':
+                case '`':
+                    end = skipQuoted(baseSql, i, c);
+                    break;
+                case '-':
+                    end = (i + 1 < length && baseSql.charAt(i + 1) == '-') ? skipLineComment(baseSql, i) : i + 1;
+                    break;
+                case '/':
+                    end = (i + 1 < length && baseSql.charAt(i + 1) == '*') ? skipBlockComment(baseSql, i) : i + 1;
+                    break;
+                case '{':
+                    end = placeholderEnd(baseSql, i);
+                    if (end > 0) {
+                        names.add(baseSql.substring(i + 1, end - 1).trim());
+                        finalSql.append('?');
+                        i = end;
+                        continue;
+                    }
+                    end = i + 1;
+                    break;
+                default:
+                    end = i + 1;
+            }
+            finalSql.append(baseSql, i, end);
+            i = end;
+        }
+        return new Query(finalSql.toString(), names);
+    }
+
+    private static int skipQuoted(String sql, int start, char quote) {
+        int i = start + 1;
+        while (i < sql.length()) {
+            if (sql.charAt(i) == quote) {
+                // a doubled quote is an escaped quote, not the end of the literal
+                if (i + 1 < sql.length() && sql.charAt(i + 1) == quote) {
+                    i += 2;
+                    continue;
+                }
+                return i + 1;
+            }
+            i++;
         }
-        return new Query(finalSql, names);
+        return sql.length();
     }
 
-}
\ No newline at end of file
+    private static int skipLineComment(String sql, int start) {
+        int end = sql.indexOf('\n', start + 2);
+        return end < 0 ? sql.length() : end + 1;
+    }
+
+    private static int skipBlockComment(String sql, int start) {
+        int end = sql.indexOf("*/", start + 2);
+        return end < 0 ? sql.length() : end + 2;
+    }
+
+    private static int placeholderEnd(String sql, int start) {
+        int i = start + 1;
+        boolean hasName = false;
+        while (i < sql.length()) {
+            char c = sql.charAt(i);
+            if (c == '}') {
+                return hasName ? i + 1 : -1;
+            }
+            if (!isNameChar(c)) {
+                return -1;
+            }
+            hasName = hasName || c != ' ';
+            i++;
+        }
+        return -1;
+    }
+
+    private static boolean isNameChar(char c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9')
+                || c == ' ' || c == '-' || c == '_';
+    }
+
+    private static final class Metrics {
+        private final MetricsRegistry registry;
+        private final QueryMetrics metrics;
+
+        Metrics(MetricsRegistry registry, QueryMetrics metrics) {
+            this.registry = registry;
+            this.metrics = metrics;
+        }
+    }
+
+    private static final class Binding {
+        private final Class<?> type;
+        private final ParamBinder<Object> binder;
+        private final int version;
+
+        Binding(Class<?> type, ParamBinder<Object> binder, int version) {
+            this.type = type;
+            this.binder = binder;
+            this.version = version;
+        }
+    }
+}
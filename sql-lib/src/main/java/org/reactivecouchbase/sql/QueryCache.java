@@ -0,0 +1,131 @@
+package org.reactivecouchbase.sql;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+/**
+ * Thread safe, size bounded cache of parsed {@link Query} templates keyed by the raw SQL text.
+ *
+ * Lookups are lock free. Eviction uses a CLOCK (second chance) policy, an approximation of LRU
+ * that does not need to reorder anything on a hit.
+ */
+public final class QueryCache {
+
+    private static final class Entry {
+        final Query query;
+        volatile boolean accessed;
+
+        Entry(Query query) {
+            this.query = query;
+        }
+    }
+
+    private final ConcurrentHashMap<String, Entry> entries = new ConcurrentHashMap<>();
+    private final Queue<String> clock = new ConcurrentLinkedQueue<>();
+    private final Object evictionLock = new Object();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private volatile int maxSize;
+
+    QueryCache(int maxSize) {
+        this.maxSize = maxSize;
+    }
+
+    Query get(String sql, Function<String, Query> parser) {
+        if (maxSize <= 0) {
+            misses.increment();
+            return parser.apply(sql);
+        }
+        Entry entry = entries.get(sql);
+        if (entry != null) {
+            hits.increment();
+            entry.accessed = true;
+            return entry.query;
+        }
+        misses.increment();
+        Entry created = new Entry(parser.apply(sql));
+        Entry existing = entries.putIfAbsent(sql, created);
+        if (existing != null) {
+            return existing.query;
+        }
+        clock.offer(sql);
+        if (entries.size() > maxSize) {
+            evict();
+        }
+        return created.query;
+    }
+
+    private void evict() {
+        synchronized (evictionLock) {
+            while (entries.size() > maxSize) {
+                String key = clock.poll();
+                if (key == null) {
+                    return;
+                }
+                Entry entry = entries.get(key);
+                if (entry == null) {
+                    continue;
+                }
+                if (entry.accessed) {
+                    entry.accessed = false;
+                    clock.offer(key);
+                } else if (entries.remove(key, entry)) {
+                    evictions.increment();
+                }
+            }
+        }
+    }
+
+    void resize(int maxSize) {
+        this.maxSize = maxSize;
+        if (maxSize <= 0) {
+            clear();
+        } else if (entries.size() > maxSize) {
+            evict();
+        }
+    }
+
+    public int maxSize() {
+        return maxSize;
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    public long hits() {
+        return hits.sum();
+    }
+
+    public long misses() {
+        return misses.sum();
+    }
+
+    public long evictions() {
+        return evictions.sum();
+    }
+
+    public void clear() {
+        synchronized (evictionLock) {
+            entries.clear();
+            clock.clear();
+        }
+    }
+
+    public void resetStats() {
+        hits.reset();
+        misses.reset();
+        evictions.reset();
+    }
+
+    @Override
+    public String toString() {
+        return "QueryCache{" + "size=" + size() + ", maxSize=" + maxSize
+                + ", hits=" + hits() + ", misses=" + misses()
+                + ", evictions=" + evictions() + '}';
+    }
+}
@@ -0,0 +1,27 @@
+package org.reactivecouchbase.sql;
+
+/**
+ * Receives the measures of the executions of one query (SQL, Call or Batch), from the threads executing it:
+ * implementations must be thread safe and cheap, they are called on the hot path.
+ *
+ * Latencies are in nanoseconds. An execution reports its prepare and execute times, then, if it reads a
+ * result set, the time to its first row (since the start of the execution) and the time spent fetching its
+ * rows once the statement has been executed. A failed or cancelled execution is reported with failed.
+ */
+public interface QueryMetrics {
+
+    void prepared(long nanos);
+
+    void executed(long nanos);
+
+    void firstRow(long nanos);
+
+    void fetched(long nanos, long rows);
+
+    /**
+     * The rows written by an update or a batch, when the driver reports them
+     */
+    void updated(long rows);
+
+    void failed();
+}
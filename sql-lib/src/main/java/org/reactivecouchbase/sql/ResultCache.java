@@ -0,0 +1,452 @@
+package org.reactivecouchbase.sql;
+
+import org.reactivecouchbase.common.Throwables;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * A size bounded cache of the rows of the queries marked as cached, keyed by their prepared SQL and the
+ * values of their parameters.
+ *
+ * The cache of a database is attached to each connection it lends, so the queries executed on it can be
+ * served from the cache and the statements executed on it invalidate the cached results of the tables they
+ * write: right away, and again once the connection is given back (after the commit). Once a connection has
+ * written something, its queries bypass the cache until it is given back, so it reads its own writes. The
+ * attachment lives on the connection (a ManagedConnection), and goes away with it.
+ *
+ * Each table has its own generation, bumped when it is invalidated: a result loaded while one of the tables
+ * it reads was invalidated is not stored, the loads of the other tables are not affected.
+ *
+ * Entries expire after the ttl. An entry older than refreshAfter is still served, while it is reloaded in
+ * the background. When the cache is full, the oldest entries are evicted first. The tables of a statement
+ * are found by a lexical analysis of its SQL; a statement it cannot understand invalidates everything.
+ */
+public final class ResultCache {
+
+    private final int maxEntries;
+    private final long ttlNanos;
+    private final long refreshAfterNanos;
+    private final Executor refresher;
+    private final Consumer<Consumer<Connection>> connections;
+    private final ConcurrentHashMap<Key, Entry> entries = new ConcurrentHashMap<>();
+    // the entries in insertion order, with the removed and replaced ones skipped by evict
+    private final ConcurrentLinkedQueue<Entry> order = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger ordered = new AtomicInteger(0);
+    private final AtomicInteger size = new AtomicInteger(0);
+    private final AtomicLong generation = new AtomicLong(0);
+    private final ConcurrentHashMap<String, AtomicLong> generations = new ConcurrentHashMap<>();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder refreshes = new LongAdder();
+    private final LongAdder invalidations = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    /**
+     * A cache of at most maxEntries results, reloaded in the background with a connection of connections
+     * on the refresher once they are older than refreshAfter (if it is shorter than the ttl)
+     */
+    public ResultCache(int maxEntries, long ttl, long refreshAfter, TimeUnit unit, Executor refresher,
+                       Consumer<Consumer<Connection>> connections) {
+        if (maxEntries <= 0) {
+            throw new IllegalArgumentException("maxEntries must be strictly positive");
+        }
+        if (ttl <= 0) {
+            throw new IllegalArgumentException("ttl must be strictly positive");
+        }
+        this.maxEntries = maxEntries;
+        this.ttlNanos = unit.toNanos(ttl);
+        this.refreshAfterNanos = refreshAfter > 0 && refreshAfter < ttl ? unit.toNanos(refreshAfter) : Long.MAX_VALUE;
+        this.refresher = refresher;
+        this.connections = connections;
+    }
+
+    /**
+     * Use the cache for the queries and statements executed on the connection, until it is detached, and
+     * returns the connection to use: the connection itself if it is a ManagedConnection, a ManagedConnection
+     * wrapping it otherwise. Attachments are counted, a connection attached twice must be detached twice.
+     */
+    public static Connection attach(Connection connection, ResultCache cache) {
+        ManagedConnection managed = connection instanceof ManagedConnection
+                ? (ManagedConnection) connection
+                : new ManagedConnection(connection, false);
+        synchronized (managed) {
+            Binding binding = managed.cacheBinding;
+            if (binding == null) {
+                managed.cacheBinding = new Binding(cache);
+            } else {
+                binding.depth++;
+            }
+        }
+        return managed;
+    }
+
+    /**
+     * Stop using the cache for the connection returned by attach, and invalidate the results of the tables
+     * it has written
+     */
+    public static void detach(Connection connection) {
+        if (!(connection instanceof ManagedConnection)) {
+            return;
+        }
+        ManagedConnection managed = (ManagedConnection) connection;
+        Binding binding;
+        synchronized (managed) {
+            binding = managed.cacheBinding;
+            if (binding == null) {
+                return;
+            }
+            if (binding.depth > 0) {
+                binding.depth--;
+                return;
+            }
+            managed.cacheBinding = null;
+        }
+        if (binding.writesAll) {
+            binding.cache.invalidateAll();
+        } else {
+            for (String table : binding.written) {
+                binding.cache.invalidate(table);
+            }
+        }
+    }
+
+    private static Binding binding(Connection connection) {
+        return connection instanceof ManagedConnection ? ((ManagedConnection) connection).cacheBinding : null;
+    }
+
+    /**
+     * The cache attached to the connection, or null if there is none or the connection has written something
+     */
+    static ResultCache readable(Connection connection) {
+        Binding binding = binding(connection);
+        if (binding == null || binding.writesAll || !binding.written.isEmpty()) {
+            return null;
+        }
+        return binding.cache;
+    }
+
+    /**
+     * Record the tables written by a statement executed on the connection, null meaning every table
+     */
+    static void written(Connection connection, Set<String> tables) {
+        if (tables != null && tables.isEmpty()) {
+            return;
+        }
+        Binding binding = binding(connection);
+        if (binding == null) {
+            return;
+        }
+        if (tables == null) {
+            binding.writesAll = true;
+            binding.cache.invalidateAll();
+        } else {
+            for (String table : tables) {
+                if (binding.written.add(table)) {
+                    binding.cache.invalidate(table);
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the cached rows of the query for the parameter values, loading them if needed
+     */
+    Rows get(Query query, Object[] values, Supplier<Rows> loader) {
+        Key key = new Key(query.getPreparedSqlQuery(), values);
+        Entry entry = entries.get(key);
+        long now = System.nanoTime();
+        if (entry != null) {
+            long age = now - entry.loadedAt;
+            if (age < ttlNanos) {
+                hits.increment();
+                if (age >= refreshAfterNanos && entry.refreshing.compareAndSet(false, true)) {
+                    refresh(entry);
+                }
+                return entry.rows;
+            }
+        }
+        misses.increment();
+        Set<String> tables = query.readTables();
+        long loadGeneration = generation(tables);
+        Rows rows = loader.get();
+        store(new Entry(key, query, values, tables, rows, now), loadGeneration);
+        return rows;
+    }
+
+    private void refresh(Entry entry) {
+        long loadGeneration = generation(entry.tables);
+        try {
+            refresher.execute(() -> {
+                try {
+                    connections.accept(connection -> {
+                        Rows rows = load(connection, entry.query, entry.values);
+                        refreshes.increment();
+                        store(new Entry(entry.key, entry.query, entry.values, entry.tables, rows, System.nanoTime()), loadGeneration);
+                    });
+                } catch (RuntimeException e) {
+                    // the entry expires with its ttl, the next query will load it
+                    entry.refreshing.set(false);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            entry.refreshing.set(false);
+        }
+    }
+
+    /**
+     * The generation of a set of tables: the sum of their generations and of the global one, which only
+     * grow, so it changes whenever one of them is invalidated
+     */
+    private long generation(Set<String> tables) {
+        long sum = generation.get();
+        for (String table : tables) {
+            AtomicLong tableGeneration = generations.get(table);
+            if (tableGeneration != null) {
+                sum += tableGeneration.get();
+            }
+        }
+        return sum;
+    }
+
+    /**
+     * Store an entry, unless one of its tables has been invalidated since its load started
+     */
+    private void store(Entry entry, long loadGeneration) {
+        if (generation(entry.tables) != loadGeneration) {
+            return;
+        }
+        Entry previous = entries.put(entry.key, entry);
+        order.offer(entry);
+        if (ordered.incrementAndGet() > 2 * maxEntries + 16) {
+            compact();
+        }
+        if (previous == null && size.incrementAndGet() > maxEntries) {
+            evict();
+        }
+        if (generation(entry.tables) != loadGeneration) {
+            // an invalidation ran concurrently, it may have missed the entry
+            remove(entry.key);
+        }
+    }
+
+    private void evict() {
+        Entry oldest;
+        while (size.get() > maxEntries && (oldest = order.poll()) != null) {
+            ordered.decrementAndGet();
+            if (entries.remove(oldest.key, oldest)) {
+                size.decrementAndGet();
+                evictions.increment();
+            }
+        }
+    }
+
+    /**
+     * Drop the removed and replaced entries from the insertion order, once they outnumber the live ones
+     */
+    private void compact() {
+        Iterator<Entry> iterator = order.iterator();
+        while (iterator.hasNext()) {
+            Entry entry = iterator.next();
+            if (entries.get(entry.key) != entry) {
+                iterator.remove();
+                ordered.decrementAndGet();
+            }
+        }
+    }
+
+    private void remove(Key key) {
+        if (entries.remove(key) != null) {
+            size.decrementAndGet();
+        }
+    }
+
+    /**
+     * Remove the results of the queries reading the table
+     */
+    public void invalidate(String table) {
+        String name = table.toLowerCase(Locale.ROOT);
+        generations.computeIfAbsent(name, t -> new AtomicLong(0)).incrementAndGet();
+        invalidations.increment();
+        for (Entry entry : entries.values()) {
+            if (entry.tables.contains(name)) {
+                remove(entry.key);
+            }
+        }
+    }
+
+    public void invalidateAll() {
+        generation.incrementAndGet();
+        invalidations.increment();
+        for (Key key : entries.keySet()) {
+            remove(key);
+        }
+    }
+
+    public int size() {
+        return size.get();
+    }
+
+    public long hits() {
+        return hits.sum();
+    }
+
+    public long misses() {
+        return misses.sum();
+    }
+
+    /**
+     * The number of entries reloaded in the background
+     */
+    public long refreshes() {
+        return refreshes.sum();
+    }
+
+    public long invalidations() {
+        return invalidations.sum();
+    }
+
+    public long evictions() {
+        return evictions.sum();
+    }
+
+    @Override
+    public String toString() {
+        return "ResultCache { size: " + size() + ", hits: " + hits() + ", misses: " + misses() + ", refreshes: "
+                + refreshes() + ", invalidations: " + invalidations() + ", evictions: " + evictions() + " }";
+    }
+
+    /**
+     * Execute the query with the parameter values and copy its rows
+     */
+    static Rows load(Connection connection, Query query, Object[] values) {
+        Params params = new Params(query);
+        params.restore(values);
+        try (PreparedStatement pst = connection.prepareStatement(query.getPreparedSqlQuery())) {
+            API.fillStatement(pst, params);
+            try (ResultSet resultSet = pst.executeQuery()) {
+                return Rows.copyOf(resultSet, query.schemaOf(resultSet));
+            }
+        } catch (Exception e) {
+            throw Throwables.propagate(e);
+        }
+    }
+
+    /**
+     * The rows of a result, copied from its result set
+     */
+    static final class Rows {
+        private final RowSchema schema;
+        private final Object[][] rows;
+
+        private Rows(RowSchema schema, Object[][] rows) {
+            this.schema = schema;
+            this.rows = rows;
+        }
+
+        static Rows copyOf(ResultSet resultSet, RowSchema schema) throws SQLException {
+            return copyOf(resultSet, schema, new Cancellation());
+        }
+
+        static Rows copyOf(ResultSet resultSet, RowSchema schema, Cancellation execution) throws SQLException {
+            List<Object[]> rows = new ArrayList<>();
+            while (execution.next(resultSet)) {
+                rows.add(DetachedResultSet.valuesOf(resultSet, schema));
+            }
+            return new Rows(schema, rows.toArray(new Object[0][]));
+        }
+
+        RowSchema schema() {
+            return schema;
+        }
+
+        /**
+         * A new result set over the rows, positioned before the first one
+         */
+        ResultSet resultSet() {
+            return DetachedResultSet.over(schema, rows);
+        }
+    }
+
+    private static final class Key {
+        private final String sql;
+        private final Object[] values;
+        private final int hash;
+
+        Key(String sql, Object[] values) {
+            this.sql = sql;
+            this.values = values;
+            this.hash = 31 * sql.hashCode() + Arrays.deepHashCode(values);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key key = (Key) o;
+            return hash == key.hash && sql.equals(key.sql) && Arrays.deepEquals(values, key.values);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+
+    private static final class Entry {
+        private final Key key;
+        private final Query query;
+        private final Object[] values;
+        private final Set<String> tables;
+        private final Rows rows;
+        private final long loadedAt;
+        private final AtomicBoolean refreshing = new AtomicBoolean(false);
+
+        Entry(Key key, Query query, Object[] values, Set<String> tables, Rows rows, long loadedAt) {
+            this.key = key;
+            this.query = query;
+            this.values = values;
+            this.tables = tables;
+            this.rows = rows;
+            this.loadedAt = loadedAt;
+        }
+    }
+
+    /**
+     * The cache attached to a connection, and what the connection has written since. An async connection is
+     * detached from the thread completing its future.
+     */
+    static final class Binding {
+        private final ResultCache cache;
+        private final Set<String> written = ConcurrentHashMap.newKeySet();
+        private int depth = 0;
+        private volatile boolean writesAll = false;
+
+        Binding(ResultCache cache) {
+            this.cache = cache;
+        }
+    }
+}
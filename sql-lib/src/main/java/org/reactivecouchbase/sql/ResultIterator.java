@@ -0,0 +1,132 @@
+package org.reactivecouchbase.sql;
+
+import org.reactivecouchbase.common.Throwables;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * Lazy iterator over the rows of a query. The query is executed on the first call to hasNext or next,
+ * and the result set and statement are released once the last row has been read, if an error occurs, or
+ * when the iterator is closed, whichever comes first. Use it in a try-with-resources block.
+ *
+ * Rows are returned in cursor mode: the same instance is moved over the result set, so a row is only
+ * valid until the next call to hasNext or next.
+ */
+public final class ResultIterator<T> implements Iterator<T>, AutoCloseable {
+
+    private final Cancellation execution;
+    private final Function<Cancellation, Cursor<T>> opener;
+    private Cursor<T> cursor;
+    private boolean ready = false;
+    private boolean done = false;
+
+    ResultIterator(Cancellation execution, Function<Cancellation, Cursor<T>> opener) {
+        this.execution = execution;
+        this.opener = opener;
+    }
+
+    @Override
+    public boolean hasNext() {
+        if (!ready && !done) {
+            ready = advance();
+        }
+        return ready;
+    }
+
+    @Override
+    public T next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        ready = false;
+        return cursor.current();
+    }
+
+    private boolean advance() {
+        try {
+            if (cursor == null) {
+                cursor = opener.apply(execution);
+            }
+            if (cursor.next()) {
+                return true;
+            }
+            finish(false);
+            return false;
+        } catch (Exception e) {
+            try {
+                finish(true);
+            } catch (Exception ignore) {
+                // the original failure is more interesting than the close one
+            }
+            throw Throwables.propagate(e);
+        }
+    }
+
+    private void finish(boolean failed) throws Exception {
+        done = true;
+        ready = false;
+        if (cursor != null) {
+            cursor.close(failed);
+        } else {
+            execution.release(null, null, failed);
+        }
+    }
+
+    /**
+     * Release the result set and the statement, the remaining rows are skipped
+     */
+    @Override
+    public void close() {
+        if (done) {
+            return;
+        }
+        try {
+            finish(false);
+        } catch (Exception e) {
+            throw Throwables.propagate(e);
+        }
+    }
+
+    /**
+     * A sequential spliterator over the remaining rows, sharing the state of this iterator
+     */
+    Spliterator<T> spliterator() {
+        return new Spliterator<T>() {
+            @Override
+            public boolean tryAdvance(Consumer<? super T> action) {
+                if (!hasNext()) {
+                    return false;
+                }
+                action.accept(next());
+                return true;
+            }
+
+            @Override
+            public void forEachRemaining(Consumer<? super T> action) {
+                while (hasNext()) {
+                    action.accept(next());
+                }
+            }
+
+            @Override
+            public Spliterator<T> trySplit() {
+                // rows are read in cursor mode from a single result set, they cannot be handed out in batches
+                return null;
+            }
+
+            @Override
+            public long estimateSize() {
+                return Long.MAX_VALUE;
+            }
+
+            @Override
+            public int characteristics() {
+                return Spliterator.ORDERED | Spliterator.NONNULL;
+            }
+        };
+    }
+}
@@ -14,12 +14,18 @@ import java.util.*;
 public class Row {
 
     private final ResultSet set;
-    private final Boolean safeMode;
-    private final int index;
+    private final boolean safeMode;
+    private int index;
+    private RowSchema schema;
 
     public Row(int index, ResultSet set, Boolean safeMode) {
+        this(index, set, null, safeMode);
+    }
+
+    public Row(int index, ResultSet set, RowSchema schema, boolean safeMode) {
         this.index = index;
         this.set = set;
+        this.schema = schema;
         this.safeMode = safeMode;
     }
 
@@ -27,23 +33,213 @@ public class Row {
         return index;
     }
 
-    public final boolean isPresent(String name) {
+    /**
+     * Move this row view to the current row of the result set, used in cursor mode
+     */
+    final Row moveTo(int index) {
+        this.index = index;
+        return this;
+    }
+
+    /**
+     * Returns a copy of the current row that stays readable after the result set has moved to another row
+     * or has been closed, typically to keep a row obtained in cursor mode or to read it on another thread
+     */
+    public final Row detach() {
         try {
-            for (int i = 1; i < set.getMetaData().getColumnCount() + 1; i++) {
-                if (name.equalsIgnoreCase(set.getMetaData().getColumnName(i))) {
-                    return true;
-                }
+            RowSchema rowSchema = schema();
+            return new Row(index, DetachedResultSet.copyOf(set, rowSchema), rowSchema, safeMode);
+        } catch (Exception e) {
+            throw Throwables.propagate(e);
+        }
+    }
+
+    final ResultSet resultSet() {
+        return set;
+    }
+
+    public final RowSchema schema() {
+        if (schema == null) {
+            try {
+                schema = RowSchema.of(set);
+            } catch (Exception e) {
+                throw Throwables.propagate(e);
             }
+        }
+        return schema;
+    }
+
+    /**
+     * Resolve a column label or name to its index, letting the driver report unknown columns
+     */
+    private int column(String key) throws SQLException {
+        int column = schema().indexOf(key);
+        return column > 0 ? column : set.findColumn(key);
+    }
+
+    public final boolean isPresent(String name) {
+        try {
+            return schema().isPresent(name);
         } catch (Exception e) {
             return false;
         }
-        return false;
     }
 
+    /**
+     * Returns true if the last column read on this row was SQL NULL. The primitive accessors return
+     * 0 (or false) for NULL values, use this to tell them apart.
+     */
+    public final boolean wasNull() {
+        try {
+            return set.wasNull();
+        } catch (Exception e) {
+            throw Throwables.propagate(e);
+        }
+    }
+
+    /**
+     * @param column the column index (1 based)
+     */
+    public final long getLong(int column) {
+        try {
+            return set.getLong(column);
+        } catch (Exception e) {
+            throw Throwables.propagate(e);
+        }
+    }
+
+    public final long getLong(String key) {
+        try {
+            return set.getLong(column(key));
+        } catch (Exception e) {
+            throw Throwables.propagate(e);
+        }
+    }
+
+    public final long getLong(String key, long ifNull) {
+        try {
+            long value = set.getLong(column(key));
+            return set.wasNull() ? ifNull : value;
+        } catch (Exception e) {
+            throw Throwables.propagate(e);
+        }
+    }
+
+    /**
+     * @param column the column index (1 based)
+     */
+    public final int getInt(int column) {
+        try {
+            return set.getInt(column);
+        } catch (Exception e) {
+            throw Throwables.propagate(e);
+        }
+    }
+
+    public final int getInt(String key) {
+        try {
+            return set.getInt(column(key));
+        } catch (Exception e) {
+            throw Throwables.propagate(e);
+        }
+    }
+
+    public final int getInt(String key, int ifNull) {
+        try {
+            int value = set.getInt(column(key));
+            return set.wasNull() ? ifNull : value;
+        } catch (Exception e) {
+            throw Throwables.propagate(e);
+        }
+    }
+
+    /**
+     * @param column the column index (1 based)
+     */
+    public final double getDouble(int column) {
+        try {
+            return set.getDouble(column);
+        } catch (Exception e) {
+            throw Throwables.propagate(e);
+        }
+    }
+
+    public final double getDouble(String key) {
+        try {
+            return set.getDouble(column(key));
+        } catch (Exception e) {
+            throw Throwables.propagate(e);
+        }
+    }
+
+    public final double getDouble(String key, double ifNull) {
+        try {
+            double value = set.getDouble(column(key));
+            return set.wasNull() ? ifNull : value;
+        } catch (Exception e) {
+            throw Throwables.propagate(e);
+        }
+    }
+
+    /**
+     * @param column the column index (1 based)
+     */
+    public final float getFloat(int column) {
+        try {
+            return set.getFloat(column);
+        } catch (Exception e) {
+            throw Throwables.propagate(e);
+        }
+    }
+
+    public final float getFloat(String key) {
+        try {
+            return set.getFloat(column(key));
+        } catch (Exception e) {
+            throw Throwables.propagate(e);
+        }
+    }
+
+    public final float getFloat(String key, float ifNull) {
+        try {
+            float value = set.getFloat(column(key));
+            return set.wasNull() ? ifNull : value;
+        } catch (Exception e) {
+            throw Throwables.propagate(e);
+        }
+    }
+
+    /**
+     * @param column the column index (1 based)
+     */
+    public final boolean getBoolean(int column) {
+        try {
+            return set.getBoolean(column);
+        } catch (Exception e) {
+            throw Throwables.propagate(e);
+        }
+    }
+
+    public final boolean getBoolean(String key) {
+        try {
+            return set.getBoolean(column(key));
+        } catch (Exception e) {
+            throw Throwables.propagate(e);
+        }
+    }
+
+    public final boolean getBoolean(String key, boolean ifNull) {
+        try {
+            boolean value = set.getBoolean(column(key));
+            return set.wasNull() ? ifNull : value;
+        } catch (Exception e) {
+            throw Throwables.propagate(e);
+        }
+    }
 
     public final <T> T get(String key, Class<T> clazz) {
         try {
-            return clazz.cast(set.getObject("key"));
+            return clazz.cast(set.getObject(column(key)));
         } catch (Exception e) {
             throw Throwables.propagate(e);
         }
@@ -51,7 +247,7 @@ public class Row {
 
     public final String str(String key) {
         try {
-            return set.getString(key);
+            return set.getString(column(key));
         } catch (Exception e) {
             throw Throwables.propagate(e);
         }
@@ -59,7 +255,7 @@ public class Row {
 
     public final Integer intgr(String key) {
         try {
-            int value = set.getInt(key);
+            int value = set.getInt(column(key));
             if (safeMode && set.wasNull()) {
                 return null;
             }
@@ -71,7 +267,7 @@ public class Row {
 
     public final Long lng(String key) {
         try {
-            Long value = set.getLong(key);
+            long value = set.getLong(column(key));
             if (safeMode && set.wasNull()) {
                 return null;
             }
@@ -83,7 +279,7 @@ public class Row {
 
     public final Date date(String key) {
         try {
-            return set.getDate(key);
+            return set.getDate(column(key));
         } catch (Exception e) {
             throw Throwables.propagate(e);
         }
@@ -91,7 +287,7 @@ public class Row {
 
     public final Timestamp timestamp(String key) {
         try {
-            return set.getTimestamp(key);
+            return set.getTimestamp(column(key));
         } catch (Exception e) {
             throw Throwables.propagate(e);
         }
@@ -131,7 +327,7 @@ public class Row {
 
     public final Time time(String key) {
         try {
-            return set.getTime(key);
+            return set.getTime(column(key));
         } catch (Exception e) {
             throw Throwables.propagate(e);
         }
@@ -139,7 +335,7 @@ public class Row {
 
     public final Boolean bool(String key) {
         try {
-            Boolean value = set.getBoolean(key);
+            boolean value = set.getBoolean(column(key));
             if (safeMode && set.wasNull()) {
                 return null;
             }
@@ -151,7 +347,7 @@ public class Row {
 
     public final Double dbl(String key) {
         try {
-            Double value = set.getDouble(key);
+            double value = set.getDouble(column(key));
             if (safeMode && set.wasNull()) {
                 return null;
             }
@@ -163,7 +359,7 @@ public class Row {
 
     public final BigDecimal bigDec(String key) {
         try {
-            return set.getBigDecimal(key);
+            return set.getBigDecimal(column(key));
         } catch (Exception e) {
             throw Throwables.propagate(e);
         }
@@ -171,7 +367,7 @@ public class Row {
 
     public final Float flt(String key) {
         try {
-            Float value = set.getFloat(key);
+            float value = set.getFloat(column(key));
             if (safeMode && set.wasNull()) {
                 return null;
             }
@@ -191,7 +387,7 @@ public class Row {
 
     public final <T> List<T> list(String key, Class<T> of) {
         try {
-            Array arr = set.getArray(key);
+            Array arr = set.getArray(column(key));
             if (safeMode && set.wasNull()) {
                 return Collections.emptyList();
             }
@@ -230,7 +426,7 @@ public class Row {
 
     public final Object obj(String key) {
         try {
-            return set.getObject(key);
+            return set.getObject(column(key));
         } catch (Exception e) {
             throw Throwables.propagate(e);
         }
@@ -238,7 +434,7 @@ public class Row {
 
     public final Blob blob(String key) {
         try {
-            return set.getBlob(key);
+            return set.getBlob(column(key));
         } catch (Exception e) {
             throw Throwables.propagate(e);
         }
@@ -246,7 +442,7 @@ public class Row {
 
     public final Clob clob(String key) {
         try {
-            return set.getClob(key);
+            return set.getClob(column(key));
         } catch (Exception e) {
             throw Throwables.propagate(e);
         }
@@ -294,7 +490,7 @@ public class Row {
 
     public final Option<Timestamp> timestampOpt(String key) {
         try {
-            return Option.apply(set.getTimestamp(key));
+            return Option.apply(set.getTimestamp(column(key)));
         } catch (Exception e) {
             return Option.none();
         }
@@ -404,9 +600,10 @@ public class Row {
     public final Map<String, Object> asMap() {
         Map<String, Object> row = new HashMap<>();
         try {
-            int columns = set.getMetaData().getColumnCount();
+            RowSchema schema = schema();
+            int columns = schema.columnCount();
             for (int i = 1; i < columns + 1; i++) {
-                String name = set.getMetaData().getColumnName(i);
+                String name = schema.columnName(i);
                 row.put(name, set.getObject(i));
             }
         } catch (Exception e) {
@@ -418,9 +615,10 @@ public class Row {
     public final List<Tuple<String, Object>> asList() {
         List<Tuple<String, Object>> row = new ArrayList<>();
         try {
-            int columns = set.getMetaData().getColumnCount();
+            RowSchema schema = schema();
+            int columns = schema.columnCount();
             for (int i = 1; i < columns + 1; i++) {
-                String name = set.getMetaData().getColumnName(i);
+                String name = schema.columnName(i);
                 row.add(Tuple.of(name, set.getObject(i)));
             }
         } catch (Exception e) {
@@ -0,0 +1,496 @@
+package org.reactivecouchbase.sql;
+
+import org.reactivecouchbase.common.Throwables;
+import org.reactivecouchbase.functional.Option;
+
+import java.beans.ConstructorProperties;
+import java.lang.invoke.LambdaMetafactory;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.Parameter;
+import java.math.BigDecimal;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Time;
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+import java.util.function.ObjDoubleConsumer;
+import java.util.function.ObjIntConsumer;
+import java.util.function.ObjLongConsumer;
+import java.util.function.Supplier;
+
+/**
+ * Row to object mappers, compiled once per target class and RowSchema.
+ *
+ * The properties (or constructor parameters) of a class are found once by reflection, then for each schema
+ * they are resolved to column indexes with a type specific getter of the result set, and the setters and
+ * constructors are called through lambdas spun by LambdaMetafactory (or method handles when the class is
+ * not accessible to it). Mapping a row does no reflection and no column lookup by name.
+ */
+final class RowMappers {
+
+    private static final MethodHandles.Lookup LOOKUP = MethodHandles.lookup();
+
+    private static final ClassValue<BeanPlan<?>> BEANS = new ClassValue<BeanPlan<?>>() {
+        @Override
+        protected BeanPlan<?> computeValue(Class<?> type) {
+            return new BeanPlan<>(type);
+        }
+    };
+
+    private static final ClassValue<ConstructorPlan<?>> CONSTRUCTORS = new ClassValue<ConstructorPlan<?>>() {
+        @Override
+        protected ConstructorPlan<?> computeValue(Class<?> type) {
+            return new ConstructorPlan<>(type);
+        }
+    };
+
+    private RowMappers() {
+    }
+
+    @SuppressWarnings("unchecked")
+    static <T> Function<Row, Option<T>> beanParser(Class<T> type) {
+        BeanPlan<T> plan = (BeanPlan<T>) BEANS.get(type);
+        return row -> Option.some(plan.compiled(row.schema()).map(row.resultSet()));
+    }
+
+    @SuppressWarnings("unchecked")
+    static <T> Function<Row, Option<T>> constructorParser(Class<T> type) {
+        ConstructorPlan<T> plan = (ConstructorPlan<T>) CONSTRUCTORS.get(type);
+        return row -> Option.some(plan.compiled(row.schema()).map(row.resultSet()));
+    }
+
+    private interface Mapper<T> {
+        T map(ResultSet set);
+    }
+
+    private static final class Compiled<T> {
+        private final RowSchema schema;
+        private final Mapper<T> mapper;
+
+        Compiled(RowSchema schema, Mapper<T> mapper) {
+            this.schema = schema;
+            this.mapper = mapper;
+        }
+    }
+
+    /**
+     * The mappers of a class by schema, the last one being checked first
+     */
+    private abstract static class Plan<T> {
+
+        private final Map<RowSchema, Mapper<T>> mappers = Collections.synchronizedMap(new WeakHashMap<>());
+        private volatile Compiled<T> last;
+
+        final Mapper<T> compiled(RowSchema schema) {
+            Compiled<T> compiled = last;
+            if (compiled == null || compiled.schema != schema) {
+                compiled = new Compiled<>(schema, mappers.computeIfAbsent(schema, this::compile));
+                last = compiled;
+            }
+            return compiled.mapper;
+        }
+
+        abstract Mapper<T> compile(RowSchema schema);
+    }
+
+    /**
+     * A class with a public no-arg constructor, filled through its public setters and public fields
+     */
+    private static final class BeanPlan<T> extends Plan<T> {
+
+        private final Class<T> type;
+        private final Supplier<T> factory;
+        private final Map<String, MethodHandle> setters = new LinkedHashMap<>();
+
+        @SuppressWarnings("unchecked")
+        BeanPlan(Class<T> type) {
+            this.type = type;
+            try {
+                MethodHandle constructor = LOOKUP.findConstructor(type, MethodType.methodType(void.class));
+                Supplier<T> lambda = (Supplier<T>) lambda(Supplier.class, "get", MethodType.methodType(Object.class),
+                        constructor, MethodType.methodType(type));
+                if (lambda == null) {
+                    MethodHandle generic = constructor.asType(MethodType.methodType(Object.class));
+                    lambda = () -> {
+                        try {
+                            return (T) generic.invokeExact();
+                        } catch (Throwable e) {
+                            throw Throwables.propagate(e);
+                        }
+                    };
+                }
+                this.factory = lambda;
+                for (Field field : type.getFields()) {
+                    if (!Modifier.isStatic(field.getModifiers()) && !Modifier.isFinal(field.getModifiers())) {
+                        setters.put(field.getName(), LOOKUP.unreflectSetter(field));
+                    }
+                }
+                for (Method method : type.getMethods()) {
+                    String name = method.getName();
+                    if (!Modifier.isStatic(method.getModifiers()) && method.getParameterCount() == 1
+                            && name.length() > 3 && name.startsWith("set")) {
+                        setters.put(Character.toLowerCase(name.charAt(3)) + name.substring(4), LOOKUP.unreflect(method));
+                    }
+                }
+            } catch (NoSuchMethodException | IllegalAccessException e) {
+                throw new IllegalArgumentException(type.getName() + " must be a public class with a public no-arg constructor", e);
+            }
+        }
+
+        @Override
+        Mapper<T> compile(RowSchema schema) {
+            List<Integer> columns = new ArrayList<>();
+            List<Assignment> assignments = new ArrayList<>();
+            for (Map.Entry<String, MethodHandle> setter : setters.entrySet()) {
+                int column = columnOf(schema, setter.getKey());
+                if (column > 0) {
+                    columns.add(column);
+                    assignments.add(assignment(type, setter.getValue()));
+                }
+            }
+            int[] indexes = toArray(columns);
+            Assignment[] steps = assignments.toArray(new Assignment[0]);
+            return set -> {
+                T bean = factory.get();
+                try {
+                    for (int i = 0; i < steps.length; i++) {
+                        steps[i].assign(bean, set, indexes[i]);
+                    }
+                } catch (Exception e) {
+                    throw Throwables.propagate(e);
+                }
+                return bean;
+            };
+        }
+    }
+
+    /**
+     * A record, or a class whose constructor parameters are named by ConstructorProperties or compiled
+     * with -parameters, built from the column of each parameter
+     */
+    private static final class ConstructorPlan<T> extends Plan<T> {
+
+        private final String[] names;
+        private final Class<?>[] types;
+        private final MethodHandle constructor;
+
+        ConstructorPlan(Class<T> type) {
+            Constructor<?> selected = null;
+            String[] parameterNames = recordComponents(type);
+            try {
+                if (parameterNames != null) {
+                    Class<?>[] componentTypes = recordComponentTypes(type);
+                    selected = type.getDeclaredConstructor(componentTypes);
+                } else {
+                    for (Constructor<?> candidate : type.getConstructors()) {
+                        ConstructorProperties properties = candidate.getAnnotation(ConstructorProperties.class);
+                        if (properties != null && properties.value().length == candidate.getParameterCount()) {
+                            selected = candidate;
+                            parameterNames = properties.value();
+                            break;
+                        }
+                    }
+                    if (selected == null && type.getConstructors().length == 1) {
+                        Constructor<?> candidate = type.getConstructors()[0];
+                        Parameter[] parameters = candidate.getParameters();
+                        if (parameters.length > 0 && parameters[0].isNamePresent()) {
+                            selected = candidate;
+                            parameterNames = new String[parameters.length];
+                            for (int i = 0; i < parameters.length; i++) {
+                                parameterNames[i] = parameters[i].getName();
+                            }
+                        }
+                    }
+                }
+                if (selected == null) {
+                    throw new IllegalArgumentException(type.getName() + " must be a record, or have a constructor annotated "
+                            + "with ConstructorProperties, or a single public constructor compiled with -parameters");
+                }
+                selected.setAccessible(true);
+                this.names = parameterNames;
+                this.types = selected.getParameterTypes();
+                this.constructor = LOOKUP.unreflectConstructor(selected)
+                        .asSpreader(Object[].class, types.length)
+                        .asType(MethodType.methodType(Object.class, Object[].class));
+            } catch (NoSuchMethodException | IllegalAccessException | RuntimeException e) {
+                throw e instanceof IllegalArgumentException ? (IllegalArgumentException) e
+                        : new IllegalArgumentException("Cannot use the constructor of " + type.getName(), e);
+            }
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        Mapper<T> compile(RowSchema schema) {
+            int[] indexes = new int[names.length];
+            ColumnReader[] readers = new ColumnReader[names.length];
+            for (int i = 0; i < names.length; i++) {
+                indexes[i] = columnOf(schema, names[i]);
+                if (indexes[i] <= 0) {
+                    throw new IllegalArgumentException("No column for the parameter " + names[i]);
+                }
+                readers[i] = reader(types[i]);
+            }
+            return set -> {
+                Object[] args = new Object[indexes.length];
+                try {
+                    for (int i = 0; i < args.length; i++) {
+                        args[i] = readers[i].read(set, indexes[i]);
+                    }
+                    return (T) constructor.invokeExact(args);
+                } catch (Throwable e) {
+                    throw Throwables.propagate(e);
+                }
+            };
+        }
+    }
+
+    static String[] recordComponents(Class<?> type) {
+        Object[] components = components(type);
+        if (components == null) {
+            return null;
+        }
+        String[] names = new String[components.length];
+        try {
+            for (int i = 0; i < components.length; i++) {
+                names[i] = (String) components[i].getClass().getMethod("getName").invoke(components[i]);
+            }
+        } catch (Exception e) {
+            return null;
+        }
+        return names;
+    }
+
+    private static Class<?>[] recordComponentTypes(Class<?> type) throws NoSuchMethodException {
+        Object[] components = components(type);
+        Class<?>[] types = new Class<?>[components.length];
+        try {
+            for (int i = 0; i < components.length; i++) {
+                types[i] = (Class<?>) components[i].getClass().getMethod("getType").invoke(components[i]);
+            }
+        } catch (Exception e) {
+            throw new NoSuchMethodException("Cannot read the components of " + type.getName());
+        }
+        return types;
+    }
+
+    /**
+     * The record components of the class (Java 16 and later), or null if it is not a record
+     */
+    private static Object[] components(Class<?> type) {
+        try {
+            Method isRecord = Class.class.getMethod("isRecord");
+            if (!(Boolean) isRecord.invoke(type)) {
+                return null;
+            }
+            return (Object[]) Class.class.getMethod("getRecordComponents").invoke(type);
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
+    /**
+     * The column of a property, by name or by its snake case form (firstName and first_name)
+     */
+    private static int columnOf(RowSchema schema, String name) {
+        int column = schema.indexOf(name);
+        if (column > 0) {
+            return column;
+        }
+        StringBuilder snake = new StringBuilder(name.length() + 4);
+        for (int i = 0; i < name.length(); i++) {
+            char c = name.charAt(i);
+            if (Character.isUpperCase(c) && i > 0) {
+                snake.append('_');
+            }
+            snake.append(Character.toLowerCase(c));
+        }
+        return snake.length() == name.length() ? -1 : schema.indexOf(snake.toString());
+    }
+
+    private static int[] toArray(List<Integer> values) {
+        int[] array = new int[values.size()];
+        for (int i = 0; i < array.length; i++) {
+            array[i] = values.get(i);
+        }
+        return array;
+    }
+
+    /**
+     * Returns an instance of the functional interface calling the method handle, or null if
+     * LambdaMetafactory cannot target it (a field, or a class it cannot access)
+     */
+    private static Object lambda(Class<?> fn, String method, MethodType erased, MethodHandle target, MethodType instantiated) {
+        try {
+            return LambdaMetafactory.metafactory(LOOKUP, method, MethodType.methodType(fn), erased, target, instantiated)
+                    .getTarget().invoke();
+        } catch (Throwable e) {
+            return null;
+        }
+    }
+
+    private interface Assignment {
+        void assign(Object bean, ResultSet set, int column) throws SQLException;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Assignment assignment(Class<?> beanType, MethodHandle setter) {
+        Class<?> type = setter.type().parameterType(1);
+        if (type == long.class) {
+            ObjLongConsumer<Object> consumer = (ObjLongConsumer<Object>) lambda(ObjLongConsumer.class, "accept",
+                    MethodType.methodType(void.class, Object.class, long.class), setter,
+                    MethodType.methodType(void.class, beanType, long.class));
+            if (consumer != null) {
+                return (bean, set, column) -> consumer.accept(bean, set.getLong(column));
+            }
+        } else if (type == int.class) {
+            ObjIntConsumer<Object> consumer = (ObjIntConsumer<Object>) lambda(ObjIntConsumer.class, "accept",
+                    MethodType.methodType(void.class, Object.class, int.class), setter,
+                    MethodType.methodType(void.class, beanType, int.class));
+            if (consumer != null) {
+                return (bean, set, column) -> consumer.accept(bean, set.getInt(column));
+            }
+        } else if (type == double.class) {
+            ObjDoubleConsumer<Object> consumer = (ObjDoubleConsumer<Object>) lambda(ObjDoubleConsumer.class, "accept",
+                    MethodType.methodType(void.class, Object.class, double.class), setter,
+                    MethodType.methodType(void.class, beanType, double.class));
+            if (consumer != null) {
+                return (bean, set, column) -> consumer.accept(bean, set.getDouble(column));
+            }
+        }
+        ColumnReader reader = reader(type);
+        BiConsumer<Object, Object> consumer = (BiConsumer<Object, Object>) lambda(BiConsumer.class, "accept",
+                MethodType.methodType(void.class, Object.class, Object.class), setter,
+                MethodType.methodType(void.class, beanType, MethodType.methodType(type).wrap().returnType()));
+        if (consumer != null) {
+            return (bean, set, column) -> consumer.accept(bean, reader.read(set, column));
+        }
+        MethodHandle generic = setter.asType(MethodType.methodType(void.class, Object.class, Object.class));
+        return (bean, set, column) -> {
+            try {
+                generic.invokeExact(bean, reader.read(set, column));
+            } catch (SQLException | RuntimeException | Error e) {
+                throw e;
+            } catch (Throwable e) {
+                throw Throwables.propagate(e);
+            }
+        };
+    }
+
+    private interface ColumnReader {
+        Object read(ResultSet set, int column) throws SQLException;
+    }
+
+    /**
+     * The getter of the result set for a type. Primitive types read 0 (or false) for NULL, as the primitive
+     * getters of Row do, their wrappers read null.
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static ColumnReader reader(Class<?> type) {
+        if (type == long.class) {
+            return ResultSet::getLong;
+        } else if (type == Long.class) {
+            return (set, column) -> {
+                long value = set.getLong(column);
+                return set.wasNull() ? null : value;
+            };
+        } else if (type == int.class) {
+            return ResultSet::getInt;
+        } else if (type == Integer.class) {
+            return (set, column) -> {
+                int value = set.getInt(column);
+                return set.wasNull() ? null : value;
+            };
+        } else if (type == double.class) {
+            return ResultSet::getDouble;
+        } else if (type == Double.class) {
+            return (set, column) -> {
+                double value = set.getDouble(column);
+                return set.wasNull() ? null : value;
+            };
+        } else if (type == float.class) {
+            return ResultSet::getFloat;
+        } else if (type == Float.class) {
+            return (set, column) -> {
+                float value = set.getFloat(column);
+                return set.wasNull() ? null : value;
+            };
+        } else if (type == boolean.class) {
+            return ResultSet::getBoolean;
+        } else if (type == Boolean.class) {
+            return (set, column) -> {
+                boolean value = set.getBoolean(column);
+                return set.wasNull() ? null : value;
+            };
+        } else if (type == short.class) {
+            return ResultSet::getShort;
+        } else if (type == Short.class) {
+            return (set, column) -> {
+                short value = set.getShort(column);
+                return set.wasNull() ? null : value;
+            };
+        } else if (type == byte.class) {
+            return ResultSet::getByte;
+        } else if (type == Byte.class) {
+            return (set, column) -> {
+                byte value = set.getByte(column);
+                return set.wasNull() ? null : value;
+            };
+        } else if (type == String.class) {
+            return ResultSet::getString;
+        } else if (type == BigDecimal.class) {
+            return ResultSet::getBigDecimal;
+        } else if (type == byte[].class) {
+            return ResultSet::getBytes;
+        } else if (type == java.sql.Date.class) {
+            return ResultSet::getDate;
+        } else if (type == Time.class) {
+            return ResultSet::getTime;
+        } else if (type == Timestamp.class || type == java.util.Date.class) {
+            return ResultSet::getTimestamp;
+        } else if (type == LocalDate.class) {
+            return (set, column) -> {
+                java.sql.Date value = set.getDate(column);
+                return value == null ? null : value.toLocalDate();
+            };
+        } else if (type == LocalDateTime.class) {
+            return (set, column) -> {
+                Timestamp value = set.getTimestamp(column);
+                return value == null ? null : value.toLocalDateTime();
+            };
+        } else if (type == LocalTime.class) {
+            return (set, column) -> {
+                Time value = set.getTime(column);
+                return value == null ? null : value.toLocalTime();
+            };
+        } else if (type == Instant.class) {
+            return (set, column) -> {
+                Timestamp value = set.getTimestamp(column);
+                return value == null ? null : value.toInstant();
+            };
+        } else if (type.isEnum()) {
+            Class<? extends Enum> enumType = (Class<? extends Enum>) type;
+            return (set, column) -> {
+                String value = set.getString(column);
+                return value == null ? null : Enum.valueOf(enumType, value);
+            };
+        }
+        return ResultSet::getObject;
+    }
+}
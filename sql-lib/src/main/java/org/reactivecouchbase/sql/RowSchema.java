@@ -0,0 +1,139 @@
+package org.reactivecouchbase.sql;
+
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.util.Objects;
+
+/**
+ * Column metadata of a result set, read once per result set instead of once per row.
+ *
+ * Column labels and names are resolved to their (1 based) index with a case insensitive hash table, open
+ * addressed with linear probing and kept at most half full: a lookup is one hash computation and a probe
+ * or two.
+ */
+public final class RowSchema {
+
+    private final String[] names;
+    private final String[] labels;
+    private final int[] types;
+    private final String[] keys;
+    private final int[] indexes;
+    private final int mask;
+
+    private RowSchema(String[] names, String[] labels, int[] types) {
+        this.names = names;
+        this.labels = labels;
+        this.types = types;
+        int size = Integer.highestOneBit(Math.max(1, names.length * 4 - 1)) * 2;
+        this.keys = new String[size];
+        this.indexes = new int[size];
+        this.mask = size - 1;
+        // labels first then names so a label wins over a column name, and the first column wins over the
+        // following ones, as in ResultSet.findColumn
+        put(labels);
+        put(names);
+    }
+
+    private void put(String[] source) {
+        for (int i = 0; i < source.length; i++) {
+            String key = source[i];
+            if (key == null) {
+                continue;
+            }
+            int slot = hash(key) & mask;
+            while (keys[slot] != null && !keys[slot].equalsIgnoreCase(key)) {
+                slot = (slot + 1) & mask;
+            }
+            if (keys[slot] == null) {
+                keys[slot] = key;
+                indexes[slot] = i + 1;
+            }
+        }
+    }
+
+    private static int hash(String key) {
+        int h = 0x811C9DC5;
+        for (int i = 0; i < key.length(); i++) {
+            h = (h ^ Character.toLowerCase(key.charAt(i))) * 0x01000193;
+        }
+        return h ^ (h >>> 16);
+    }
+
+    public static RowSchema of(ResultSet set) throws SQLException {
+        return of(set.getMetaData());
+    }
+
+    public static RowSchema of(ResultSetMetaData metaData) throws SQLException {
+        int count = metaData.getColumnCount();
+        String[] names = new String[count];
+        String[] labels = new String[count];
+        int[] types = new int[count];
+        for (int i = 0; i < count; i++) {
+            names[i] = metaData.getColumnName(i + 1);
+            labels[i] = metaData.getColumnLabel(i + 1);
+            types[i] = metaData.getColumnType(i + 1);
+        }
+        return new RowSchema(names, labels, types);
+    }
+
+    /**
+     * Returns true if this schema describes the columns of the metadata, so it can be reused for it
+     */
+    boolean matches(ResultSetMetaData metaData) throws SQLException {
+        if (metaData.getColumnCount() != names.length) {
+            return false;
+        }
+        for (int i = 0; i < labels.length; i++) {
+            if (!Objects.equals(labels[i], metaData.getColumnLabel(i + 1)) || types[i] != metaData.getColumnType(i + 1)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns the index (1 based) of a column from its label or name, ignoring case, or -1 if there is none
+     */
+    public int indexOf(String name) {
+        int slot = hash(name) & mask;
+        String key;
+        while ((key = keys[slot]) != null) {
+            if (key.equalsIgnoreCase(name)) {
+                return indexes[slot];
+            }
+            slot = (slot + 1) & mask;
+        }
+        return -1;
+    }
+
+    public boolean isPresent(String name) {
+        return indexOf(name) > 0;
+    }
+
+    public int columnCount() {
+        return names.length;
+    }
+
+    /**
+     * @param index the column index (1 based)
+     */
+    public String columnName(int index) {
+        return names[index - 1];
+    }
+
+    /**
+     * @param index the column index (1 based)
+     */
+    public String columnLabel(int index) {
+        return labels[index - 1];
+    }
+
+    /**
+     * @param index the column index (1 based)
+     * @return the SQL type from java.sql.Types
+     */
+    public int columnType(int index) {
+        return types[index - 1];
+    }
+}
@@ -1,6 +1,7 @@
 package org.reactivecouchbase.sql;
 
 import org.reactivecouchbase.common.Holder;
+import org.reactivecouchbase.common.Invariant;
 import org.reactivecouchbase.common.Throwables;
 import org.reactivecouchbase.concurrent.Future;
 import org.reactivecouchbase.functional.Option;
@@ -14,24 +15,41 @@ import org.reactivecouchbase.sql.representation.AsyncStream;
 import org.reactivecouchbase.sql.representation.Stream;
 import rx.Observable;
 import rx.Single;
-import rx.Subscriber;
 
+import java.io.BufferedWriter;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.util.*;
+import java.util.concurrent.Executor;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
 import java.util.function.BiFunction;
 import java.util.function.Consumer;
 import java.util.function.Function;
 import java.util.function.Predicate;
+import java.util.function.ToDoubleFunction;
+import java.util.function.ToIntFunction;
+import java.util.function.ToLongFunction;
 import java.util.stream.Collectors;
+import java.util.stream.StreamSupport;
 
 public class SQL {
 
     private final Query preparedQuery;
     private final Connection connection;
-    private final Map<String, Tuple<String, Object>> params;
+    private final Params params;
+    private final Cancellation cancellation = new Cancellation();
+    private long timeoutMillis = 0;
+    private ParallelMapper mapper = null;
+    private boolean cached = false;
     private boolean safeMode = API.defaultSafeModeValue;
     private Option<Integer> page = API.defaultPageOfValue;
 
@@ -40,13 +58,10 @@ public class SQL {
         return this;
     }
 
-    SQL(Connection connection, Query preparedQuery, List<Tuple<String, Object>> params) {
+    SQL(Connection connection, Query preparedQuery) {
         this.preparedQuery = preparedQuery;
         this.connection = connection;
-        this.params = new HashMap<>();
-        for (Tuple<String, Object> p : params) {
-            this.params.put(p._1.trim(), p);
-        }
+        this.params = new Params(preparedQuery);
     }
 
     public final SQL withPageOf(int of) {
@@ -59,90 +74,239 @@ public class SQL {
         return this;
     }
 
+    /**
+     * Map the rows of collect (and of the streams built on this query) on the common ForkJoinPool, in
+     * ordered chunks of 256 rows
+     */
+    public final SQL withParallelMapping() {
+        int parallelism = ForkJoinPool.commonPool().getParallelism();
+        return withParallelMapping(ForkJoinPool.commonPool(), 256, 2 * parallelism, true);
+    }
+
+    /**
+     * Map the rows of collect (and of the streams built on this query) on the executor instead of the
+     * thread reading the result set. Rows are detached in chunks of chunkSize rows, at most
+     * maxChunksInFlight chunks are read ahead of the mapping, and the results keep the order of the
+     * result set only if ordered is true. The parser must be thread safe.
+     */
+    public final SQL withParallelMapping(Executor executor, int chunkSize, int maxChunksInFlight, boolean ordered) {
+        this.mapper = new ParallelMapper(executor, chunkSize, maxChunksInFlight, ordered);
+        return this;
+    }
+
+    public final SQL withSequentialMapping() {
+        this.mapper = null;
+        return this;
+    }
+
+    /**
+     * Serve the results of this query from the result cache of the database, if it has one (see
+     * Database.withResultCache). Only for queries: the statements executed with execute or executeUpdate
+     * invalidate the cached results of the tables they write. Streams, iterators and observables always
+     * read from the database.
+     */
+    public final SQL cached() {
+        this.cached = true;
+        return this;
+    }
+
+    public final SQL uncached() {
+        this.cached = false;
+        return this;
+    }
+
+    /**
+     * Cancel every execution of this query that takes longer than the timeout, including the consumption
+     * of its rows by foreach, streams, iterators and observables. The query is stopped on the server side.
+     */
+    public final SQL withTimeout(long timeout, TimeUnit unit) {
+        this.timeoutMillis = unit.toMillis(timeout);
+        return this;
+    }
+
+    /**
+     * Cancel the executions of this query that are currently running, from any thread: the statements are
+     * cancelled on the server side and the threads waiting for them fail right away. Later executions are
+     * not affected.
+     */
+    public final void cancel() {
+        cancellation.cancelRunning();
+    }
+
     public final SQL on(Tuple<String, Object>... pairs) {
         params.clear();
-        for (Tuple<String, Object> p : Arrays.asList(pairs)) {
-            this.params.put(p._1.trim(), p);
-        }
+        params.set(Arrays.asList(pairs));
         return this;
     }
 
     public final SQL on(String name, Object value) {
-        this.params.put(name.trim(), Tuple.of(name.trim(), value));
+        params.set(name, value);
         return this;
     }
 
     public final SQL on(List<Tuple<String, Object>> pairs) {
         params.clear();
-        for (Tuple<String, Object> p : pairs) {
-            this.params.put(p._1.trim(), p);
-        }
+        params.set(pairs);
         return this;
     }
 
-    private static PreparedStatement getStatement(Connection connection, String sql) throws Exception {
-        return connection.prepareStatement(sql);
+    /**
+     * Set the parameters from the public getters, accessors and fields of the object named like them (or
+     * like their camel case form for snake case parameter names). The other parameters are left as they are.
+     */
+    public final SQL bind(Object value) {
+        Invariant.checkNotNull(value);
+        params.bind(value);
+        return this;
     }
 
-    private final <T> List<T> executeQueryWithLimit(Function<Row, Option<T>> parser, Long limit) {
+    @FunctionalInterface
+    private interface ResultSetHandler<R> {
+        R handle(ResultSet resultSet, RowSchema schema, Cancellation execution) throws Exception;
+    }
+
+    private Cancellation startExecution() {
+        return cancellation.start(timeoutMillis, Probe.start(preparedQuery, params, page.isDefined() ? page.get() : 0));
+    }
+
+    private <R> R query(ResultSetHandler<R> handler) {
+        ResultCache cache = cached ? ResultCache.readable(connection) : null;
+        if (cache == null) {
+            return executeQuery(handler);
+        }
+        ResultCache.Rows rows = cache.get(preparedQuery, params.snapshot(),
+                () -> executeQuery((resultSet, schema, execution) -> ResultCache.Rows.copyOf(resultSet, schema, execution)));
+        try {
+            return handler.handle(rows.resultSet(), rows.schema(), new Cancellation());
+        } catch (Exception e) {
+            throw Throwables.propagate(e);
+        }
+    }
+
+    private <R> R executeQuery(ResultSetHandler<R> handler) {
+        Cancellation execution = startExecution();
         ResultSet resultSet = null;
         PreparedStatement pst = null;
+        boolean failed = false;
         try {
-            pst = getStatement(connection, preparedQuery.getPreparedSqlQuery());
-            if (pst != null && page.isDefined()) {
+            pst = execution.prepare(connection, preparedQuery.getPreparedSqlQuery());
+            if (page.isDefined()) {
                 pst.setFetchSize(page.get());
             }
-            pst = API.fillStatement(pst, preparedQuery.getParamNames(), params);
+            pst = API.fillStatement(pst, params);
             resultSet = pst.executeQuery();
-            List<T> results = new ArrayList<T>();
-            while (resultSet.next()) {
-                int index = resultSet.getRow();
-                Option<T> opt = parser.apply(new Row(index, resultSet, safeMode));
-                if (opt.isDefined()) {
-                    results.add(opt.get());
-                    if (limit != null && results.size() >= limit) {
-                        return results;
-                    }
-                }
-            }
-            return results;
+            execution.executed(-1);
+            return handler.handle(resultSet, preparedQuery.schemaOf(resultSet), execution);
         } catch (Exception e) {
+            failed = true;
             throw Throwables.propagate(e);
         } finally {
             if (resultSet != null) {
                 try {
                     resultSet.close();
                 } catch (Exception e) {
+                    failed = true;
                     throw Throwables.propagate(e);
+                } finally {
+                    release(execution, pst, failed);
                 }
+            } else {
+                release(execution, pst, failed);
+            }
+        }
+    }
+
+    private void release(Cancellation execution, PreparedStatement pst, boolean failed) {
+        try {
+            execution.release(connection, pst, failed);
+        } catch (Exception e) {
+            if (!failed) {
+                throw Throwables.propagate(e);
             }
-            if (pst != null) {
+        }
+    }
+
+    /**
+     * Execute the query and return a cursor over its result, which must be closed by the caller
+     */
+    final Cursor<Row> open(Cancellation execution) {
+        PreparedStatement pst = null;
+        ResultSet resultSet = null;
+        try {
+            pst = execution.prepare(connection, preparedQuery.getPreparedSqlQuery());
+            if (page.isDefined()) {
+                pst.setFetchSize(page.get());
+            }
+            pst = API.fillStatement(pst, params);
+            resultSet = pst.executeQuery();
+            execution.executed(-1);
+            Row row = new Row(0, resultSet, preparedQuery.schemaOf(resultSet), safeMode);
+            return new Cursor<>(execution, connection, pst, resultSet, row, row);
+        } catch (Exception e) {
+            if (resultSet != null) {
                 try {
-                    pst.close();
-                } catch (Exception e) {
-                    throw Throwables.propagate(e);
+                    resultSet.close();
+                } catch (Exception ignore) {
+                    // the original failure is more interesting than the close one
                 }
             }
+            release(execution, pst, true);
+            throw Throwables.propagate(e);
         }
     }
 
+    private final <T> List<T> executeQueryWithLimit(Function<Row, Option<T>> parser, Long limit) {
+        ParallelMapper parallelMapper = mapper;
+        if (limit == null && parallelMapper != null) {
+            return query((resultSet, schema, execution) -> parallelMapper.collect(resultSet, schema, execution, safeMode, parser));
+        }
+        return query((resultSet, schema, execution) -> {
+            List<T> results = new ArrayList<T>();
+            while (execution.next(resultSet)) {
+                int index = resultSet.getRow();
+                Option<T> opt = parser.apply(new Row(index, resultSet, schema, safeMode));
+                if (opt.isDefined()) {
+                    results.add(opt.get());
+                    if (limit != null && results.size() >= limit) {
+                        return results;
+                    }
+                }
+            }
+            return results;
+        });
+    }
+
     public final boolean execute() {
+        Cancellation execution = startExecution();
+        PreparedStatement pst = null;
         try {
-            PreparedStatement pst = getStatement(connection, preparedQuery.getPreparedSqlQuery());
-            pst = API.fillStatement(pst, preparedQuery.getParamNames(), params);
-            return pst.execute();
+            pst = execution.prepare(connection, preparedQuery.getPreparedSqlQuery());
+            pst = API.fillStatement(pst, params);
+            boolean result = pst.execute();
+            execution.executed(-1);
+            release(execution, pst, false);
+            ResultCache.written(connection, preparedQuery.writtenTables());
+            return result;
         } catch (Exception e) {
+            release(execution, pst, true);
             throw Throwables.propagate(e);
         }
     }
 
 
     public final int executeUpdate() {
+        Cancellation execution = startExecution();
+        PreparedStatement pst = null;
         try {
-            PreparedStatement pst = getStatement(connection, preparedQuery.getPreparedSqlQuery());
-            pst = API.fillStatement(pst, preparedQuery.getParamNames(), params);
-            return pst.executeUpdate();
+            pst = execution.prepare(connection, preparedQuery.getPreparedSqlQuery());
+            pst = API.fillStatement(pst, params);
+            int result = pst.executeUpdate();
+            execution.executed(result);
+            release(execution, pst, false);
+            ResultCache.written(connection, preparedQuery.writtenTables());
+            return result;
         } catch (Exception e) {
+            release(execution, pst, true);
             throw Throwables.propagate(e);
         }
     }
@@ -235,40 +399,20 @@ public class SQL {
         return this.withPageOf(pageOf).asSyncObservable();
     }
 
+    /**
+     * An observable emitting the rows as the subscriber requests them, on the subscribing thread.
+     * Rows are emitted in cursor mode and are only valid during onNext.
+     */
     public Observable<Row> asSyncObservable() {
-        SQL sql = this;
-        return Observable.create(new Observable.OnSubscribe<Row>() {
-            @Override
-            public void call(Subscriber<? super Row> subscriber) {
-                subscriber.onStart();
-                try {
-                    sql.foreach(subscriber::onNext);
-                    subscriber.onCompleted();
-                } catch (Throwable e) {
-                    e.printStackTrace();
-                    subscriber.onError(e);
-                }
-            }
-        });
+        return CursorProducer.observable(this::startExecution, this::open, page, null);
     }
 
+    /**
+     * An observable emitting the rows as the subscriber requests them, on the executor.
+     * Rows are emitted in cursor mode and are only valid during onNext.
+     */
     public Observable<Row> asObservable(ExecutorService ec) {
-        SQL sql = this;
-        return Observable.create(new Observable.OnSubscribe<Row>() {
-            @Override
-            public void call(Subscriber<? super Row> subscriber) {
-                Future.async(() -> {
-                    subscriber.onStart();
-                    try {
-                        sql.foreach(subscriber::onNext);
-                        subscriber.onCompleted();
-                    } catch (Throwable e) {
-                        e.printStackTrace();
-                        subscriber.onError(e);
-                    }
-                }, ec);
-            }
-        });
+        return CursorProducer.observable(this::startExecution, this::open, page, ec);
     }
 
     public final JsArray asJsArray() {
@@ -286,6 +430,43 @@ public class SQL {
         }).collect(Collectors.toList());
     }
 
+    /**
+     * Stream the result as a JSON array of objects to the writer, one row at a time, and return the number
+     * of rows written. Use withPageOf to keep the driver from fetching the whole result at once.
+     * The writer is flushed but not closed.
+     */
+    public final long writeJson(Writer writer) {
+        return query((resultSet, schema, execution) -> {
+            JsonRowWriter rowWriter = new JsonRowWriter(schema);
+            long count = 0;
+            writer.write('[');
+            while (execution.next(resultSet)) {
+                if (count > 0) {
+                    writer.write(',');
+                }
+                rowWriter.writeRow(resultSet, writer);
+                count++;
+            }
+            writer.write(']');
+            writer.flush();
+            return count;
+        });
+    }
+
+    /**
+     * Stream the result as UTF-8 JSON to the output stream, which is flushed but not closed
+     */
+    public final long writeJson(OutputStream out) {
+        return writeJson(new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8), 8192));
+    }
+
+    /**
+     * Stream the result as UTF-8 JSON to the channel, which is not closed
+     */
+    public final long writeJson(WritableByteChannel channel) {
+        return writeJson(new BufferedWriter(Channels.newWriter(channel, StandardCharsets.UTF_8.newEncoder(), 8192), 8192));
+    }
+
     public <K, V> Map<K, V> indexBy(final String colName, final Class<K> clazz, final Function<Row, V> parser) {
         return indexBy(input -> input.get(colName, clazz), parser);
     }
@@ -321,13 +502,58 @@ public class SQL {
         return map;
     }
 
+    /**
+     * Pass every row of the result to the action in cursor mode: a single Row instance is advanced over
+     * the whole result set, so no object is allocated per row. The row is only valid during the call to
+     * the action and must not escape it, copy the values you need instead.
+     */
     public final void foreach(final Consumer<Row> action) {
-        collect(row -> {
-            action.accept(row);
-            return Option.none();
+        query((resultSet, schema, execution) -> {
+            Row row = new Row(0, resultSet, schema, safeMode);
+            int index = 0;
+            while (execution.next(resultSet)) {
+                action.accept(row.moveTo(++index));
+            }
+            return null;
         });
     }
 
+    /**
+     * A lazy iterator over the rows of the result, to be closed to release the result set if it is not
+     * read until the end. Rows are in cursor mode, valid until the next call to hasNext or next.
+     */
+    public final ResultIterator<Row> iterator() {
+        return new ResultIterator<>(startExecution(), this::open);
+    }
+
+    /**
+     * A lazy, sequential and ordered java.util.stream.Stream over the rows of the result, to be closed
+     * (with try-with-resources) to release the result set if it is not consumed until the end. Rows are in
+     * cursor mode: map them to values before any stateful operation like sorted or collect.
+     */
+    public final java.util.stream.Stream<Row> javaStream() {
+        ResultIterator<Row> iterator = iterator();
+        return StreamSupport.stream(iterator.spliterator(), false).onClose(iterator::close);
+    }
+
+    public final long[] collectLongs(final ToLongFunction<Row> extractor) {
+        PrimitiveBuffers.Longs buffer = new PrimitiveBuffers.Longs();
+        foreach(row -> buffer.add(extractor.applyAsLong(row)));
+        return buffer.toArray();
+    }
+
+    public final int[] collectInts(final ToIntFunction<Row> extractor) {
+        PrimitiveBuffers.Ints buffer = new PrimitiveBuffers.Ints();
+        foreach(row -> buffer.add(extractor.applyAsInt(row)));
+        return buffer.toArray();
+    }
+
+    public final double[] collectDoubles(final ToDoubleFunction<Row> extractor) {
+        PrimitiveBuffers.Doubles buffer = new PrimitiveBuffers.Doubles();
+        foreach(row -> buffer.add(extractor.applyAsDouble(row)));
+        return buffer.toArray();
+    }
+
     public <R> Stream<R> map(final Function<Row, R> function) {
         return new Stream<>(this, i -> Option.apply(function.apply(i)));
     }
@@ -0,0 +1,349 @@
+package org.reactivecouchbase.sql;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Record the executions of SQL, Call and Batch slower than a threshold, and a random sample of the faster
+ * ones, with their parameters, timings and the stack of the calling code, see API.globalSlowQueryLog.
+ *
+ * Entries are kept in a lock free ring buffer of a fixed capacity, the newest ones overwriting the oldest,
+ * and can be dumped at any time. The parameters go through a redactor before being kept: by default it
+ * only shortens long strings and binary values, use hiding to mask sensitive parameters.
+ */
+public final class SlowQueryLog {
+
+    @FunctionalInterface
+    public interface Redactor {
+        /**
+         * Returns the value of the parameter to keep in the log
+         */
+        Object redact(String name, Object value);
+    }
+
+    /**
+     * Keep the values, except long strings (cut at 256 characters) and binary values (only their size)
+     */
+    public static final Redactor TRUNCATE = (name, value) -> {
+        if (value instanceof CharSequence && ((CharSequence) value).length() > 256) {
+            return ((CharSequence) value).subSequence(0, 256) + "...";
+        }
+        if (value instanceof byte[]) {
+            return "<" + ((byte[]) value).length + " bytes>";
+        }
+        return value;
+    };
+
+    /**
+     * Mask the parameters with one of the names (ignoring case), and truncate the other ones
+     */
+    public static Redactor hiding(String... names) {
+        Set<String> hidden = new HashSet<>();
+        for (String name : names) {
+            hidden.add(name.toLowerCase(Locale.ROOT));
+        }
+        return (name, value) -> hidden.contains(name.toLowerCase(Locale.ROOT)) ? "****" : TRUNCATE.redact(name, value);
+    }
+
+    private static final Set<String> LIBRARY_PACKAGES = new HashSet<>(Arrays.asList(
+            "org.reactivecouchbase.sql", "org.reactivecouchbase.sql.connection", "org.reactivecouchbase.sql.representation"));
+
+    private final int capacity;
+    private final AtomicReferenceArray<Entry> ring;
+    private final AtomicLong sequence = new AtomicLong(0);
+    private final AtomicLong clearedAt = new AtomicLong(0);
+    private volatile long thresholdNanos = TimeUnit.SECONDS.toNanos(1);
+    private volatile double sampleRate = 0.0;
+    private volatile int stackDepth = 32;
+    private volatile Redactor redactor = TRUNCATE;
+
+    public SlowQueryLog(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("capacity must be strictly positive");
+        }
+        this.capacity = capacity;
+        this.ring = new AtomicReferenceArray<>(capacity);
+    }
+
+    /**
+     * Record the executions lasting at least the threshold, 1 second by default
+     */
+    public SlowQueryLog withThreshold(long threshold, TimeUnit unit) {
+        this.thresholdNanos = unit.toNanos(threshold);
+        return this;
+    }
+
+    /**
+     * Record this fraction (between 0 and 1) of the executions faster than the threshold, none by default
+     */
+    public SlowQueryLog withSampleRate(double sampleRate) {
+        if (sampleRate < 0.0 || sampleRate > 1.0) {
+            throw new IllegalArgumentException("sampleRate must be between 0 and 1");
+        }
+        this.sampleRate = sampleRate;
+        return this;
+    }
+
+    /**
+     * The maximum number of frames of the calling code kept per entry, 32 by default, 0 to skip the stack
+     */
+    public SlowQueryLog withStackDepth(int stackDepth) {
+        this.stackDepth = Math.max(0, stackDepth);
+        return this;
+    }
+
+    public SlowQueryLog withRedactor(Redactor redactor) {
+        this.redactor = redactor;
+        return this;
+    }
+
+    /**
+     * Record an execution if it is slow or sampled, with its parameters (or null) as they are once it ends
+     */
+    void offer(Query query, Params params, int fetchSize, long rows, long updatedRows, long prepareNanos,
+               long executeNanos, long firstRowNanos, long fetchNanos, long totalNanos, boolean failed) {
+        boolean slow = totalNanos >= thresholdNanos;
+        if (!slow) {
+            double rate = sampleRate;
+            if (rate <= 0.0 || ThreadLocalRandom.current().nextDouble() >= rate) {
+                return;
+            }
+        }
+        long at = sequence.getAndIncrement();
+        ring.set((int) (at % capacity), new Entry(at, System.currentTimeMillis(), Thread.currentThread().getName(),
+                query.getPreparedSqlQuery(), parameters(query, params), rows, updatedRows, fetchSize, prepareNanos,
+                executeNanos, firstRowNanos, fetchNanos, totalNanos, failed, !slow, callers()));
+    }
+
+    private Map<String, Object> parameters(Query query, Params params) {
+        if (params == null) {
+            return Collections.emptyMap();
+        }
+        Redactor current = redactor;
+        Map<String, Object> parameters = new LinkedHashMap<>();
+        List<String> names = query.getParamNames();
+        for (int position = 0; position < names.size(); position++) {
+            String name = names.get(position);
+            int slot = query.slotAt(position);
+            if (!parameters.containsKey(name) && params.isSet(slot)) {
+                parameters.put(name, current.redact(name, params.get(slot)));
+            }
+        }
+        return Collections.unmodifiableMap(parameters);
+    }
+
+    /**
+     * The frames of the stack below the library, the calling code first
+     */
+    private StackTraceElement[] callers() {
+        int depth = stackDepth;
+        if (depth == 0) {
+            return new StackTraceElement[0];
+        }
+        StackTraceElement[] stack = new Throwable().getStackTrace();
+        int first = 0;
+        while (first < stack.length && LIBRARY_PACKAGES.contains(packageOf(stack[first].getClassName()))) {
+            first++;
+        }
+        return Arrays.copyOfRange(stack, first, Math.min(stack.length, first + depth));
+    }
+
+    private static String packageOf(String className) {
+        int dot = className.lastIndexOf('.');
+        return dot < 0 ? "" : className.substring(0, dot);
+    }
+
+    /**
+     * The recorded entries still in the buffer, the oldest first
+     */
+    public List<Entry> dump() {
+        long end = sequence.get();
+        long start = Math.max(clearedAt.get(), end - capacity);
+        List<Entry> entries = new ArrayList<>((int) Math.max(0, end - start));
+        for (long at = start; at < end; at++) {
+            Entry entry = ring.get((int) (at % capacity));
+            // the slot may not be written yet, or already be overwritten by a newer entry
+            if (entry != null && entry.sequence == at) {
+                entries.add(entry);
+            }
+        }
+        return entries;
+    }
+
+    /**
+     * Forget the entries recorded so far
+     */
+    public void clear() {
+        clearedAt.set(sequence.get());
+    }
+
+    /**
+     * The number of entries recorded since the creation of the log, including the overwritten ones
+     */
+    public long recorded() {
+        return sequence.get();
+    }
+
+    public int capacity() {
+        return capacity;
+    }
+
+    /**
+     * One recorded execution. For a batch, the parameters are empty and the timings are the ones of a flush.
+     */
+    public static final class Entry {
+
+        private final long sequence;
+        private final long timestamp;
+        private final String thread;
+        private final String sql;
+        private final Map<String, Object> parameters;
+        private final long rows;
+        private final long updatedRows;
+        private final int fetchSize;
+        private final long prepareNanos;
+        private final long executeNanos;
+        private final long firstRowNanos;
+        private final long fetchNanos;
+        private final long totalNanos;
+        private final boolean failed;
+        private final boolean sampled;
+        private final StackTraceElement[] stack;
+
+        Entry(long sequence, long timestamp, String thread, String sql, Map<String, Object> parameters, long rows,
+              long updatedRows, int fetchSize, long prepareNanos, long executeNanos, long firstRowNanos,
+              long fetchNanos, long totalNanos, boolean failed, boolean sampled, StackTraceElement[] stack) {
+            this.sequence = sequence;
+            this.timestamp = timestamp;
+            this.thread = thread;
+            this.sql = sql;
+            this.parameters = parameters;
+            this.rows = rows;
+            this.updatedRows = updatedRows;
+            this.fetchSize = fetchSize;
+            this.prepareNanos = prepareNanos;
+            this.executeNanos = executeNanos;
+            this.firstRowNanos = firstRowNanos;
+            this.fetchNanos = fetchNanos;
+            this.totalNanos = totalNanos;
+            this.failed = failed;
+            this.sampled = sampled;
+            this.stack = stack;
+        }
+
+        /**
+         * The end of the execution, in milliseconds since the epoch
+         */
+        public long timestamp() {
+            return timestamp;
+        }
+
+        public String thread() {
+            return thread;
+        }
+
+        /**
+         * The prepared SQL, with ? placeholders
+         */
+        public String sql() {
+            return sql;
+        }
+
+        /**
+         * The redacted values of the parameters set, by name
+         */
+        public Map<String, Object> parameters() {
+            return parameters;
+        }
+
+        /**
+         * The number of rows read from the result set
+         */
+        public long rows() {
+            return rows;
+        }
+
+        /**
+         * The update count reported by the driver, or -1
+         */
+        public long updatedRows() {
+            return updatedRows;
+        }
+
+        /**
+         * The fetch size asked with withPageOf, or 0 for the default of the driver
+         */
+        public int fetchSize() {
+            return fetchSize;
+        }
+
+        public long prepareTime(TimeUnit unit) {
+            return unit.convert(prepareNanos, TimeUnit.NANOSECONDS);
+        }
+
+        public long executeTime(TimeUnit unit) {
+            return unit.convert(executeNanos, TimeUnit.NANOSECONDS);
+        }
+
+        /**
+         * The time from the start of the execution to its first row, or -1 if it has read no row
+         */
+        public long firstRowTime(TimeUnit unit) {
+            return firstRowNanos < 0 ? -1 : unit.convert(firstRowNanos, TimeUnit.NANOSECONDS);
+        }
+
+        public long fetchTime(TimeUnit unit) {
+            return unit.convert(fetchNanos, TimeUnit.NANOSECONDS);
+        }
+
+        public long totalTime(TimeUnit unit) {
+            return unit.convert(totalNanos, TimeUnit.NANOSECONDS);
+        }
+
+        public boolean failed() {
+            return failed;
+        }
+
+        /**
+         * True if the execution was faster than the threshold and has been recorded as part of the sample
+         */
+        public boolean sampled() {
+            return sampled;
+        }
+
+        /**
+         * The calling code, starting with the first frame outside of the library
+         */
+        public StackTraceElement[] stack() {
+            return stack.clone();
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder builder = new StringBuilder();
+            builder.append(sampled ? "Sampled query " : "Slow query ").append(totalTime(TimeUnit.MICROSECONDS))
+                    .append("us (prepare ").append(prepareTime(TimeUnit.MICROSECONDS))
+                    .append("us, execute ").append(executeTime(TimeUnit.MICROSECONDS))
+                    .append("us, first row ").append(firstRowTime(TimeUnit.MICROSECONDS))
+                    .append("us, fetch ").append(fetchTime(TimeUnit.MICROSECONDS))
+                    .append("us) rows=").append(rows).append(" updated=").append(updatedRows)
+                    .append(" fetchSize=").append(fetchSize).append(failed ? " FAILED" : "")
+                    .append(" on ").append(thread).append(": ").append(sql).append(' ').append(parameters);
+            for (StackTraceElement frame : stack) {
+                builder.append("\n\tat ").append(frame);
+            }
+            return builder.toString();
+        }
+    }
+}
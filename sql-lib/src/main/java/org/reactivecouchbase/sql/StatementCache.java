@@ -0,0 +1,297 @@
+package org.reactivecouchbase.sql;
+
+import java.sql.CallableStatement;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Per connection LRU cache of prepared statements.
+ *
+ * A cache is owned by a ManagedConnection (the connection providers hand them out) and closed with its
+ * physical connection. Statements of a connection without cache are simply prepared and closed around each
+ * execution. The limits, timeout and fetch options changed by a borrower are restored when the statement
+ * is given back.
+ *
+ * A statement is exclusively owned by its borrower until it is released, so nested executions of the
+ * same query on the same connection each get their own statement.
+ */
+public final class StatementCache {
+
+    static volatile int defaultMaxSize = 32;
+
+    private static final class Key {
+        private final String sql;
+        private final boolean callable;
+        private final int resultSetType;
+        private final int resultSetConcurrency;
+
+        Key(String sql, boolean callable, int resultSetType, int resultSetConcurrency) {
+            this.sql = sql;
+            this.callable = callable;
+            this.resultSetType = resultSetType;
+            this.resultSetConcurrency = resultSetConcurrency;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key key = (Key) o;
+            return callable == key.callable
+                    && resultSetType == key.resultSetType
+                    && resultSetConcurrency == key.resultSetConcurrency
+                    && sql.equals(key.sql);
+        }
+
+        @Override
+        public int hashCode() {
+            int result = sql.hashCode();
+            result = 31 * result + (callable ? 1 : 0);
+            result = 31 * result + resultSetType;
+            result = 31 * result + resultSetConcurrency;
+            return result;
+        }
+    }
+
+    private static final class Cached {
+        private final Key key;
+        private final ManagedPreparedStatement statement;
+        private final int queryTimeout;
+        private final int maxRows;
+        private final int maxFieldSize;
+        private final int fetchSize;
+        private final int fetchDirection;
+
+        Cached(Key key, ManagedPreparedStatement statement) throws SQLException {
+            this.key = key;
+            this.statement = statement;
+            this.queryTimeout = statement.getQueryTimeout();
+            this.maxRows = statement.getMaxRows();
+            this.maxFieldSize = statement.getMaxFieldSize();
+            this.fetchSize = statement.getFetchSize();
+            this.fetchDirection = statement.getFetchDirection();
+        }
+
+        /**
+         * Restore the state of the statement, returns false if it cannot be reused
+         */
+        boolean reset() throws SQLException {
+            statement.clearParameters();
+            if (!statement.reusable) {
+                return false;
+            }
+            int changed = statement.changed;
+            if (changed != 0) {
+                if ((changed & ManagedStatement.QUERY_TIMEOUT) != 0) {
+                    statement.setQueryTimeout(queryTimeout);
+                }
+                if ((changed & ManagedStatement.MAX_ROWS) != 0) {
+                    statement.setMaxRows(maxRows);
+                }
+                if ((changed & ManagedStatement.MAX_FIELD_SIZE) != 0) {
+                    statement.setMaxFieldSize(maxFieldSize);
+                }
+                if ((changed & ManagedStatement.FETCH_SIZE) != 0) {
+                    statement.setFetchSize(fetchSize);
+                }
+                if ((changed & ManagedStatement.FETCH_DIRECTION) != 0) {
+                    statement.setFetchDirection(fetchDirection);
+                }
+                statement.changed = 0;
+            }
+            return true;
+        }
+    }
+
+    private final ManagedConnection connection;
+    private final int maxSize;
+    private final LinkedHashMap<Key, Cached> idle = new LinkedHashMap<>(16, 0.75f, true);
+    private final Map<PreparedStatement, Cached> borrowed = new IdentityHashMap<>();
+    private boolean closed = false;
+
+    private StatementCache(ManagedConnection connection, int maxSize) {
+        this.connection = connection;
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * A cache for the connection, or null if statement caching is disabled
+     */
+    static StatementCache create(ManagedConnection connection) {
+        int maxSize = defaultMaxSize;
+        return maxSize > 0 ? new StatementCache(connection, maxSize) : null;
+    }
+
+    private static StatementCache of(Connection connection) {
+        return connection instanceof ManagedConnection ? ((ManagedConnection) connection).statements : null;
+    }
+
+    /**
+     * True if the statements of the connection are cached, so giving one back is cheap
+     */
+    static boolean caches(Connection connection) {
+        return of(connection) != null;
+    }
+
+    public static int cachedStatements(Connection connection) {
+        StatementCache cache = of(connection);
+        if (cache == null) {
+            return 0;
+        }
+        synchronized (cache) {
+            return cache.idle.size();
+        }
+    }
+
+    static PreparedStatement prepare(Connection connection, String sql) throws SQLException {
+        return prepare(connection, sql, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+    }
+
+    static PreparedStatement prepare(Connection connection, String sql, int resultSetType, int resultSetConcurrency) throws SQLException {
+        StatementCache cache = of(connection);
+        if (cache == null) {
+            return connection.prepareStatement(sql, resultSetType, resultSetConcurrency);
+        }
+        return cache.borrow(new Key(sql, false, resultSetType, resultSetConcurrency));
+    }
+
+    static CallableStatement prepareCall(Connection connection, String sql) throws SQLException {
+        StatementCache cache = of(connection);
+        if (cache == null) {
+            return connection.prepareCall(sql);
+        }
+        return (CallableStatement) cache.borrow(new Key(sql, true, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY));
+    }
+
+    /**
+     * Give the statement back to the cache of its connection, or close it if it cannot be cached
+     */
+    static void release(Connection connection, PreparedStatement statement) throws SQLException {
+        if (statement == null) {
+            return;
+        }
+        StatementCache cache = of(connection);
+        if (cache == null) {
+            statement.close();
+        } else {
+            cache.giveBack(statement);
+        }
+    }
+
+    /**
+     * Close the statement instead of caching it, typically after a failed execution
+     */
+    static void discard(Connection connection, PreparedStatement statement) throws SQLException {
+        if (statement == null) {
+            return;
+        }
+        StatementCache cache = of(connection);
+        if (cache != null) {
+            synchronized (cache) {
+                cache.borrowed.remove(statement);
+            }
+        }
+        statement.close();
+    }
+
+    private PreparedStatement borrow(Key key) throws SQLException {
+        Cached cached;
+        synchronized (this) {
+            cached = idle.remove(key);
+            if (cached != null) {
+                borrowed.put(cached.statement, cached);
+                return cached.statement;
+            }
+        }
+        PreparedStatement statement = key.callable
+                ? connection.prepareCall(key.sql, key.resultSetType, key.resultSetConcurrency)
+                : connection.prepareStatement(key.sql, key.resultSetType, key.resultSetConcurrency);
+        try {
+            cached = new Cached(key, (ManagedPreparedStatement) statement);
+        } catch (SQLException e) {
+            statement.close();
+            throw e;
+        }
+        synchronized (this) {
+            borrowed.put(statement, cached);
+        }
+        return statement;
+    }
+
+    private void giveBack(PreparedStatement statement) throws SQLException {
+        Cached cached;
+        synchronized (this) {
+            cached = borrowed.remove(statement);
+        }
+        if (cached == null) {
+            statement.close();
+            return;
+        }
+        boolean reusable;
+        try {
+            reusable = cached.reset();
+        } catch (SQLException e) {
+            statement.close();
+            throw e;
+        }
+        List<PreparedStatement> toClose = new ArrayList<>();
+        synchronized (this) {
+            if (closed || !reusable || idle.containsKey(cached.key)) {
+                toClose.add(statement);
+            } else {
+                idle.put(cached.key, cached);
+                Iterator<Cached> eldest = idle.values().iterator();
+                while (idle.size() > maxSize && eldest.hasNext()) {
+                    toClose.add(eldest.next().statement);
+                    eldest.remove();
+                }
+            }
+        }
+        closeAll(toClose);
+    }
+
+    /**
+     * Close every cached statement, once the connection is closing
+     */
+    void close() {
+        List<PreparedStatement> toClose = new ArrayList<>();
+        synchronized (this) {
+            closed = true;
+            for (Cached cached : idle.values()) {
+                toClose.add(cached.statement);
+            }
+            idle.clear();
+        }
+        try {
+            closeAll(toClose);
+        } catch (SQLException ignore) {
+            // the connection is about to be closed anyway, which closes its statements
+        }
+    }
+
+    private static void closeAll(List<PreparedStatement> statements) throws SQLException {
+        SQLException failure = null;
+        for (PreparedStatement statement : statements) {
+            try {
+                statement.close();
+            } catch (SQLException e) {
+                failure = e;
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+}
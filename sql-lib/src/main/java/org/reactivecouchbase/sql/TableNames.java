@@ -0,0 +1,180 @@
+package org.reactivecouchbase.sql;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * A rough lexical analysis of the tables a statement reads or writes, used to invalidate cached results.
+ *
+ * It looks for the identifiers following FROM, JOIN, INTO, UPDATE and TABLE outside quoted strings and
+ * comments. Names are lower cased and stripped of their quotes and schema. It errs on the safe side: a
+ * statement it does not recognize writes every table.
+ */
+final class TableNames {
+
+    private static final Set<String> WRITES = new HashSet<>(Arrays.asList(
+            "insert", "update", "delete", "merge", "replace", "upsert", "truncate", "alter", "drop", "create"));
+
+    private static final Set<String> READS = new HashSet<>(Arrays.asList("select", "with", "values", "show", "explain"));
+
+    private static final Set<String> KEYWORDS = new HashSet<>(Arrays.asList(
+            "where", "group", "order", "having", "limit", "offset", "fetch", "for", "union", "except", "intersect",
+            "minus", "join", "inner", "left", "right", "full", "outer", "cross", "natural", "on", "using", "set",
+            "values", "select", "window", "lateral", "as", "returning", "default"));
+
+    private TableNames() {
+    }
+
+    /**
+     * The tables read by a query
+     */
+    static Set<String> read(String sql) {
+        List<String> tokens = tokens(sql);
+        Set<String> tables = new HashSet<>();
+        for (int i = 0; i < tokens.size(); i++) {
+            String token = tokens.get(i);
+            if (token.equals("from") || token.equals("join")) {
+                i = tableList(tokens, i + 1, tables, token.equals("from"));
+            }
+        }
+        return Collections.unmodifiableSet(tables);
+    }
+
+    /**
+     * The tables written by a statement, an empty set for a query, or null if it cannot tell
+     */
+    static Set<String> written(String sql) {
+        List<String> tokens = tokens(sql);
+        if (tokens.isEmpty()) {
+            return Collections.emptySet();
+        }
+        String first = tokens.get(0);
+        if (READS.contains(first) && !tokens.contains("into") && !tokens.contains("update") && !tokens.contains("delete")) {
+            return Collections.emptySet();
+        }
+        if (!WRITES.contains(first)) {
+            return null;
+        }
+        Set<String> tables = new HashSet<>();
+        for (int i = 0; i < tokens.size() - 1; i++) {
+            String token = tokens.get(i);
+            if (token.equals("into") || token.equals("table") || (i == 0 && token.equals("update"))
+                    || (token.equals("from") && first.equals("delete"))) {
+                int at = i + 1;
+                if (tokens.get(at).equals("only")) {
+                    at++;
+                } else if (tokens.get(at).equals("if")) {
+                    at += 2;
+                }
+                String name = at < tokens.size() ? tokens.get(at) : "";
+                if (!name.isEmpty() && isName(name)) {
+                    tables.add(name);
+                }
+            }
+        }
+        return tables.isEmpty() ? null : Collections.unmodifiableSet(tables);
+    }
+
+    private static int tableList(List<String> tokens, int start, Set<String> tables, boolean list) {
+        int i = start;
+        while (i < tokens.size()) {
+            String name = tokens.get(i);
+            if (!isName(name) || KEYWORDS.contains(name)) {
+                return i - 1;
+            }
+            tables.add(name);
+            i++;
+            if (i < tokens.size() && tokens.get(i).equals("as")) {
+                i++;
+            }
+            if (i < tokens.size() && isName(tokens.get(i)) && !KEYWORDS.contains(tokens.get(i))) {
+                i++;
+            }
+            if (!list || i >= tokens.size() || !tokens.get(i).equals(",")) {
+                return i - 1;
+            }
+            i++;
+        }
+        return i;
+    }
+
+    private static boolean isName(String token) {
+        char c = token.charAt(0);
+        return Character.isLetter(c) || c == '_';
+    }
+
+    /**
+     * Lower cased words (with their schema and quotes removed) and single punctuation characters, without
+     * strings, numbers and comments
+     */
+    private static List<String> tokens(String sql) {
+        List<String> tokens = new ArrayList<>();
+        int length = sql.length();
+        int i = 0;
+        while (i < length) {
+            char c = sql.charAt(i);
+            if (Character.isWhitespace(c)) {
+                i++;
+            } else if (c == '\'') {
+                i = skip(sql, i + 1, '\'');
+            } else if (c == '-' && i + 1 < length && sql.charAt(i + 1) == '-') {
+                int end = sql.indexOf('\n', i);
+                i = end < 0 ? length : end + 1;
+            } else if (c == '/' && i + 1 < length && sql.charAt(i + 1) == '*') {
+                int end = sql.indexOf("*/", i + 2);
+                i = end < 0 ? length : end + 2;
+            } else if (Character.isLetter(c) || c == '_' || c == '"' || c == '`' || c == '[') {
+                StringBuilder name = new StringBuilder();
+                while (i < length) {
+                    char d = sql.charAt(i);
+                    if (d == '"' || d == '`' || d == '[') {
+                        char close = d == '[' ? ']' : d;
+                        int end = sql.indexOf(close, i + 1);
+                        end = end < 0 ? length : end;
+                        name.append(sql, i + 1, end);
+                        i = Math.min(length, end + 1);
+                    } else if (Character.isLetterOrDigit(d) || d == '_' || d == '$') {
+                        name.append(d);
+                        i++;
+                    } else if (d == '.') {
+                        name.setLength(0);
+                        i++;
+                    } else {
+                        break;
+                    }
+                }
+                if (name.length() > 0) {
+                    tokens.add(name.toString().toLowerCase(Locale.ROOT));
+                }
+            } else if (Character.isDigit(c)) {
+                while (i < length && (Character.isLetterOrDigit(sql.charAt(i)) || sql.charAt(i) == '.')) {
+                    i++;
+                }
+            } else {
+                tokens.add(String.valueOf(c));
+                i++;
+            }
+        }
+        return tokens;
+    }
+
+    private static int skip(String sql, int start, char quote) {
+        int i = start;
+        while (i < sql.length()) {
+            if (sql.charAt(i) == quote) {
+                if (i + 1 < sql.length() && sql.charAt(i + 1) == quote) {
+                    i += 2;
+                    continue;
+                }
+                return i + 1;
+            }
+            i++;
+        }
+        return i;
+    }
+}
@@ -0,0 +1,45 @@
+package org.reactivecouchbase.sql;
+
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A single daemon thread shared by the library for its timed tasks (query timeouts, ...).
+ * Tasks run one after the other on that thread so they must be brief: most only trigger work that is
+ * done elsewhere, like the flushes of aged batches handed to the executors owning their connections.
+ */
+final class Timers {
+
+    private static volatile ScheduledThreadPoolExecutor scheduler;
+
+    private Timers() {
+    }
+
+    private static ScheduledThreadPoolExecutor scheduler() {
+        ScheduledThreadPoolExecutor current = scheduler;
+        if (current == null) {
+            synchronized (Timers.class) {
+                current = scheduler;
+                if (current == null) {
+                    current = new ScheduledThreadPoolExecutor(1, r -> {
+                        Thread thread = new Thread(r, "sql-lib-timer");
+                        thread.setDaemon(true);
+                        return thread;
+                    });
+                    current.setRemoveOnCancelPolicy(true);
+                    scheduler = current;
+                }
+            }
+        }
+        return current;
+    }
+
+    static ScheduledFuture<?> schedule(Runnable task, long delay, TimeUnit unit) {
+        return scheduler().schedule(task, delay, unit);
+    }
+
+    static ScheduledFuture<?> scheduleWithFixedDelay(Runnable task, long initialDelay, long delay, TimeUnit unit) {
+        return scheduler().scheduleWithFixedDelay(task, initialDelay, delay, unit);
+    }
+}
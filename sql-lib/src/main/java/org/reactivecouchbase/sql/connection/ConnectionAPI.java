@@ -20,6 +20,10 @@ public class ConnectionAPI {
         return new SimpleProvider(driver, url, login, password);
     }
 
+    public static PooledProvider pooledProvider(Driver driver, String url, String login, String password) {
+        return new PooledProvider(driver, url, login, password);
+    }
+
     public static <T> T withConnection(Connection connection, Boolean transac, Function<Connection, T> block) {
         try {
             T ret = block.apply(connection);
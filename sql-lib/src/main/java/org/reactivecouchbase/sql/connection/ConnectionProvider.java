@@ -16,6 +16,19 @@ public interface ConnectionProvider {
      * Close the connection and suppress it in the thread
      */
     void afterRequest();
+    /**
+     * Returns a connection for a request that may end on another thread, to be given back with release
+     */
+    default Connection acquire() {
+        beforeRequest();
+        return get();
+    }
+    /**
+     * Give back a connection returned by acquire, from any thread
+     */
+    default void release(Connection connection) {
+        afterRequest();
+    }
     /**
      * Initialize the connection (Load the JDBC driver)
      */
@@ -24,4 +37,10 @@ public interface ConnectionProvider {
      * Call the afterRequest method
      */
     void stop();
+    /**
+     * Returns the maximum number of connections that can be opened at once, or 0 if there is no limit
+     */
+    default int maxConnections() {
+        return 0;
+    }
 }
\ No newline at end of file
@@ -3,16 +3,22 @@ package org.reactivecouchbase.sql.connection;
 import org.reactivecouchbase.common.Throwables;
 import org.reactivecouchbase.concurrent.Future;
 import org.reactivecouchbase.concurrent.Promise;
+import org.reactivecouchbase.sql.ResultCache;
 import rx.Observable;
 
 import java.sql.Connection;
 import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.concurrent.TimeUnit;
 import java.util.function.Consumer;
 import java.util.function.Function;
 
 public class Database {
 
     private final ConnectionProvider provider;
+    private int asyncPermits = 0;
+    private volatile DatabaseExecutor asyncExecutor;
+    private volatile ResultCache resultCache;
 
     Database(ConnectionProvider provider) {
         this.provider = provider;
@@ -24,13 +30,126 @@ public class Database {
     }
 
     public final void close() {
+        DatabaseExecutor executor = asyncExecutor;
+        if (executor != null) {
+            executor.shutdown();
+        }
         provider.stop();
     }
 
+    /**
+     * Set the number of async tasks that can use the database at once, by default the maximum number of
+     * connections of the provider, or 4 per processor if it has no limit
+     */
+    public final Database withAsyncPermits(int permits) {
+        if (permits <= 0) {
+            throw new IllegalArgumentException("permits must be strictly positive");
+        }
+        synchronized (this) {
+            if (asyncExecutor != null) {
+                throw new IllegalStateException("The async executor of the database is already started");
+            }
+            this.asyncPermits = permits;
+        }
+        return this;
+    }
+
+    /**
+     * The executor owned by the database for its blocking JDBC work, to be passed to AsyncSQL, AsyncStream
+     * or asObservable. It runs tasks on virtual threads when the JVM supports them, behind a bulkhead sized
+     * to the connection pool.
+     */
+    public final DatabaseExecutor asyncExecutor() {
+        DatabaseExecutor executor = asyncExecutor;
+        if (executor == null) {
+            synchronized (this) {
+                executor = asyncExecutor;
+                if (executor == null) {
+                    int permits = asyncPermits;
+                    if (permits <= 0) {
+                        permits = provider.maxConnections() > 0
+                                ? provider.maxConnections()
+                                : 4 * Runtime.getRuntime().availableProcessors();
+                    }
+                    executor = new DatabaseExecutor(permits);
+                    asyncExecutor = executor;
+                }
+            }
+        }
+        return executor;
+    }
+
+    /**
+     * Keep the results of the queries marked as cached (SQL.cached) for the ttl, at most maxEntries of them.
+     * The statements executed through the connections of the database invalidate the results of the tables
+     * they write.
+     */
+    public final Database withResultCache(int maxEntries, long ttl, TimeUnit unit) {
+        return withResultCache(maxEntries, ttl, 0, unit);
+    }
+
+    /**
+     * Like withResultCache(maxEntries, ttl, unit), but the results older than refreshAfter are reloaded on
+     * the async executor of the database, while the current ones are still served
+     */
+    public final Database withResultCache(int maxEntries, long ttl, long refreshAfter, TimeUnit unit) {
+        this.resultCache = new ResultCache(maxEntries, ttl, refreshAfter, unit,
+                task -> asyncExecutor().execute(task), action -> withConnection(false, action));
+        return this;
+    }
+
+    /**
+     * The result cache of the database, or null if it has none
+     */
+    public final ResultCache resultCache() {
+        return resultCache;
+    }
+
+    private Connection attach(Connection connection) {
+        ResultCache cache = resultCache;
+        return cache != null ? ResultCache.attach(connection, cache) : connection;
+    }
+
+    private void detach(Connection connection) {
+        ResultCache.detach(connection);
+    }
+
+    /**
+     * Run the action with a connection on the async executor of the database. The connection is obtained
+     * and released on the executor thread, so at most asyncPermits connections are used at once.
+     */
+    public final <T> Future<T> async(Boolean transac, Function<Connection, T> action) {
+        return Future.async(() -> withConnection(transac, action), asyncExecutor());
+    }
+
+    /**
+     * Run the SELECT as partitions sub-queries, each one scanning a range of [min, max] on the key on its own
+     * connection
+     */
+    public final PartitionedScan partitionedScan(String sql, String key, long min, long max, int partitions) {
+        return PartitionedScan.numeric(this, sql, key, min, max, partitions);
+    }
+
+    /**
+     * Run the SELECT as partitions sub-queries, each one scanning a period of [from, to] on the key on its
+     * own connection
+     */
+    public final PartitionedScan partitionedScan(String sql, String key, Timestamp from, Timestamp to, int partitions) {
+        return PartitionedScan.temporal(this, sql, key, from, to, partitions);
+    }
+
+    /**
+     * A writer executing the statement in batches, from a background thread with its own connection, for
+     * rows enqueued by any thread
+     */
+    public final WriteBehindWriter writeBehind(String sql) {
+        return new WriteBehindWriter(this, sql);
+    }
+
     public final void withConnection(Boolean transac, Consumer<Connection> action) {
         provider.beforeRequest();
         try {
-            Connection connection = provider.get();
+            Connection connection = attach(provider.get());
             try {
                 action.accept(connection);
                 if (transac) {
@@ -45,6 +164,8 @@ public class Database {
                     throw Throwables.propagate(e1);
                 }
                 throw Throwables.propagate(e);
+            } finally {
+                detach(connection);
             }
         } finally  {
             provider.afterRequest();
@@ -54,7 +175,7 @@ public class Database {
     public final <T> T withConnection(Boolean transac, Function<Connection, T> action) {
         provider.beforeRequest();
         try {
-            Connection connection = provider.get();
+            Connection connection = attach(provider.get());
             try {
                 T ret = action.apply(connection);
                 if (transac) {
@@ -70,38 +191,55 @@ public class Database {
                     throw Throwables.propagate(e1);
                 }
                 throw Throwables.propagate(e);
+            } finally {
+                detach(connection);
             }
         } finally  {
             provider.afterRequest();
         }
     }
 
+    /**
+     * Run the block with a connection acquired for the request, and given back from the thread completing
+     * its future
+     */
     public final <T> Future<T> withAsyncConnection(Boolean transac, Function<Connection, Future<T>> block) {
         Promise<T> p = new Promise<>();
-        provider.beforeRequest();
-        Connection connection = provider.get();
+        Connection acquired = provider.acquire();
+        Connection connection = attach(acquired);
         try {
             block.apply(connection).onComplete(ttry -> {
+                Throwable failure = null;
+                T result = null;
                 for (Throwable t : ttry.asFailure()) {
-                    try {
-                        if (transac) {
-                            connection.rollback();
-                        }
-                    } catch (SQLException e1) {
-                        p.tryFailure(e1);
-                    }
+                    failure = t;
                 }
                 for (T res : ttry.asSuccess()) {
-                    p.trySuccess(res);
+                    result = res;
+                }
+                try {
                     if (transac) {
-                        try {
+                        if (failure == null) {
                             connection.commit();
-                        } catch (Exception e) {
-                            p.tryFailure(e);
+                        } else {
+                            connection.rollback();
                         }
                     }
+                } catch (SQLException e1) {
+                    if (failure == null) {
+                        failure = e1;
+                    } else {
+                        failure.addSuppressed(e1);
+                    }
+                } finally {
+                    detach(connection);
+                    provider.release(acquired);
+                }
+                if (failure == null) {
+                    p.trySuccess(result);
+                } else {
+                    p.tryFailure(failure);
                 }
-                provider.afterRequest();
             });
         } catch (Exception eee) {
             try {
@@ -109,43 +247,48 @@ public class Database {
                     connection.rollback();
                 }
             } catch (SQLException e1) {
-                p.tryFailure(e1);
+                eee.addSuppressed(e1);
             }
+            detach(connection);
+            provider.release(acquired);
             p.tryFailure(eee);
-            provider.afterRequest();
         }
         return p.future();
     }
 
+    /**
+     * Run the block with a connection acquired for each subscription, and given back from the thread
+     * completing or failing the observable
+     */
     public final <T> Observable<T> withRxConnection(Boolean transac, Function<Connection, Observable<T>> block) {
         return Observable.create(os -> {
-            provider.beforeRequest();
-            Connection connection = provider.get();
+            Connection acquired = provider.acquire();
+            Connection connection = attach(acquired);
             try {
-                Observable<T> ret = block.apply(connection);
-                ret.doOnError(e -> {
-                    os.onError(e);
+                block.apply(connection).subscribe(n -> {
+                    os.onNext(n);
                     try {
                         if (transac) {
-                            connection.rollback();
+                            connection.commit();
                         }
                     } catch (SQLException e1) {
                         os.onError(e1);
                     }
-                });
-                ret.doOnNext(n -> {
-                    os.onNext(n);
+                }, e -> {
                     try {
                         if (transac) {
-                            connection.commit();
+                            connection.rollback();
                         }
                     } catch (SQLException e1) {
-                        os.onError(e1);
+                        e.addSuppressed(e1);
                     }
-                });
-                ret.doOnCompleted(() -> {
+                    detach(connection);
+                    provider.release(acquired);
+                    os.onError(e);
+                }, () -> {
+                    detach(connection);
+                    provider.release(acquired);
                     os.onCompleted();
-                    provider.afterRequest();
                 });
             } catch (Exception eee) {
                 try {
@@ -153,11 +296,12 @@ public class Database {
                         connection.rollback();
                     }
                 } catch (SQLException e1) {
-                    os.onError(e1);
+                    eee.addSuppressed(e1);
                 }
+                detach(connection);
+                provider.release(acquired);
                 os.onError(eee);
-                provider.afterRequest();
             }
         });
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,132 @@
+package org.reactivecouchbase.sql.connection;
+
+import java.lang.reflect.Method;
+import java.util.List;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Executor for the blocking JDBC work of a database, behind a bulkhead that lets at most a given number of
+ * tasks run at once (typically the size of the connection pool), the others waiting for their turn.
+ *
+ * When the JVM supports virtual threads (Java 21 and later) every task gets its own virtual thread and
+ * waits for a permit of the bulkhead there, so waiting tasks do not hold platform threads. Otherwise the
+ * tasks are queued for a fixed pool of daemon threads, one per permit.
+ */
+public final class DatabaseExecutor extends AbstractExecutorService {
+
+    private final int permits;
+    private final Semaphore bulkhead;
+    private final ExecutorService delegate;
+    private final boolean virtual;
+    private final AtomicInteger pending = new AtomicInteger(0);
+
+    DatabaseExecutor(int permits) {
+        if (permits <= 0) {
+            throw new IllegalArgumentException("permits must be strictly positive");
+        }
+        this.permits = permits;
+        this.bulkhead = new Semaphore(permits, true);
+        ExecutorService virtualThreads = virtualThreadPerTaskExecutor();
+        this.virtual = virtualThreads != null;
+        if (virtual) {
+            this.delegate = virtualThreads;
+        } else {
+            AtomicInteger counter = new AtomicInteger(0);
+            this.delegate = new ThreadPoolExecutor(permits, permits, 60L, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), r -> {
+                Thread thread = new Thread(r, "sql-lib-async-" + counter.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+            ((ThreadPoolExecutor) delegate).allowCoreThreadTimeOut(true);
+        }
+    }
+
+    private static ExecutorService virtualThreadPerTaskExecutor() {
+        try {
+            Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) factory.invoke(null);
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
+    @Override
+    public void execute(Runnable task) {
+        if (task == null) {
+            throw new NullPointerException();
+        }
+        pending.incrementAndGet();
+        try {
+            delegate.execute(() -> {
+                try {
+                    bulkhead.acquireUninterruptibly();
+                } finally {
+                    pending.decrementAndGet();
+                }
+                try {
+                    task.run();
+                } finally {
+                    bulkhead.release();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            pending.decrementAndGet();
+            throw e;
+        }
+    }
+
+    /**
+     * Returns true if the tasks run on virtual threads
+     */
+    public boolean isVirtual() {
+        return virtual;
+    }
+
+    public int permits() {
+        return permits;
+    }
+
+    public int runningTasks() {
+        return permits - bulkhead.availablePermits();
+    }
+
+    /**
+     * The number of submitted tasks waiting for a permit of the bulkhead
+     */
+    public int waitingTasks() {
+        return pending.get();
+    }
+
+    @Override
+    public void shutdown() {
+        delegate.shutdown();
+    }
+
+    @Override
+    public List<Runnable> shutdownNow() {
+        return delegate.shutdownNow();
+    }
+
+    @Override
+    public boolean isShutdown() {
+        return delegate.isShutdown();
+    }
+
+    @Override
+    public boolean isTerminated() {
+        return delegate.isTerminated();
+    }
+
+    @Override
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        return delegate.awaitTermination(timeout, unit);
+    }
+}
@@ -0,0 +1,419 @@
+package org.reactivecouchbase.sql.connection;
+
+import org.reactivecouchbase.common.Throwables;
+import org.reactivecouchbase.functional.Tuple;
+import org.reactivecouchbase.sql.API;
+import org.reactivecouchbase.sql.Row;
+import org.reactivecouchbase.sql.SQL;
+import rx.Observable;
+
+import java.sql.Connection;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Spliterators;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BiFunction;
+import java.util.function.BinaryOperator;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.stream.StreamSupport;
+
+/**
+ * Run one SELECT as several sub-queries, each one reading a range of a numeric or date key on its own
+ * connection and its own thread, so a full scan can use more than one database core.
+ *
+ * The query is wrapped as a derived table filtered on the key, so the key must be a column of its result,
+ * and rows where the key is NULL are skipped. Results are merged as they arrive (the order of the rows
+ * across partitions is not preserved), or combined partition by partition with reduce and groupBy.
+ */
+public final class PartitionedScan {
+
+    private static final String LOWER = "partition_lower";
+    private static final String UPPER = "partition_upper";
+    private static final Object END = new Object();
+    private static final Object NULL = new Object();
+
+    private static final class Range {
+        private final Object lower;
+        private final Object upper;
+        private final boolean last;
+
+        Range(Object lower, Object upper, boolean last) {
+            this.lower = lower;
+            this.upper = upper;
+            this.last = last;
+        }
+    }
+
+    private final Database database;
+    private final String query;
+    private final String key;
+    private final List<Range> ranges;
+    private final List<Tuple<String, Object>> params = new ArrayList<>();
+    private ExecutorService executor = null;
+    private Integer page = null;
+    private int bufferSize = 1024;
+
+    private PartitionedScan(Database database, String query, String key, List<Range> ranges) {
+        String trimmed = query.trim();
+        while (trimmed.endsWith(";")) {
+            trimmed = trimmed.substring(0, trimmed.length() - 1).trim();
+        }
+        this.database = database;
+        this.query = trimmed;
+        this.key = key;
+        this.ranges = ranges;
+    }
+
+    static PartitionedScan numeric(Database database, String query, String key, long min, long max, int partitions) {
+        checkPartitions(partitions);
+        if (max < min) {
+            throw new IllegalArgumentException("max must be greater than min");
+        }
+        long span;
+        try {
+            span = Math.addExact(Math.subtractExact(max, min), 1L);
+        } catch (ArithmeticException e) {
+            throw new IllegalArgumentException("The key range is too large to be partitioned", e);
+        }
+        int count = span < partitions ? (int) span : partitions;
+        long step = (span + count - 1) / count;
+        List<Range> ranges = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            long lower = min + i * step;
+            boolean last = i == count - 1;
+            ranges.add(new Range(lower, last ? max : lower + step, last));
+        }
+        return new PartitionedScan(database, query, key, ranges);
+    }
+
+    static PartitionedScan temporal(Database database, String query, String key, Timestamp from, Timestamp to, int partitions) {
+        checkPartitions(partitions);
+        if (to.before(from)) {
+            throw new IllegalArgumentException("to must be after from");
+        }
+        long min = from.getTime();
+        long span = to.getTime() - min + 1;
+        int count = span < partitions ? (int) span : partitions;
+        long step = (span + count - 1) / count;
+        List<Range> ranges = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            boolean last = i == count - 1;
+            Timestamp lower = i == 0 ? from : new Timestamp(min + i * step);
+            ranges.add(new Range(lower, last ? to : new Timestamp(min + (i + 1) * step), last));
+        }
+        return new PartitionedScan(database, query, key, ranges);
+    }
+
+    private static void checkPartitions(int partitions) {
+        if (partitions <= 0) {
+            throw new IllegalArgumentException("partitions must be strictly positive");
+        }
+    }
+
+    public PartitionedScan on(String name, Object value) {
+        params.add(new Tuple<>(name, value));
+        return this;
+    }
+
+    /**
+     * Run the sub-queries on this executor, which should have a thread per partition. By default a
+     * dedicated pool is created for each scan.
+     */
+    public PartitionedScan withExecutor(ExecutorService executor) {
+        this.executor = executor;
+        return this;
+    }
+
+    public PartitionedScan withPageOf(int of) {
+        this.page = of;
+        return this;
+    }
+
+    /**
+     * The number of mapped rows that can wait for the consumer of a merged stream or observable before the
+     * sub-queries are paused
+     */
+    public PartitionedScan withBufferSize(int size) {
+        if (size <= 0) {
+            throw new IllegalArgumentException("size must be strictly positive");
+        }
+        this.bufferSize = size;
+        return this;
+    }
+
+    public int partitions() {
+        return ranges.size();
+    }
+
+    private SQL partition(Connection connection, Range range) {
+        String sql = "SELECT * FROM (" + query + ") partitioned_scan WHERE " + key + " >= {" + LOWER + "} AND "
+                + key + (range.last ? " <= {" : " < {") + UPPER + "}";
+        SQL partition = API.sql(connection, sql);
+        for (Tuple<String, Object> param : params) {
+            partition.on(param._1, param._2);
+        }
+        partition.on(LOWER, range.lower).on(UPPER, range.upper);
+        if (page != null) {
+            partition.withPageOf(page);
+        }
+        return partition;
+    }
+
+    private ExecutorService pool() {
+        if (executor != null) {
+            return executor;
+        }
+        AtomicInteger counter = new AtomicInteger(0);
+        return Executors.newFixedThreadPool(ranges.size(), r -> {
+            Thread thread = new Thread(r, "sql-lib-partition-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    private void release(ExecutorService pool) {
+        if (pool != executor) {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * Run the task on every partition, each one on its own connection, and return the results in
+     * partition order. As soon as one partition fails, the others are cancelled.
+     */
+    private <R> List<R> runAll(Function<SQL, R> task) {
+        ExecutorService pool = pool();
+        List<SQL> running = Collections.synchronizedList(new ArrayList<>());
+        List<CompletableFuture<R>> futures = new ArrayList<>(ranges.size());
+        CompletableFuture<Void> failed = new CompletableFuture<>();
+        try {
+            for (Range range : ranges) {
+                CompletableFuture<R> future = CompletableFuture.supplyAsync(() -> database.withConnection(false, connection -> {
+                    SQL sql = partition(connection, range);
+                    running.add(sql);
+                    try {
+                        return task.apply(sql);
+                    } finally {
+                        running.remove(sql);
+                    }
+                }), pool);
+                future.whenComplete((result, e) -> {
+                    if (e != null) {
+                        failed.completeExceptionally(e);
+                    }
+                });
+                futures.add(future);
+            }
+            CompletableFuture.anyOf(failed, CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0]))).join();
+            List<R> results = new ArrayList<>(futures.size());
+            for (CompletableFuture<R> future : futures) {
+                results.add(future.join());
+            }
+            return results;
+        } catch (CompletionException e) {
+            synchronized (running) {
+                for (SQL sql : running) {
+                    sql.cancel();
+                }
+            }
+            for (CompletableFuture<R> future : futures) {
+                future.cancel(false);
+            }
+            throw Throwables.propagate(e.getCause() == null ? e : e.getCause());
+        } finally {
+            release(pool);
+        }
+    }
+
+    /**
+     * Reduce every partition from its own zero, then combine the partial results in partition order
+     */
+    public <B> B reduce(Supplier<B> zero, BiFunction<B, Row, B> accumulator, BinaryOperator<B> combiner) {
+        List<B> partials = runAll(sql -> sql.reduce(zero.get(), accumulator));
+        B result = partials.get(0);
+        for (int i = 1; i < partials.size(); i++) {
+            result = combiner.apply(result, partials.get(i));
+        }
+        return result;
+    }
+
+    /**
+     * Group every partition, then concatenate the groups in partition order
+     */
+    public <K, V> Map<K, List<V>> groupBy(Function<Row, K> grouper, Function<Row, V> parser) {
+        List<Map<K, List<V>>> partials = runAll(sql -> sql.groupBy(grouper, parser));
+        Map<K, List<V>> result = new HashMap<>();
+        for (Map<K, List<V>> partial : partials) {
+            for (Map.Entry<K, List<V>> entry : partial.entrySet()) {
+                List<V> values = result.get(entry.getKey());
+                if (values == null) {
+                    result.put(entry.getKey(), entry.getValue());
+                } else {
+                    values.addAll(entry.getValue());
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * A lazy stream of the mapped rows of every partition, in arrival order. The stream must be closed if
+     * it is not consumed until the end, which cancels the sub-queries still running.
+     */
+    public <T> java.util.stream.Stream<T> stream(Function<Row, T> mapper) {
+        Merge<T> merge = new Merge<>(mapper);
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(merge, 0), false).onClose(merge::close);
+    }
+
+    /**
+     * An observable of the mapped rows of every partition, in arrival order. The sub-queries start on
+     * subscription and are cancelled on unsubscription.
+     */
+    public <T> Observable<T> asObservable(Function<Row, T> mapper) {
+        return Observable.using(() -> new Merge<>(mapper), merge -> Observable.from(() -> merge), Merge::close);
+    }
+
+    /**
+     * The partitions push their mapped rows in a bounded queue, read by a single consumer. Each partition
+     * ends with END, even when it fails: the first failure is kept aside and rethrown by the consumer.
+     */
+    private final class Merge<T> implements Iterator<T>, AutoCloseable {
+
+        private final BlockingQueue<Object> queue = new ArrayBlockingQueue<>(bufferSize);
+        private final List<SQL> running = Collections.synchronizedList(new ArrayList<>());
+        private final AtomicReference<Throwable> failure = new AtomicReference<>();
+        private final ExecutorService pool;
+        private volatile boolean closed = false;
+        private int remaining;
+        private Object next = null;
+
+        Merge(Function<Row, T> mapper) {
+            this.pool = pool();
+            this.remaining = ranges.size();
+            for (Range range : ranges) {
+                pool.execute(() -> produce(range, mapper));
+            }
+        }
+
+        private void produce(Range range, Function<Row, T> mapper) {
+            try {
+                if (closed) {
+                    // queued on a busy executor and closed since, it does not borrow a connection
+                    return;
+                }
+                database.withConnection(false, connection -> {
+                    SQL sql = partition(connection, range);
+                    running.add(sql);
+                    try {
+                        // close cancels the running sub-queries, a sub-query registered after it must not start
+                        if (!closed) {
+                            sql.foreach(row -> put(mapper.apply(row)));
+                        }
+                    } finally {
+                        running.remove(sql);
+                    }
+                });
+            } catch (Throwable e) {
+                if (!closed && failure.compareAndSet(null, e)) {
+                    cancelRunning();
+                }
+            } finally {
+                try {
+                    put(END);
+                } catch (RuntimeException ignore) {
+                    // closed by the consumer, which does not wait for the end anymore
+                }
+            }
+        }
+
+        private void put(Object value) {
+            Object item = value == null ? NULL : value;
+            try {
+                while (!queue.offer(item, 50, TimeUnit.MILLISECONDS)) {
+                    if (closed) {
+                        throw new CancellationException("The partitioned scan has been closed");
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw Throwables.propagate(e);
+            }
+        }
+
+        private void cancelRunning() {
+            synchronized (running) {
+                for (SQL sql : running) {
+                    sql.cancel();
+                }
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            try {
+                while (true) {
+                    Throwable cause = failure.get();
+                    if (cause != null) {
+                        close();
+                        throw Throwables.propagate(cause);
+                    }
+                    if (next != null) {
+                        return true;
+                    }
+                    if (remaining == 0 || closed) {
+                        close();
+                        return false;
+                    }
+                    Object item = queue.take();
+                    if (item == END) {
+                        remaining--;
+                    } else {
+                        next = item;
+                    }
+                }
+            } catch (InterruptedException e) {
+                close();
+                Thread.currentThread().interrupt();
+                throw Throwables.propagate(e);
+            }
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public T next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            Object item = next;
+            next = null;
+            return item == NULL ? null : (T) item;
+        }
+
+        @Override
+        public void close() {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            cancelRunning();
+            queue.clear();
+            release(pool);
+        }
+    }
+}
@@ -0,0 +1,463 @@
+package org.reactivecouchbase.sql.connection;
+
+import org.reactivecouchbase.common.Throwables;
+import org.reactivecouchbase.sql.ManagedConnection;
+
+import java.sql.Connection;
+import java.sql.Driver;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.SQLTimeoutException;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Manage a pool of connections to a database. A connection is borrowed for a thread in beforeRequest
+ * and given back to the pool in afterRequest (nested requests on the same thread share the connection),
+ * or borrowed for a request ending on any thread with acquire and release.
+ *
+ * Each borrower gets its own handle on the physical connection: closing it gives the connection back to
+ * the pool, and changing its auto commit, isolation or read only state marks it dirty so it is reset before
+ * being reused. Once given back, a handle and its statements refuse every call but close and isClosed, even
+ * when the connection has been lent to someone else since.
+ */
+public class PooledProvider implements ConnectionProvider {
+
+    private final String url;
+    private final String login;
+    private final String password;
+    private final Driver driver;
+
+    private int minSize = 0;
+    private int maxSize = 10;
+    private long borrowTimeoutMillis = TimeUnit.SECONDS.toMillis(30);
+    private long maxLifetimeMillis = TimeUnit.MINUTES.toMillis(30);
+    private long idleTimeoutMillis = TimeUnit.MINUTES.toMillis(10);
+    private long validationIntervalMillis = TimeUnit.SECONDS.toMillis(5);
+    private int validationTimeoutSeconds = 5;
+
+    private final ConcurrentLinkedDeque<Pooled> idle = new ConcurrentLinkedDeque<>();
+    private final AtomicInteger total = new AtomicInteger(0);
+    private final ThreadLocal<Lease> leases = new ThreadLocal<>();
+    private volatile Semaphore permits;
+    private volatile ScheduledExecutorService housekeeper;
+    private volatile boolean stopped = false;
+
+    PooledProvider(Driver driver, String url, String login, String password) {
+        this.url = url;
+        this.login = login;
+        this.password = password;
+        this.driver = driver;
+    }
+
+    public final PooledProvider withMinSize(int minSize) {
+        if (minSize < 0) {
+            throw new IllegalArgumentException("minSize must be positive");
+        }
+        this.minSize = minSize;
+        return this;
+    }
+
+    public final PooledProvider withMaxSize(int maxSize) {
+        if (maxSize <= 0) {
+            throw new IllegalArgumentException("maxSize must be strictly positive");
+        }
+        this.maxSize = maxSize;
+        return this;
+    }
+
+    public final PooledProvider withBorrowTimeout(long timeout, TimeUnit unit) {
+        this.borrowTimeoutMillis = unit.toMillis(timeout);
+        return this;
+    }
+
+    public final PooledProvider withMaxLifetime(long lifetime, TimeUnit unit) {
+        this.maxLifetimeMillis = unit.toMillis(lifetime);
+        return this;
+    }
+
+    public final PooledProvider withIdleTimeout(long timeout, TimeUnit unit) {
+        this.idleTimeoutMillis = unit.toMillis(timeout);
+        return this;
+    }
+
+    /**
+     * A connection used more recently than this interval is handed out without being validated
+     */
+    public final PooledProvider withValidationInterval(long interval, TimeUnit unit) {
+        this.validationIntervalMillis = unit.toMillis(interval);
+        return this;
+    }
+
+    @Override
+    public final int maxConnections() {
+        return maxSize;
+    }
+
+    public final int totalConnections() {
+        return total.get();
+    }
+
+    public final int idleConnections() {
+        return idle.size();
+    }
+
+    public final int activeConnections() {
+        return Math.max(0, total.get() - idle.size());
+    }
+
+    public final int waitingThreads() {
+        Semaphore semaphore = permits;
+        return semaphore == null ? 0 : semaphore.getQueueLength();
+    }
+
+    @Override
+    public final Connection get() {
+        Lease lease = leases.get();
+        if (lease == null) {
+            return null;
+        }
+        return lease.handle;
+    }
+
+    @Override
+    public final void beforeRequest() {
+        Lease lease = leases.get();
+        if (lease != null) {
+            lease.depth++;
+            return;
+        }
+        leases.set(new Lease(new Handle(borrow())));
+    }
+
+    @Override
+    public final void afterRequest() {
+        Lease lease = leases.get();
+        if (lease == null) {
+            return;
+        }
+        lease.depth--;
+        if (lease.depth <= 0) {
+            leases.remove();
+            lease.handle.close();
+        }
+    }
+
+    @Override
+    public final Connection acquire() {
+        return new Handle(borrow());
+    }
+
+    @Override
+    public final void release(Connection connection) {
+        if (connection instanceof Handle && ((Handle) connection).provider() == this) {
+            ((Handle) connection).close();
+        }
+    }
+
+    @Override
+    public final void start() {
+        if (minSize > maxSize) {
+            throw new IllegalArgumentException("minSize must be lower than maxSize");
+        }
+        try {
+            DriverManager.registerDriver(driver);
+        } catch (SQLException e) {
+            throw Throwables.propagate(e);
+        }
+        stopped = false;
+        permits = new Semaphore(maxSize, true);
+        fill();
+        long period = Math.max(1000L, Math.min(idleTimeoutMillis, maxLifetimeMillis) / 2);
+        housekeeper = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "sql-lib-pool-housekeeper");
+            thread.setDaemon(true);
+            return thread;
+        });
+        housekeeper.scheduleWithFixedDelay(this::houseKeeping, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public final void stop() {
+        Lease lease = leases.get();
+        if (lease != null) {
+            leases.remove();
+            lease.handle.close();
+        }
+        stopped = true;
+        if (housekeeper != null) {
+            housekeeper.shutdownNow();
+        }
+        Pooled pooled;
+        while ((pooled = idle.pollFirst()) != null) {
+            closePhysical(pooled);
+        }
+    }
+
+    private Pooled borrow() {
+        if (stopped) {
+            throw new IllegalStateException("The connection pool is stopped");
+        }
+        try {
+            if (!permits.tryAcquire(borrowTimeoutMillis, TimeUnit.MILLISECONDS)) {
+                throw new SQLTimeoutException("Timed out after " + borrowTimeoutMillis + " ms waiting for a connection to " + url);
+            }
+        } catch (Exception e) {
+            throw Throwables.propagate(e);
+        }
+        try {
+            while (true) {
+                Pooled pooled = idle.pollFirst();
+                if (pooled == null) {
+                    pooled = create();
+                } else if (!usable(pooled, System.currentTimeMillis())) {
+                    closePhysical(pooled);
+                    continue;
+                }
+                pooled.inUse.set(true);
+                return pooled;
+            }
+        } catch (Throwable e) {
+            permits.release();
+            throw Throwables.propagate(e);
+        }
+    }
+
+    private void giveBack(Pooled pooled) {
+        if (!pooled.inUse.compareAndSet(true, false)) {
+            return;
+        }
+        try {
+            long now = System.currentTimeMillis();
+            if (stopped || expired(pooled, now) || !pooled.reset()) {
+                closePhysical(pooled);
+            } else {
+                pooled.lastUsed = now;
+                idle.offerFirst(pooled);
+            }
+        } finally {
+            permits.release();
+        }
+    }
+
+    private boolean usable(Pooled pooled, long now) {
+        if (expired(pooled, now)) {
+            return false;
+        }
+        if (now - pooled.lastUsed < validationIntervalMillis) {
+            return true;
+        }
+        try {
+            return pooled.raw.isValid(validationTimeoutSeconds);
+        } catch (SQLException e) {
+            return false;
+        }
+    }
+
+    private boolean expired(Pooled pooled, long now) {
+        if (maxLifetimeMillis > 0 && now - pooled.createdAt > maxLifetimeMillis) {
+            return true;
+        }
+        return idleTimeoutMillis > 0 && now - pooled.lastUsed > idleTimeoutMillis && total.get() > minSize;
+    }
+
+    private Pooled create() throws SQLException {
+        total.incrementAndGet();
+        try {
+            Connection raw = DriverManager.getConnection(url, login, password);
+            return new Pooled(raw);
+        } catch (SQLException | RuntimeException e) {
+            total.decrementAndGet();
+            throw e;
+        }
+    }
+
+    private void closePhysical(Pooled pooled) {
+        total.decrementAndGet();
+        try {
+            pooled.closePhysical();
+        } catch (SQLException ignore) {
+            // the connection is discarded anyway
+        }
+    }
+
+    private void fill() {
+        while (!stopped && total.get() < minSize) {
+            try {
+                idle.offerLast(create());
+            } catch (SQLException e) {
+                throw Throwables.propagate(e);
+            }
+        }
+    }
+
+    private void houseKeeping() {
+        try {
+            long now = System.currentTimeMillis();
+            for (Pooled pooled : idle) {
+                if (expired(pooled, now) && idle.remove(pooled)) {
+                    closePhysical(pooled);
+                }
+            }
+            fill();
+        } catch (Throwable e) {
+            // the next run will try again
+        }
+    }
+
+    private static final class Lease {
+        private final Handle handle;
+        private int depth = 1;
+
+        Lease(Handle handle) {
+            this.handle = handle;
+        }
+    }
+
+    private final class Pooled extends ManagedConnection {
+        private final Connection raw;
+        private final long createdAt;
+        private final boolean defaultAutoCommit;
+        private final int defaultIsolation;
+        private final boolean defaultReadOnly;
+        private final AtomicBoolean inUse = new AtomicBoolean(false);
+        private volatile long lastUsed;
+        private volatile boolean dirty = false;
+
+        Pooled(Connection raw) throws SQLException {
+            super(raw, true);
+            this.raw = raw;
+            this.createdAt = System.currentTimeMillis();
+            this.lastUsed = createdAt;
+            this.defaultAutoCommit = raw.getAutoCommit();
+            this.defaultIsolation = raw.getTransactionIsolation();
+            this.defaultReadOnly = raw.isReadOnly();
+        }
+
+        /**
+         * Rollback pending work and restore the initial state if it has been changed.
+         * Returns false if the connection should not be reused.
+         */
+        boolean reset() {
+            if (!dirty && defaultAutoCommit) {
+                return true;
+            }
+            try {
+                if (!raw.getAutoCommit()) {
+                    raw.rollback();
+                }
+                if (dirty) {
+                    if (raw.getAutoCommit() != defaultAutoCommit) {
+                        raw.setAutoCommit(defaultAutoCommit);
+                    }
+                    if (raw.getTransactionIsolation() != defaultIsolation) {
+                        raw.setTransactionIsolation(defaultIsolation);
+                    }
+                    if (raw.isReadOnly() != defaultReadOnly) {
+                        raw.setReadOnly(defaultReadOnly);
+                    }
+                    dirty = false;
+                }
+                return true;
+            } catch (SQLException e) {
+                return false;
+            }
+        }
+
+        /**
+         * Close the cached statements and the physical connection
+         */
+        void closePhysical() throws SQLException {
+            super.close();
+        }
+
+        /**
+         * The cached statements return this connection from getConnection, they may only use it while it is lent
+         */
+        @Override
+        protected void checkOpen() throws SQLException {
+            if (!inUse.get()) {
+                throw new SQLException("connection closed");
+            }
+        }
+
+        @Override
+        public void close() {
+            // the connection is given back by the handle of its borrower, and closed by the pool
+        }
+
+        @Override
+        public String toString() {
+            return "Pooled(" + raw + ")";
+        }
+    }
+
+    /**
+     * The connection handed out to one borrower, only its first close gives the connection back
+     */
+    private final class Handle extends ManagedConnection {
+        private final Pooled pooled;
+        private final AtomicBoolean open = new AtomicBoolean(true);
+
+        Handle(Pooled pooled) {
+            super(pooled);
+            this.pooled = pooled;
+        }
+
+        PooledProvider provider() {
+            return PooledProvider.this;
+        }
+
+        @Override
+        protected void checkOpen() throws SQLException {
+            if (!open.get()) {
+                throw new SQLException("connection closed");
+            }
+        }
+
+        @Override
+        public void close() {
+            if (!open.compareAndSet(true, false)) {
+                return;
+            }
+            Lease lease = leases.get();
+            if (lease != null && lease.handle == this) {
+                leases.remove();
+            }
+            giveBack(pooled);
+        }
+
+        @Override
+        public boolean isClosed() throws SQLException {
+            return !open.get() || pooled.raw.isClosed();
+        }
+
+        @Override
+        public void setAutoCommit(boolean autoCommit) throws SQLException {
+            pooled.dirty = true;
+            super.setAutoCommit(autoCommit);
+        }
+
+        @Override
+        public void setTransactionIsolation(int level) throws SQLException {
+            pooled.dirty = true;
+            super.setTransactionIsolation(level);
+        }
+
+        @Override
+        public void setReadOnly(boolean readOnly) throws SQLException {
+            pooled.dirty = true;
+            super.setReadOnly(readOnly);
+        }
+
+        @Override
+        public String toString() {
+            return pooled.toString();
+        }
+    }
+}
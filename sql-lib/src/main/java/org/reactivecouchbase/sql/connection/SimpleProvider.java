@@ -1,6 +1,7 @@
 package org.reactivecouchbase.sql.connection;
 
 import org.reactivecouchbase.common.Throwables;
+import org.reactivecouchbase.sql.ManagedConnection;
 
 import java.sql.Connection;
 import java.sql.Driver;
@@ -34,7 +35,7 @@ public class SimpleProvider implements ConnectionProvider {
     public final void beforeRequest() {
         if (connection.get() == null) {
             try {
-                connection.set(DriverManager.getConnection(url, login, password));
+                connection.set(new ManagedConnection(DriverManager.getConnection(url, login, password), true));
             } catch (SQLException e) {
                 throw Throwables.propagate(e);
             }
@@ -53,6 +54,27 @@ public class SimpleProvider implements ConnectionProvider {
         connection.remove();
     }
 
+    /**
+     * A connection of its own for the request, not bound to the thread
+     */
+    @Override
+    public final Connection acquire() {
+        try {
+            return new ManagedConnection(DriverManager.getConnection(url, login, password), true);
+        } catch (SQLException e) {
+            throw Throwables.propagate(e);
+        }
+    }
+
+    @Override
+    public final void release(Connection connection) {
+        try {
+            connection.close();
+        } catch (SQLException e) {
+            throw Throwables.propagate(e);
+        }
+    }
+
     @Override
     public final void start() {
         try {
@@ -0,0 +1,404 @@
+package org.reactivecouchbase.sql.connection;
+
+import org.reactivecouchbase.common.Throwables;
+import org.reactivecouchbase.concurrent.Future;
+import org.reactivecouchbase.concurrent.Promise;
+import org.reactivecouchbase.functional.Tuple;
+import org.reactivecouchbase.sql.API;
+import org.reactivecouchbase.sql.Batch;
+import org.reactivecouchbase.sql.FlushStats;
+import org.reactivecouchbase.sql.Query;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Write rows behind the backs of the threads producing them: any thread can enqueue the parameters of a
+ * row, and a background flusher drains the queue into large batches executed on its own connection.
+ *
+ * The future of each enqueued row completes with its update count once its batch is committed, or fails
+ * with the cause of the failure of its batch (the whole batch is rolled back). When the queue is full, the
+ * backpressure policy decides whether enqueue blocks, drops the row or throws. The queue is lock free, its
+ * capacity is a counter of the rows not written yet, reserved by compare and set.
+ */
+public final class WriteBehindWriter implements AutoCloseable {
+
+    public enum Backpressure {
+        /** wait for room in the queue */
+        BLOCK,
+        /** drop the row, its future fails and it is counted in droppedRows */
+        DROP,
+        /** throw a RejectedExecutionException */
+        FAIL
+    }
+
+    private static final AtomicInteger COUNTER = new AtomicInteger(0);
+
+    private static final class Entry {
+        private final List<Tuple<String, Object>> params;
+        private final Promise<Integer> promise = new Promise<>();
+
+        Entry(List<Tuple<String, Object>> params) {
+            this.params = params;
+        }
+    }
+
+    private final Database database;
+    private final Query query;
+    private final ConcurrentLinkedQueue<Entry> queue = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger size = new AtomicInteger(0);
+    private final AtomicInteger reserved = new AtomicInteger(0);
+    private final ConcurrentLinkedQueue<Thread> waiting = new ConcurrentLinkedQueue<>();
+    private final LongAdder dropped = new LongAdder();
+    private final LongAdder written = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    private int batchSize = 1000;
+    private int capacity = 10000;
+    private long maxDelayNanos = TimeUnit.MILLISECONDS.toNanos(10);
+    private Backpressure backpressure = Backpressure.BLOCK;
+    private boolean multiRowInserts = false;
+    private volatile Thread flusher;
+    private volatile boolean closed = false;
+    private volatile boolean stopped = false;
+    private volatile Throwable failure;
+    private volatile FlushStats stats;
+
+    WriteBehindWriter(Database database, String sql) {
+        this.database = database;
+        this.query = Query.preparedQuery(sql);
+    }
+
+    private void checkNotStarted() {
+        if (flusher != null) {
+            throw new IllegalStateException("The writer is already started");
+        }
+    }
+
+    /**
+     * The maximum number of rows per batch, 1000 by default
+     */
+    public synchronized WriteBehindWriter withBatchSize(int batchSize) {
+        if (batchSize <= 0) {
+            throw new IllegalArgumentException("batchSize must be strictly positive");
+        }
+        checkNotStarted();
+        this.batchSize = batchSize;
+        return this;
+    }
+
+    /**
+     * The maximum number of rows waiting for the flusher, 10000 by default
+     */
+    public synchronized WriteBehindWriter withCapacity(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("capacity must be strictly positive");
+        }
+        checkNotStarted();
+        this.capacity = capacity;
+        return this;
+    }
+
+    /**
+     * How long the flusher waits for a batch to fill up before executing it, 10 milliseconds by default
+     */
+    public synchronized WriteBehindWriter withMaxDelay(long maxDelay, TimeUnit unit) {
+        checkNotStarted();
+        this.maxDelayNanos = unit.toNanos(maxDelay);
+        return this;
+    }
+
+    public synchronized WriteBehindWriter withBackpressure(Backpressure backpressure) {
+        checkNotStarted();
+        this.backpressure = backpressure;
+        return this;
+    }
+
+    /**
+     * Execute the batches as multi-row INSERT statements, see Batch.withMultiRowInserts
+     */
+    public synchronized WriteBehindWriter withMultiRowInserts() {
+        checkNotStarted();
+        this.multiRowInserts = true;
+        return this;
+    }
+
+    private Thread start() {
+        Thread thread = flusher;
+        if (thread == null) {
+            synchronized (this) {
+                thread = flusher;
+                if (thread == null) {
+                    thread = new Thread(this::run, "sql-lib-write-behind-" + COUNTER.incrementAndGet());
+                    thread.setDaemon(true);
+                    flusher = thread;
+                    thread.start();
+                }
+            }
+        }
+        return thread;
+    }
+
+    @SafeVarargs
+    public final Future<Integer> enqueue(Tuple<String, Object>... pairs) {
+        List<Tuple<String, Object>> params = new ArrayList<>(pairs.length);
+        for (Tuple<String, Object> pair : pairs) {
+            params.add(pair);
+        }
+        return offer(params);
+    }
+
+    /**
+     * Enqueue the parameters of a row, the returned future completes with its update count once its batch
+     * is committed
+     */
+    public Future<Integer> enqueue(List<Tuple<String, Object>> pairs) {
+        return offer(new ArrayList<>(pairs));
+    }
+
+    private Future<Integer> offer(List<Tuple<String, Object>> params) {
+        checkOpen();
+        Thread thread = start();
+        Entry entry = new Entry(params);
+        switch (backpressure) {
+            case BLOCK:
+                reserve();
+                break;
+            case DROP:
+                if (!tryReserve()) {
+                    dropped.increment();
+                    entry.promise.tryFailure(new RejectedExecutionException("The write behind queue is full, the row has been dropped"));
+                    return entry.promise.future();
+                }
+                break;
+            default:
+                if (!tryReserve()) {
+                    throw new RejectedExecutionException("The write behind queue is full");
+                }
+        }
+        if (closed) {
+            release(1);
+            checkOpen();
+        }
+        queue.offer(entry);
+        int queued = size.incrementAndGet();
+        if (stopped) {
+            // the flusher may have stopped before seeing the row
+            failRemaining();
+        } else if (queued == 1 || queued == batchSize) {
+            LockSupport.unpark(thread);
+        }
+        return entry.promise.future();
+    }
+
+    private boolean tryReserve() {
+        while (true) {
+            int current = reserved.get();
+            if (current >= capacity) {
+                return false;
+            }
+            if (reserved.compareAndSet(current, current + 1)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Wait for room in the queue, the flusher wakes the waiting threads up once it has written a batch
+     */
+    private void reserve() {
+        if (tryReserve()) {
+            return;
+        }
+        Thread current = Thread.currentThread();
+        waiting.offer(current);
+        try {
+            while (!tryReserve()) {
+                checkOpen();
+                LockSupport.parkNanos(this, TimeUnit.MILLISECONDS.toNanos(10));
+                if (Thread.interrupted()) {
+                    current.interrupt();
+                    throw Throwables.propagate(new InterruptedException("Interrupted while waiting for room in the write behind queue"));
+                }
+            }
+        } finally {
+            waiting.remove(current);
+        }
+    }
+
+    private void release(int rows) {
+        reserved.addAndGet(-rows);
+        for (Thread thread : waiting) {
+            LockSupport.unpark(thread);
+        }
+    }
+
+    private void checkOpen() {
+        Throwable cause = failure;
+        if (cause != null) {
+            throw new IllegalStateException("The writer has failed", cause);
+        }
+        if (closed) {
+            throw new IllegalStateException("The writer is closed");
+        }
+    }
+
+    /**
+     * The flusher holds one connection for its whole life and commits every batch on it
+     */
+    private void run() {
+        try {
+            database.withConnection(false, connection -> {
+                boolean autoCommit = true;
+                try {
+                    autoCommit = connection.getAutoCommit();
+                    connection.setAutoCommit(false);
+                    try (Batch batch = API.batch(connection, query)) {
+                        if (multiRowInserts) {
+                            batch.withMultiRowInserts();
+                        }
+                        stats = batch.flushStats();
+                        List<Entry> entries = new ArrayList<>(batchSize);
+                        while (awaitBatch()) {
+                            drain(entries);
+                            write(connection, batch, entries);
+                            entries.clear();
+                        }
+                    }
+                } catch (SQLException e) {
+                    throw Throwables.propagate(e);
+                } finally {
+                    try {
+                        connection.setAutoCommit(autoCommit);
+                    } catch (SQLException e) {
+                        // the connection is broken, it will be discarded
+                    }
+                }
+            });
+        } catch (Throwable e) {
+            failure = e;
+        } finally {
+            stopped = true;
+            failRemaining();
+        }
+    }
+
+    /**
+     * Wait for a full batch, or for the delay since the first waiting row. Returns false once the writer
+     * is closed and the queue is empty.
+     */
+    private boolean awaitBatch() {
+        while (size.get() == 0) {
+            if (closed) {
+                return false;
+            }
+            LockSupport.parkNanos(this, TimeUnit.MILLISECONDS.toNanos(100));
+        }
+        long deadline = System.nanoTime() + maxDelayNanos;
+        long remaining;
+        while (size.get() < batchSize && !closed && (remaining = deadline - System.nanoTime()) > 0) {
+            LockSupport.parkNanos(this, remaining);
+        }
+        return true;
+    }
+
+    private void drain(List<Entry> entries) {
+        Entry entry;
+        while (entries.size() < batchSize && (entry = queue.poll()) != null) {
+            entries.add(entry);
+        }
+        size.addAndGet(-entries.size());
+    }
+
+    private void write(Connection connection, Batch batch, List<Entry> entries) throws SQLException {
+        try {
+            for (Entry entry : entries) {
+                batch.on(entry.params).batch();
+            }
+            List<Integer> counts = batch.executeBatch();
+            connection.commit();
+            written.add(entries.size());
+            for (int i = 0; i < entries.size(); i++) {
+                entries.get(i).promise.trySuccess(i < counts.size() ? counts.get(i) : Statement.SUCCESS_NO_INFO);
+            }
+        } catch (Exception e) {
+            failed.add(entries.size());
+            for (Entry entry : entries) {
+                entry.promise.tryFailure(e);
+            }
+            try {
+                batch.clearBatch();
+                connection.rollback();
+            } catch (RuntimeException | SQLException rollbackFailure) {
+                // the connection cannot be trusted anymore, the flusher stops and fails the remaining rows
+                rollbackFailure.addSuppressed(e);
+                throw rollbackFailure;
+            }
+        } finally {
+            release(entries.size());
+        }
+    }
+
+    private void failRemaining() {
+        Throwable cause = failure != null ? failure : new IllegalStateException("The writer is closed");
+        Entry entry;
+        while ((entry = queue.poll()) != null) {
+            size.decrementAndGet();
+            release(1);
+            failed.increment();
+            entry.promise.tryFailure(cause);
+        }
+    }
+
+    /**
+     * The number of rows waiting for the flusher
+     */
+    public int pendingRows() {
+        return size.get();
+    }
+
+    public long writtenRows() {
+        return written.sum();
+    }
+
+    public long failedRows() {
+        return failed.sum();
+    }
+
+    public long droppedRows() {
+        return dropped.sum();
+    }
+
+    /**
+     * The statistics of the batches of the flusher, or null if it has not started yet
+     */
+    public FlushStats flushStats() {
+        return stats;
+    }
+
+    /**
+     * Stop accepting rows, and wait for the flusher to write the rows already enqueued
+     */
+    @Override
+    public void close() {
+        closed = true;
+        Thread thread = flusher;
+        if (thread != null) {
+            LockSupport.unpark(thread);
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw Throwables.propagate(e);
+            }
+        }
+    }
+}
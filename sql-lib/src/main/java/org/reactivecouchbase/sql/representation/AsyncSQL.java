@@ -10,72 +10,103 @@ import org.reactivecouchbase.sql.SQL;
 
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CancellationException;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
 import java.util.function.Consumer;
 import java.util.function.Function;
+import java.util.function.Supplier;
 
 public class AsyncSQL {
 
     private final SQL sql;
     private final ExecutorService ec;
+    private volatile boolean cancelled = false;
 
     public AsyncSQL(SQL sql, ExecutorService ec) {
         this.sql = sql;
         this.ec = ec;
     }
 
+    /**
+     * Fail the futures of the operations taking longer than the timeout, the query being stopped on the
+     * server side and the executor thread released
+     */
+    public AsyncSQL withTimeout(long timeout, TimeUnit unit) {
+        sql.withTimeout(timeout, unit);
+        return this;
+    }
+
+    /**
+     * Cancel the running operations, and fail the ones that have not started yet with a
+     * CancellationException without touching the database
+     */
+    public void cancel() {
+        cancelled = true;
+        sql.cancel();
+    }
+
+    private <T> Future<T> async(Supplier<T> operation) {
+        return Future.async(() -> {
+            if (cancelled) {
+                throw new CancellationException("The query has been cancelled");
+            }
+            return operation.get();
+        }, ec);
+    }
+
     public Future<Boolean> execute() {
-        return Future.async(sql::execute, ec);
+        return async(sql::execute);
     }
 
     public Future<Integer> executeUpdate() {
-        return Future.async(sql::executeUpdate, ec);
+        return async(sql::executeUpdate);
     }
 
     public <T> Future<List<T>> collect(Function<Row, Option<T>> parser) {
-        return Future.async(() -> sql.collect(parser), ec);
+        return async(() -> sql.collect(parser));
     }
 
     public <T> Future<Option<T>> collectSingle(Function<Row, Option<T>> parser) {
-        return Future.async(() -> sql.collectSingle(parser), ec);
+        return async(() -> sql.collectSingle(parser));
     }
 
     public Future<List<Row>> all() {
-        return Future.async(sql::all, ec);
+        return async(sql::all);
     }
 
     public Future<Option<Row>> single() {
-        return Future.async(sql::single, ec);
+        return async(sql::single);
     }
 
     public Future<JsArray> asJsArray() {
-        return Future.async(sql::asJsArray, ec);
+        return async(sql::asJsArray);
     }
 
     public Future<List<JsValue>> asJson() {
-        return Future.async(sql::asJson, ec);
+        return async(sql::asJson);
     }
 
     public <K, V> Future<Map<K, V>> indexBy(String colName, Class<K> clazz, Function<Row, V> parser) {
-        return Future.async(() -> sql.indexBy(colName, clazz, parser), ec);
+        return async(() -> sql.indexBy(colName, clazz, parser));
     }
 
     public <K, V> Future<Map<K, V>> indexBy(Function<Row, K> grouper, Function<Row, V> parser) {
-        return Future.async(() -> sql.indexBy(grouper, parser), ec);
+        return async(() -> sql.indexBy(grouper, parser));
     }
 
     public <K, V> Future<Map<K, List<V>>> groupBy(String colName, Class<K> clazz, Function<Row, V> parser) {
-        return Future.async(() -> sql.groupBy(colName, clazz, parser), ec);
+        return async(() -> sql.groupBy(colName, clazz, parser));
     }
 
     public Future<Unit> foreach(Consumer<Row> action) {
-        return Future.async(() -> {
+        return async(() -> {
             sql.foreach(action);
             return Unit.unit();
-        }, ec);
+        });
     }
 
     public <K, V> Future<Map<K, List<V>>> groupBy(Function<Row, K> grouper, Function<Row, V> parser) {
-        return Future.async(() -> sql.groupBy(grouper, parser), ec);
+        return async(() -> sql.groupBy(grouper, parser));
     }
 }
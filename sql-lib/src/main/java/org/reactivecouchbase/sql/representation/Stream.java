@@ -2,6 +2,7 @@ package org.reactivecouchbase.sql.representation;
 
 import org.reactivecouchbase.common.Holder;
 import org.reactivecouchbase.functional.Option;
+import org.reactivecouchbase.sql.PrimitiveBuffers;
 import org.reactivecouchbase.sql.Row;
 import org.reactivecouchbase.sql.SQL;
 
@@ -13,6 +14,9 @@ import java.util.function.BiFunction;
 import java.util.function.Consumer;
 import java.util.function.Function;
 import java.util.function.Predicate;
+import java.util.function.ToDoubleFunction;
+import java.util.function.ToIntFunction;
+import java.util.function.ToLongFunction;
 
 public class Stream<T> {
 
@@ -91,7 +95,7 @@ public class Stream<T> {
 
     public <K, V> Map<K, V> indexBy(final Function<T, K> grouper, final Function<T, V> extractor) {
         final Map<K, V> map = new HashMap<>();
-        sql.collect((Function<Row, Option<T>>) row -> {
+        sql.foreach(row -> {
             Option<T> opt = pipeline.apply(row);
             if (opt != null && opt.isDefined()) {
                 T initValue = opt.get();
@@ -99,7 +103,6 @@ public class Stream<T> {
                 V value = extractor.apply(initValue);
                 map.put(key, value);
             }
-            return Option.none();
         });
         return map;
     }
@@ -121,6 +124,49 @@ public class Stream<T> {
         return map;
     }
 
+    public long[] collectLongs(final ToLongFunction<T> extractor) {
+        PrimitiveBuffers.Longs buffer = new PrimitiveBuffers.Longs();
+        sql.foreach(row -> {
+            Option<T> opt = pipeline.apply(row);
+            if (opt != null && opt.isDefined()) {
+                buffer.add(extractor.applyAsLong(opt.get()));
+            }
+        });
+        return buffer.toArray();
+    }
+
+    public int[] collectInts(final ToIntFunction<T> extractor) {
+        PrimitiveBuffers.Ints buffer = new PrimitiveBuffers.Ints();
+        sql.foreach(row -> {
+            Option<T> opt = pipeline.apply(row);
+            if (opt != null && opt.isDefined()) {
+                buffer.add(extractor.applyAsInt(opt.get()));
+            }
+        });
+        return buffer.toArray();
+    }
+
+    public double[] collectDoubles(final ToDoubleFunction<T> extractor) {
+        PrimitiveBuffers.Doubles buffer = new PrimitiveBuffers.Doubles();
+        sql.foreach(row -> {
+            Option<T> opt = pipeline.apply(row);
+            if (opt != null && opt.isDefined()) {
+                buffer.add(extractor.applyAsDouble(opt.get()));
+            }
+        });
+        return buffer.toArray();
+    }
+
+    /**
+     * A lazy java.util.stream.Stream over the values of this stream, see SQL.javaStream
+     */
+    public java.util.stream.Stream<T> javaStream() {
+        return sql.javaStream()
+                .map(pipeline)
+                .filter(opt -> opt != null && opt.isDefined())
+                .map(Option::get);
+    }
+
     public List<T> run() {
         return sql.collect(pipeline::apply);
     }
@@ -0,0 +1,80 @@
+package org.reactivecouchbase.sql.test;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.reactivecouchbase.sql.LatencyHistogram;
+
+import java.util.concurrent.TimeUnit;
+
+public class LatencyHistogramTest {
+
+    private static LatencyHistogram.Snapshot microseconds(long from, long to) {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (long micros = from; micros <= to; micros++) {
+            histogram.record(micros * 1000);
+        }
+        return histogram.snapshot();
+    }
+
+    @Test
+    public void testSmallValuesHaveTheirOwnBucket() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (long nanos = 0; nanos < 4; nanos++) {
+            histogram.record(nanos);
+        }
+        long[][] buckets = histogram.snapshot().buckets();
+        Assert.assertEquals(4, buckets.length);
+        for (int i = 0; i < buckets.length; i++) {
+            Assert.assertArrayEquals(new long[]{i, 1}, buckets[i]);
+        }
+        Assert.assertEquals(1L, histogram.snapshot().percentile(0.5, TimeUnit.NANOSECONDS));
+        Assert.assertEquals(3L, histogram.snapshot().percentile(1.0, TimeUnit.NANOSECONDS));
+    }
+
+    @Test
+    public void testPercentilesWithinAQuarter() {
+        LatencyHistogram.Snapshot snapshot = microseconds(1, 1000);
+        Assert.assertEquals(1000L, snapshot.count());
+        long median = snapshot.percentile(0.5, TimeUnit.MICROSECONDS);
+        Assert.assertTrue("median " + median, median >= 500 && median <= 625);
+        long p99 = snapshot.percentile(0.99, TimeUnit.MICROSECONDS);
+        Assert.assertTrue("p99 " + p99, p99 >= 990 && p99 <= 1000);
+        Assert.assertEquals(1000L, snapshot.percentile(1.0, TimeUnit.MICROSECONDS));
+        Assert.assertEquals(1000L, snapshot.max(TimeUnit.MICROSECONDS));
+        Assert.assertEquals(500.5, snapshot.mean(TimeUnit.MICROSECONDS), 0.001);
+    }
+
+    @Test
+    public void testMergeAndAdd() {
+        LatencyHistogram.Snapshot low = microseconds(1, 100);
+        LatencyHistogram.Snapshot high = microseconds(901, 1000);
+        LatencyHistogram.Snapshot merged = low.merge(high);
+        Assert.assertEquals(200L, merged.count());
+        Assert.assertEquals(1000L, merged.max(TimeUnit.MICROSECONDS));
+        Assert.assertEquals(low.total(TimeUnit.NANOSECONDS) + high.total(TimeUnit.NANOSECONDS), merged.total(TimeUnit.NANOSECONDS));
+        long median = merged.percentile(0.5, TimeUnit.MICROSECONDS);
+        Assert.assertTrue("median " + median, median >= 100 && median <= 125);
+
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.add(low);
+        histogram.add(high);
+        Assert.assertArrayEquals(merged.buckets(), histogram.snapshot().buckets());
+        Assert.assertEquals(1000L, histogram.snapshot().max(TimeUnit.MICROSECONDS));
+    }
+
+    @Test
+    public void testEmptyAndReset() {
+        Assert.assertEquals(0L, LatencyHistogram.Snapshot.EMPTY.count());
+        Assert.assertEquals(0L, LatencyHistogram.Snapshot.EMPTY.percentile(0.99, TimeUnit.NANOSECONDS));
+        Assert.assertEquals(0.0, LatencyHistogram.Snapshot.EMPTY.mean(TimeUnit.NANOSECONDS), 0.0);
+
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(-5);
+        Assert.assertEquals(1L, histogram.snapshot().count());
+        Assert.assertEquals(0L, histogram.snapshot().max(TimeUnit.NANOSECONDS));
+        histogram.record(42);
+        histogram.reset();
+        Assert.assertEquals(0L, histogram.snapshot().count());
+        Assert.assertEquals(0, histogram.snapshot().buckets().length);
+    }
+}
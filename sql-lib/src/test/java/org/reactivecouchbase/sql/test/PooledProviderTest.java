@@ -0,0 +1,259 @@
+package org.reactivecouchbase.sql.test;
+
+import org.h2.Driver;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.reactivecouchbase.concurrent.Future;
+import org.reactivecouchbase.sql.StatementCache;
+import org.reactivecouchbase.sql.connection.Database;
+import org.reactivecouchbase.sql.connection.PooledProvider;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.reactivecouchbase.sql.API.longParser;
+import static org.reactivecouchbase.sql.API.sql;
+import static org.reactivecouchbase.sql.connection.ConnectionAPI.database;
+import static org.reactivecouchbase.sql.connection.ConnectionAPI.pooledProvider;
+
+public class PooledProviderTest {
+
+    private PooledProvider provider;
+    private Database db;
+
+    @Before
+    public void start() {
+        provider = pooledProvider(new Driver(), "jdbc:h2:mem:pool;DB_CLOSE_DELAY=-1", "sa", "")
+                .withMinSize(1)
+                .withMaxSize(2)
+                .withBorrowTimeout(200, TimeUnit.MILLISECONDS);
+        db = database(provider);
+        db.withConnection(true, c -> {
+            sql(c, "drop table if exists counters;").executeUpdate();
+            sql(c, "create table counters (id bigint not null, value bigint not null);").executeUpdate();
+            sql(c, "insert into counters values ({id}, {value})").on("id", 1).on("value", 42).executeUpdate();
+        });
+    }
+
+    @After
+    public void stop() {
+        db.close();
+    }
+
+    @Test
+    public void testConnectionsAreReused() {
+        Assert.assertEquals(1, provider.totalConnections());
+        Connection first = db.withConnection(false, c -> {
+            sql(c, "select value from counters where id = {id}").on("id", 1).collectSingle(longParser("value"));
+            return c;
+        });
+        int cached = StatementCache.cachedStatements(first);
+        Connection second = db.withConnection(false, c -> {
+            Assert.assertEquals(new Long(42L), sql(c, "select value from counters where id = {id}").on("id", 1).collectSingle(longParser("value")).get());
+            return c;
+        });
+        Assert.assertEquals(cached, StatementCache.cachedStatements(second));
+        // each borrower gets its own handle on the same physical connection
+        Assert.assertNotSame(first, second);
+        Assert.assertEquals(1, provider.totalConnections());
+        Assert.assertEquals(1, provider.idleConnections());
+    }
+
+    @Test
+    public void testNestedRequestsShareTheConnection() {
+        db.withConnection(false, outer -> {
+            db.withConnection(false, inner -> {
+                Assert.assertSame(outer, inner);
+            });
+            Assert.assertEquals(1, provider.activeConnections());
+            Assert.assertEquals(new Long(42L), sql(outer, "select value from counters").collectSingle(longParser("value")).get());
+        });
+        Assert.assertEquals(0, provider.activeConnections());
+    }
+
+    @Test
+    public void testDirtyStateIsReset() throws Exception {
+        db.withConnection(false, c -> {
+            try {
+                c.setAutoCommit(false);
+                c.setReadOnly(true);
+                c.setTransactionIsolation(Connection.TRANSACTION_SERIALIZABLE);
+            } catch (Exception e) {
+                throw new RuntimeException(e);
+            }
+        });
+        db.withConnection(false, c -> {
+            try {
+                Assert.assertTrue(c.getAutoCommit());
+                Assert.assertFalse(c.isReadOnly());
+                Assert.assertEquals(Connection.TRANSACTION_READ_COMMITTED, c.getTransactionIsolation());
+            } catch (Exception e) {
+                throw new RuntimeException(e);
+            }
+        });
+    }
+
+    @Test
+    public void testGivenBackConnectionIsRefused() throws Exception {
+        Statement[] statement = new Statement[1];
+        Connection connection = db.withConnection(false, c -> {
+            try {
+                statement[0] = c.prepareStatement("select value from counters");
+                Assert.assertSame(c, statement[0].getConnection());
+            } catch (SQLException e) {
+                throw new RuntimeException(e);
+            }
+            return c;
+        });
+        Assert.assertTrue(connection.isClosed());
+        try {
+            connection.createStatement();
+            Assert.fail("the connection has been given back");
+        } catch (SQLException expected) {
+            Assert.assertEquals("connection closed", expected.getMessage());
+        }
+        try {
+            statement[0].executeQuery("select value from counters");
+            Assert.fail("the connection has been given back");
+        } catch (SQLException expected) {
+            Assert.assertEquals("connection closed", expected.getMessage());
+        }
+        statement[0].close();
+    }
+
+    @Test
+    public void testStaleHandleDoesNotGiveBackTheConnectionOfAnotherBorrower() throws Exception {
+        Connection stale = db.withConnection(false, c -> {
+            return c;
+        });
+        db.withConnection(false, c -> {
+            try {
+                stale.close();
+                Assert.assertTrue(stale.isClosed());
+                Assert.assertFalse(c.isClosed());
+                Assert.assertEquals(1, provider.activeConnections());
+                Assert.assertEquals(new Long(42L), sql(c, "select value from counters").collectSingle(longParser("value")).get());
+            } catch (SQLException e) {
+                throw new RuntimeException(e);
+            }
+        });
+        Assert.assertEquals(0, provider.activeConnections());
+        Assert.assertEquals(1, provider.totalConnections());
+    }
+
+    @Test
+    public void testAsyncConnectionsAreGivenBack() throws Exception {
+        ExecutorService ec = Executors.newFixedThreadPool(2);
+        try {
+            for (int i = 0; i < 4; i++) {
+                CountDownLatch done = new CountDownLatch(1);
+                AtomicInteger value = new AtomicInteger(0);
+                db.withAsyncConnection(false, c -> Future.async(() -> {
+                    return sql(c, "select value from counters").collectSingle(longParser("value")).get();
+                }, ec)).onComplete(result -> {
+                    for (Long v : result.asSuccess()) {
+                        value.set(v.intValue());
+                    }
+                    done.countDown();
+                });
+                Assert.assertTrue(done.await(5, TimeUnit.SECONDS));
+                Assert.assertEquals(42, value.get());
+                // given back from the executor thread, before the future completes
+                Assert.assertEquals(0, provider.activeConnections());
+            }
+            db.withConnection(false, c -> {
+                Assert.assertEquals(1, provider.activeConnections());
+            });
+        } finally {
+            ec.shutdown();
+        }
+    }
+
+    @Test
+    public void testPendingWorkIsRolledBack() {
+        db.withConnection(false, c -> {
+            try {
+                c.setAutoCommit(false);
+            } catch (Exception e) {
+                throw new RuntimeException(e);
+            }
+            sql(c, "insert into counters values ({id}, {value})").on("id", 2).on("value", 0).executeUpdate();
+        });
+        Long count = db.withConnection(false, c -> {
+            return sql(c, "select count(*) as howmany from counters").collectSingle(longParser("howmany")).get();
+        });
+        Assert.assertEquals(new Long(1L), count);
+    }
+
+    @Test
+    public void testBoundedWait() throws Exception {
+        ExecutorService ec = Executors.newFixedThreadPool(3);
+        CountDownLatch borrowed = new CountDownLatch(2);
+        CountDownLatch done = new CountDownLatch(1);
+        AtomicInteger timeouts = new AtomicInteger(0);
+        for (int i = 0; i < 2; i++) {
+            ec.submit(() -> db.withConnection(false, c -> {
+                borrowed.countDown();
+                try {
+                    done.await(5, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    throw new RuntimeException(e);
+                }
+            }));
+        }
+        Assert.assertTrue(borrowed.await(5, TimeUnit.SECONDS));
+        ec.submit(() -> {
+            try {
+                db.withConnection(false, c -> { });
+            } catch (Exception e) {
+                timeouts.incrementAndGet();
+            }
+        }).get(5, TimeUnit.SECONDS);
+        Assert.assertEquals(1, timeouts.get());
+        Assert.assertEquals(2, provider.totalConnections());
+        done.countDown();
+        ec.shutdown();
+        Assert.assertTrue(ec.awaitTermination(5, TimeUnit.SECONDS));
+        Assert.assertEquals(2, provider.idleConnections());
+    }
+
+    @Test
+    public void testAsyncBulkhead() throws Exception {
+        Assert.assertEquals(2, db.asyncExecutor().permits());
+        AtomicInteger running = new AtomicInteger(0);
+        AtomicInteger maxRunning = new AtomicInteger(0);
+        AtomicInteger succeeded = new AtomicInteger(0);
+        CountDownLatch done = new CountDownLatch(20);
+        for (int i = 0; i < 20; i++) {
+            db.async(false, c -> {
+                maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+                try {
+                    Thread.sleep(20);
+                    return sql(c, "select value from counters where id = {id}").on("id", 1).collectSingle(longParser("value")).get();
+                } catch (InterruptedException e) {
+                    throw new RuntimeException(e);
+                } finally {
+                    running.decrementAndGet();
+                }
+            }).onComplete(result -> {
+                for (Long value : result.asSuccess()) {
+                    if (value == 42L) {
+                        succeeded.incrementAndGet();
+                    }
+                }
+                done.countDown();
+            });
+        }
+        Assert.assertTrue(done.await(10, TimeUnit.SECONDS));
+        Assert.assertEquals(20, succeeded.get());
+        Assert.assertTrue(maxRunning.get() <= 2);
+    }
+}
@@ -0,0 +1,91 @@
+package org.reactivecouchbase.sql.test;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.reactivecouchbase.sql.Query;
+import org.reactivecouchbase.sql.QueryCache;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.reactivecouchbase.sql.API.globalQueryCacheSize;
+import static org.reactivecouchbase.sql.API.queryCache;
+
+public class QueryCacheTest {
+
+    @Before
+    public void start() {
+        globalQueryCacheSize(16);
+        queryCache().clear();
+        queryCache().resetStats();
+    }
+
+    @After
+    public void stop() {
+        globalQueryCacheSize(1024);
+    }
+
+    @Test
+    public void testHitsAndMisses() {
+        QueryCache cache = queryCache();
+        Query first = Query.preparedQuery("select * from persons where id = {id}");
+        Query second = Query.preparedQuery("select * from persons where id = {id}");
+        Assert.assertSame(first, second);
+        Assert.assertEquals("select * from persons where id = ?", first.getPreparedSqlQuery());
+        Assert.assertEquals(1L, cache.misses());
+        Assert.assertEquals(1L, cache.hits());
+        Assert.assertEquals(1, cache.size());
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void testCachedQueriesAreImmutable() {
+        Query.preparedQuery("select * from persons where id = {id}").getParamNames().add("name");
+    }
+
+    @Test
+    public void testEviction() {
+        QueryCache cache = queryCache();
+        Query hot = Query.preparedQuery("select * from persons where id = {id}");
+        for (int i = 0; i < 100; i++) {
+            Query.preparedQuery("select * from persons where age = " + i);
+            Assert.assertSame(hot, Query.preparedQuery("select * from persons where id = {id}"));
+        }
+        Assert.assertTrue(cache.size() <= 16);
+        Assert.assertTrue(cache.evictions() >= 84);
+    }
+
+    @Test
+    public void testDisabled() {
+        globalQueryCacheSize(0);
+        Query first = Query.preparedQuery("select * from persons where id = {id}");
+        Query second = Query.preparedQuery("select * from persons where id = {id}");
+        Assert.assertNotSame(first, second);
+        Assert.assertEquals(0, queryCache().size());
+    }
+
+    @Test
+    public void testConcurrentAccess() throws Exception {
+        ExecutorService ec = Executors.newFixedThreadPool(8);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int t = 0; t < 8; t++) {
+            futures.add(ec.submit(() -> {
+                for (int i = 0; i < 10000; i++) {
+                    Query q = Query.preparedQuery("select * from persons where age > {low} and id = " + (i % 32));
+                    Assert.assertEquals(1, q.getParamNames().size());
+                }
+            }));
+        }
+        for (Future<?> future : futures) {
+            future.get(30, TimeUnit.SECONDS);
+        }
+        ec.shutdown();
+        Assert.assertEquals(80000L, queryCache().hits() + queryCache().misses());
+        Assert.assertTrue(queryCache().size() <= 16 + 8);
+    }
+}
@@ -0,0 +1,51 @@
+package org.reactivecouchbase.sql.test;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.reactivecouchbase.sql.Query;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+public class QueryTest {
+
+    @Test
+    public void testSimplePlaceholders() {
+        Query query = Query.preparedQuery("SELECT * FROM Persons WHERE age > { low} AND age < {high}");
+        Assert.assertEquals("SELECT * FROM Persons WHERE age > ? AND age < ?", query.getPreparedSqlQuery());
+        Assert.assertEquals(Arrays.asList("low", "high"), query.getParamNames());
+    }
+
+    @Test
+    public void testRepeatedAndReorderedNames() {
+        Query query = Query.preparedQuery("select * from t where a = {a} or b = {b} or c = {a} or d = {b}");
+        Assert.assertEquals("select * from t where a = ? or b = ? or c = ? or d = ?", query.getPreparedSqlQuery());
+        Assert.assertEquals(Arrays.asList("a", "b", "a", "b"), query.getParamNames());
+    }
+
+    @Test
+    public void testPlaceholdersInLiteralsAndCommentsAreIgnored() {
+        Query query = Query.preparedQuery(
+                "select '{a}', 'it''s {b}', \"{c}\" -- {d}\n" +
+                "from t /* {e} */ where x = {x} and y = '{y}'");
+        Assert.assertEquals(
+                "select '{a}', 'it''s {b}', \"{c}\" -- {d}\n" +
+                "from t /* {e} */ where x = ? and y = '{y}'", query.getPreparedSqlQuery());
+        Assert.assertEquals(Collections.singletonList("x"), query.getParamNames());
+    }
+
+    @Test
+    public void testNonPlaceholderBracesAreKept() {
+        Query query = Query.preparedQuery("{call proc({id})} {} { } {a.b}");
+        Assert.assertEquals("{call proc(?)} {} { } {a.b}", query.getPreparedSqlQuery());
+        Assert.assertEquals(Collections.singletonList("id"), query.getParamNames());
+    }
+
+    @Test
+    public void testUnterminatedConstructs() {
+        Assert.assertEquals("select '{a}", Query.preparedQuery("select '{a}").getPreparedSqlQuery());
+        Assert.assertEquals("select /* {a}", Query.preparedQuery("select /* {a}").getPreparedSqlQuery());
+        Assert.assertEquals("select {a", Query.preparedQuery("select {a").getPreparedSqlQuery());
+        Assert.assertEquals("select a - b / c", Query.preparedQuery("select a - b / c").getPreparedSqlQuery());
+    }
+}
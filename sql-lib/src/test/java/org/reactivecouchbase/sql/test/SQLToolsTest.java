@@ -5,17 +5,47 @@ import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
 import org.reactivecouchbase.functional.Option;
+import org.reactivecouchbase.functional.Tuple;
 import org.reactivecouchbase.json.Json;
 import org.reactivecouchbase.sql.Batch;
+import org.reactivecouchbase.sql.BatchSummary;
+import org.reactivecouchbase.sql.FlushStats;
+import org.reactivecouchbase.sql.InMemoryMetrics;
+import org.reactivecouchbase.sql.Query;
+import org.reactivecouchbase.sql.ResultCache;
+import org.reactivecouchbase.sql.ResultIterator;
+import org.reactivecouchbase.sql.Row;
+import org.reactivecouchbase.sql.RowSchema;
+import org.reactivecouchbase.sql.SlowQueryLog;
+import org.reactivecouchbase.sql.StatementCache;
 import org.reactivecouchbase.sql.connection.Database;
+import org.reactivecouchbase.sql.connection.PartitionedScan;
+import org.reactivecouchbase.sql.connection.WriteBehindWriter;
 import rx.Observable;
+import rx.Subscription;
+import rx.observers.TestSubscriber;
 
+import java.io.ByteArrayOutputStream;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.Timestamp;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
 
 import static org.reactivecouchbase.sql.API.*;
 import static org.reactivecouchbase.sql.connection.ConnectionAPI.database;
@@ -148,6 +178,269 @@ public class SQLToolsTest {
         });
     }
 
+    @Test
+    public void testBatchFlushPolicies() {
+        DB.withConnection(false, c -> {
+            String insert = "insert into persons values ( {id}, {name}, {surname}, {age}, {cell}, {address}, {email} );";
+            String count = "SELECT COUNT(*) as howmany from Persons where email = 'flush@bob.com'";
+            Batch bySize = batch(c, 100, insert).withMaxBytes(120);
+            for (int i = 0; i < 7; i++) {
+                bySize.on("id", i + 700).on("name", "John").on("surname", "Doe").on("age", 42)
+                    .on("cell", "0606060606").on("address", "Here").on("email", "flush@bob.com").batch();
+            }
+            Assert.assertEquals(new Integer(6), sql(c, count).collectSingle(integerParser("howmany")).getOrElse(0));
+            Assert.assertEquals(2L, bySize.flushStats().flushes(FlushStats.Reason.BYTES));
+            bySize.close();
+            Assert.assertEquals(new Integer(7), sql(c, count).collectSingle(integerParser("howmany")).getOrElse(0));
+            Assert.assertEquals(7L, bySize.flushStats().rows());
+
+            Batch byAge = batch(c, 100, insert).withMaxAge(50, TimeUnit.MILLISECONDS);
+            for (int i = 0; i < 2; i++) {
+                byAge.on("id", i + 800).on("name", "John").on("surname", "Doe").on("age", 42)
+                    .on("cell", "0606060606").on("address", "Here").on("email", "flush@bob.com").batch();
+            }
+            try {
+                Thread.sleep(200);
+            } catch (InterruptedException e) {
+                throw new RuntimeException(e);
+            }
+            // without an owner executor, the age is checked when the next row is added
+            Assert.assertEquals(new Integer(2), byAge.enqueued());
+            byAge.on("id", 802).on("name", "John").on("surname", "Doe").on("age", 42)
+                .on("cell", "0606060606").on("address", "Here").on("email", "flush@bob.com").batch();
+            Assert.assertEquals(new Integer(0), byAge.enqueued());
+            Assert.assertEquals(1L, byAge.flushStats().flushes(FlushStats.Reason.AGE));
+            Assert.assertEquals(new Integer(10), sql(c, count).collectSingle(integerParser("howmany")).getOrElse(0));
+
+            ExecutorService owner = Executors.newSingleThreadExecutor();
+            try {
+                Batch trickle = owner.submit(() -> batch(c, 100, insert).withMaxAge(50, TimeUnit.MILLISECONDS, owner)).get();
+                owner.submit(() -> {
+                    for (int i = 0; i < 2; i++) {
+                        trickle.on("id", i + 850).on("name", "John").on("surname", "Doe").on("age", 42)
+                            .on("cell", "0606060606").on("address", "Here").on("email", "flush@bob.com").batch();
+                    }
+                }).get();
+                long deadline = System.currentTimeMillis() + 5000;
+                while (trickle.enqueued() > 0 && System.currentTimeMillis() < deadline) {
+                    Thread.sleep(10);
+                }
+                // the owner has flushed the last rows of the trickle without any new row
+                Assert.assertEquals(new Integer(0), trickle.enqueued());
+                Assert.assertEquals(1L, trickle.flushStats().flushes(FlushStats.Reason.AGE));
+                Assert.assertEquals(new Integer(12), owner.submit(() -> sql(c, count).collectSingle(integerParser("howmany")).getOrElse(0)).get());
+            } catch (Exception e) {
+                throw new RuntimeException(e);
+            } finally {
+                owner.shutdown();
+            }
+        });
+    }
+
+    @Test
+    public void testBatchSummary() {
+        DB.withConnection(false, c -> {
+            String insert = "insert into persons values ( {id}, {name}, {surname}, {age}, {cell}, {address}, {email} );";
+            Batch bulk = batch(c, 10, insert).withSummaryOnly();
+            for (int i = 0; i < 25; i++) {
+                List<Integer> results = bulk.on("id", i + 1000).on("name", "John").on("surname", "Doe").on("age", 42)
+                    .on("cell", "0606060606").on("address", "Here").on("email", "summary@bob.com").batch();
+                Assert.assertTrue(results.isEmpty());
+            }
+            Assert.assertEquals(0, bulk.executeBatchArray().length);
+            BatchSummary summary = bulk.summary();
+            Assert.assertEquals(25L, summary.rows());
+            Assert.assertEquals(25L, summary.affectedRows());
+            Assert.assertFalse(summary.hasFailures());
+
+            Batch counts = batch(c, insert);
+            for (int i = 0; i < 3; i++) {
+                counts.on("id", i + 1100).on("name", "John").on("surname", "Doe").on("age", 42)
+                    .on("cell", "0606060606").on("address", "Here").on("email", "summary@bob.com").batch();
+            }
+            Assert.assertArrayEquals(new int[] {1, 1, 1}, counts.executeBatchArray());
+            counts.on("id", 1200).on("name", "John").on("surname", "Doe").on("age", 42)
+                .on("cell", "0606060606").on("address", "Here").on("email", "summary@bob.com").batch();
+            Assert.assertArrayEquals(new long[] {1L}, counts.executeLargeBatch());
+
+            Batch failing = batch(c, insert);
+            for (int id : new int[] {1300, 1000, 1301}) {
+                failing.on("id", id).on("name", "John").on("surname", "Doe").on("age", 42)
+                    .on("cell", "0606060606").on("address", "Here").on("email", "summary@bob.com").batch();
+            }
+            try {
+                failing.executeBatch();
+                Assert.fail("A duplicate key must fail the batch");
+            } catch (Exception expected) {
+                // the second row uses an existing id
+            }
+            Assert.assertEquals(3L, failing.summary().rows());
+            Assert.assertEquals(1L, failing.summary().failedPositions()[0]);
+        });
+    }
+
+    private static final String INSERT_PERSON = "insert into persons values ( {id}, {name}, {surname}, {age}, {cell}, {address}, {email} );";
+
+    /**
+     * Insert the persons with the ids in [from, to) in one batch
+     */
+    private static void insertPersons(Connection c, int from, int to, String email) {
+        Batch personBatch = batch(c, 10, INSERT_PERSON);
+        for (int id = from; id < to; id++) {
+            personBatch.on(personParams(id, email)).batch();
+        }
+        personBatch.executeBatch();
+    }
+
+    private static List<Tuple<String, Object>> personParams(int id, String email) {
+        return Arrays.asList(Tuple.of("id", id), Tuple.of("name", "John"), Tuple.of("surname", "Doe"), Tuple.of("age", 42),
+            Tuple.of("cell", "0606060606"), Tuple.of("address", "Here"), Tuple.of("email", email));
+    }
+
+    @Test
+    public void testWriteBehindWriter() throws Exception {
+        String insert = "insert into persons values ( {id}, {name}, {surname}, {age}, {cell}, {address}, {email} );";
+        WriteBehindWriter writer = DB.writeBehind(insert).withBatchSize(32).withCapacity(64);
+        CountDownLatch done = new CountDownLatch(201);
+        AtomicInteger succeeded = new AtomicInteger(0);
+        AtomicInteger failed = new AtomicInteger(0);
+        ExecutorService producers = Executors.newFixedThreadPool(4);
+        for (int t = 0; t < 4; t++) {
+            int first = 2000 + t * 50;
+            producers.execute(() -> {
+                for (int id = first; id < first + 50; id++) {
+                    writer.enqueue(personParams(id, "behind@bob.com"))
+                        .onComplete(result -> {
+                            for (Integer count : result.asSuccess()) {
+                                succeeded.addAndGet(count);
+                            }
+                            for (Throwable e : result.asFailure()) {
+                                failed.incrementAndGet();
+                            }
+                            done.countDown();
+                        });
+                }
+            });
+        }
+        producers.shutdown();
+        Assert.assertTrue(producers.awaitTermination(10, TimeUnit.SECONDS));
+        writer.close();
+        Assert.assertEquals(200L, writer.writtenRows());
+        Assert.assertEquals(new Integer(200), DB.withConnection(false, c -> {
+            return sql(c, "SELECT COUNT(*) as howmany from Persons where email = 'behind@bob.com'").collectSingle(integerParser("howmany")).getOrElse(0);
+        }));
+        try {
+            writer.enqueue(personParams(3000, "behind@bob.com"));
+            Assert.fail("A closed writer must not accept rows");
+        } catch (IllegalStateException expected) {
+            done.countDown();
+        }
+        Assert.assertTrue(done.await(10, TimeUnit.SECONDS));
+        Assert.assertEquals(200, succeeded.get());
+        Assert.assertEquals(0, failed.get());
+
+        WriteBehindWriter duplicates = DB.writeBehind(insert).withMaxDelay(1, TimeUnit.SECONDS);
+        CountDownLatch rejected = new CountDownLatch(2);
+        for (int id : new int[] {2500, 2000}) {
+            duplicates.enqueue(personParams(id, "behind@bob.com"))
+                .onComplete(result -> {
+                    for (Throwable e : result.asFailure()) {
+                        rejected.countDown();
+                    }
+                });
+        }
+        duplicates.close();
+        Assert.assertTrue(rejected.await(10, TimeUnit.SECONDS));
+        Assert.assertEquals(2L, duplicates.failedRows());
+    }
+
+    @Test
+    public void testBeanAndRecordParsers() {
+        DB.withConnection(false, c -> {
+            List<Person> persons = sql(c, "SELECT * FROM Persons ORDER BY id").collect(beanParser(Person.class));
+            Assert.assertEquals(3, persons.size());
+            Assert.assertEquals(new Long(2), persons.get(1).id);
+            Assert.assertEquals(new Long(16), persons.get(1).age);
+            Assert.assertEquals("john.doe@gmail.com", persons.get(1).email);
+
+            for (int i = 0; i < 2; i++) {
+                List<PersonBean> beans = sql(c, "SELECT id, name AS first_name, age FROM Persons ORDER BY id").collect(beanParser(PersonBean.class));
+                Assert.assertEquals(3, beans.size());
+                Assert.assertEquals(3L, beans.get(2).id);
+                Assert.assertEquals("John", beans.get(2).firstName);
+                Assert.assertEquals(new Integer(90), beans.get(2).age);
+            }
+
+            List<PersonValue> values = sql(c, "SELECT age, name, id FROM Persons ORDER BY id").collect(recordParser(PersonValue.class));
+            Assert.assertEquals(3, values.size());
+            Assert.assertEquals(new Long(1), values.get(0).id);
+            Assert.assertEquals("John", values.get(0).name);
+            Assert.assertEquals(42L, values.get(0).age);
+            try {
+                sql(c, "SELECT id FROM Persons").collect(recordParser(PersonValue.class));
+                Assert.fail("A missing column must be reported");
+            } catch (IllegalArgumentException expected) {
+                // name and age are missing
+            }
+        });
+    }
+
+    @Test
+    public void testObjectBinders() {
+        DB.withConnection(false, c -> {
+            String insert = "insert into persons values ( {id}, {name}, {surname}, {age}, {cell}, {address}, {email} );";
+            String count = "SELECT COUNT(*) as howmany from Persons where email = 'bind@bob.com'";
+            Person person = new Person(4000L, "Jane", "Doe", 33L, null, "There", "bind@bob.com");
+            Assert.assertEquals(1, (int) sql(c, insert).bind(person).executeUpdate());
+            Batch batch = batch(c, insert);
+            for (long id = 4001; id < 4006; id++) {
+                batch.add(new Person(id, "Jane", "Doe", 33L, null, "There", "other@bob.com")).on("email", "bind@bob.com").batch();
+            }
+            batch.executeBatch();
+            Assert.assertEquals(new Integer(6), sql(c, count).collectSingle(integerParser("howmany")).getOrElse(0));
+
+            PersonBean bean = new PersonBean();
+            bean.setId(4100);
+            bean.setFirstName("Jill");
+            bean.setAge(20);
+            sql(c, "insert into persons values ( {id}, {first_name}, 'Doe', {age}, null, 'Here', 'bind@bob.com' );").bind(bean).executeUpdate();
+            Assert.assertEquals("Jill", sql(c, "SELECT name FROM Persons WHERE id = 4100").collectSingle(stringParser("name")).getOrElse(""));
+        });
+    }
+
+    @Test
+    public void testMultiRowInsertBatch() {
+        DB.withConnection(false, c -> {
+            String insert = "insert into persons values ( {id}, {name}, {surname}, {age}, {cell}, {address}, {email} );";
+            String count = "SELECT COUNT(*) as howmany from Persons where email = 'multi@bob.com'";
+            Assert.assertFalse(batch(c, "insert into persons select * from persons where id = {id}").withMultiRowInserts().rewritesInserts());
+            Batch batch = batch(c, insert).withMultiRowInserts(8);
+            Assert.assertTrue(batch.rewritesInserts());
+            batch.on("surname", "Doe");
+            for (int i = 0; i < 23; i++) {
+                batch.on("id", i + 900).on("name", "John").on("age", 42)
+                    .on("cell", "0606060606").on("address", "Here").on("email", "multi@bob.com").batch();
+            }
+            List<Integer> counts = batch.executeBatch();
+            Assert.assertEquals(23, counts.size());
+            for (Integer updated : counts) {
+                Assert.assertEquals(new Integer(1), updated);
+            }
+            Assert.assertEquals(new Integer(23), sql(c, count).collectSingle(integerParser("howmany")).getOrElse(0));
+            Assert.assertEquals(new Integer(23), sql(c, "SELECT COUNT(*) as howmany from Persons where email = 'multi@bob.com' and surname = 'Doe'")
+                .collectSingle(integerParser("howmany")).getOrElse(0));
+
+            // 7 parameters per row and at most 15 per statement: statements of 2 rows, then of 1
+            Batch limited = batch(c, insert).withMultiRowInserts(8, 15);
+            for (int i = 0; i < 5; i++) {
+                limited.on("id", i + 950).on("name", "John").on("surname", "Roe").on("age", 42)
+                    .on("cell", "0606060606").on("address", "Here").on("email", "multi@bob.com").batch();
+            }
+            Assert.assertEquals(5, limited.executeBatch().size());
+            Assert.assertEquals(new Integer(28), sql(c, count).collectSingle(integerParser("howmany")).getOrElse(0));
+        });
+    }
+
     @Test
     public void testBatchInsertionWithTriggers() {
         DB.withConnection(true, c -> {
@@ -377,6 +670,22 @@ public class SQLToolsTest {
         });
     }
 
+    @Test
+    public void testWriteJson() throws Exception {
+        DB.withConnection(false, c -> {
+            StringWriter writer = new StringWriter();
+            long count = sql(c, "SELECT id, name, cell, age > 18 as adult, 'a\"b\\c' || CHAR(10) as quoted FROM Persons WHERE id < 3 ORDER BY id").writeJson(writer);
+            Assert.assertEquals(2L, count);
+            Assert.assertEquals(
+                "[{\"ID\":1,\"NAME\":\"John\",\"CELL\":\"0606060606\",\"ADULT\":true,\"QUOTED\":\"a\\\"b\\\\c\\n\"}," +
+                "{\"ID\":2,\"NAME\":\"John\",\"CELL\":\"0606060606\",\"ADULT\":false,\"QUOTED\":\"a\\\"b\\\\c\\n\"}]",
+                writer.toString());
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            Assert.assertEquals(0L, sql(c, "SELECT id FROM Persons WHERE id > 1000").writeJson(out));
+            Assert.assertEquals("[]", new String(out.toByteArray(), StandardCharsets.UTF_8));
+        });
+    }
+
     @Test
     public void testPrepared() {
         DB.withConnection(false, c -> {
@@ -386,6 +695,554 @@ public class SQLToolsTest {
         });
     }
 
+    @Test
+    public void testStatementCache() {
+        Connection connection = DB.withConnection(false, c -> {
+            for (int i = 0; i < 10; i++) {
+                Option<Long> age = sql(c, "SELECT age FROM Persons where id = {id}").on("id", (i % 3) + 1).collectSingle(longParser("age"));
+                Assert.assertTrue(age.isDefined());
+                List<Long> nested = sql(c, "SELECT age FROM Persons where id = {id}").on("id", 1).collect(row -> {
+                    return sql(c, "SELECT age FROM Persons where id = {id}").on("id", 2).collectSingle(longParser("age"));
+                });
+                Assert.assertEquals(new Long(16L), nested.get(0));
+            }
+            Assert.assertEquals(1, StatementCache.cachedStatements(c));
+            return c;
+        });
+        Assert.assertEquals(0, StatementCache.cachedStatements(connection));
+    }
+
+    @Test
+    public void testCursorMode() {
+        DB.withConnection(false, c -> {
+            Set<Row> instances = Collections.newSetFromMap(new IdentityHashMap<>());
+            List<Integer> indexes = new ArrayList<>();
+            long total = sql(c, "SELECT id, age FROM Persons ORDER BY id").reduce(0L, (acc, row) -> {
+                instances.add(row);
+                indexes.add(row.index());
+                return acc + row.lng("age");
+            });
+            Assert.assertEquals(148L, total);
+            Assert.assertEquals(1, instances.size());
+            Assert.assertEquals(Arrays.asList(1, 2, 3), indexes);
+        });
+    }
+
+    @Test
+    public void testObservableBackpressure() {
+        DB.withConnection(false, c -> {
+            TestSubscriber<Integer> subscriber = new TestSubscriber<>(0L);
+            sql(c, "SELECT id FROM Persons ORDER BY id").asSyncObservable()
+                .map(row -> row.getInt("id"))
+                .subscribe(subscriber);
+            subscriber.assertNoValues();
+            subscriber.requestMore(2);
+            subscriber.assertValues(1, 2);
+            subscriber.assertNotCompleted();
+            subscriber.requestMore(5);
+            subscriber.assertValues(1, 2, 3);
+            subscriber.assertCompleted();
+
+            List<Integer> first = new ArrayList<>();
+            sql(c, "SELECT id FROM Persons ORDER BY id").asSyncObservable()
+                .map(row -> row.getInt("id"))
+                .take(1)
+                .subscribe(first::add);
+            Assert.assertEquals(Arrays.asList(1), first);
+        });
+    }
+
+    private static final String SLOW_QUERY = "SELECT COUNT(*) AS total FROM SYSTEM_RANGE(1, 20000) a, SYSTEM_RANGE(1, 20000) b";
+
+    @Test
+    public void testTimeout() {
+        DB.withConnection(false, c -> {
+            long start = System.currentTimeMillis();
+            try {
+                sql(c, SLOW_QUERY).withTimeout(200, TimeUnit.MILLISECONDS).collectSingle(row -> Option.some(row.getLong("total")));
+                Assert.fail("The query should have been cancelled");
+            } catch (RuntimeException e) {
+                Assert.assertTrue(System.currentTimeMillis() - start < 10000);
+            }
+            Assert.assertEquals(3L, sql(c, "SELECT COUNT(*) AS total FROM Persons").collectSingle(row -> Option.some(row.getLong("total"))).get().longValue());
+        });
+    }
+
+    @Test
+    public void testUnsubscribeCancelsQuery() throws Exception {
+        ExecutorService ec = Executors.newSingleThreadExecutor();
+        try {
+            DB.withConnection(false, c -> {
+                Subscription subscription = sql(c, SLOW_QUERY).asObservable(ec).subscribe(row -> { });
+                try {
+                    Thread.sleep(200);
+                    subscription.unsubscribe();
+                    ec.submit(() -> { }).get(10, TimeUnit.SECONDS);
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+                return null;
+            });
+        } finally {
+            ec.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testIteratorAndJavaStream() {
+        Connection connection = DB.withConnection(false, c -> {
+            List<Integer> ids = new ArrayList<>();
+            try (ResultIterator<Row> iterator = sql(c, "SELECT id FROM Persons ORDER BY id").iterator()) {
+                while (iterator.hasNext()) {
+                    ids.add(iterator.next().getInt("id"));
+                }
+                Assert.assertFalse(iterator.hasNext());
+            }
+            Assert.assertEquals(Arrays.asList(1, 2, 3), ids);
+
+            int cached = StatementCache.cachedStatements(c);
+            try (java.util.stream.Stream<Row> rows = sql(c, "SELECT id FROM Persons ORDER BY id DESC").javaStream()) {
+                Assert.assertEquals(Arrays.asList(3, 2), rows.map(row -> row.getInt("id")).limit(2).collect(Collectors.toList()));
+            }
+            Assert.assertEquals(cached + 1, StatementCache.cachedStatements(c));
+            Assert.assertEquals(148L, sql(c, "SELECT age FROM Persons").javaStream().mapToLong(row -> row.getLong("age")).sum());
+            Assert.assertEquals(Arrays.asList(3), sql(c, "SELECT id FROM Persons").map(row -> row.getInt("id")).filter(id -> id > 2).javaStream().collect(Collectors.toList()));
+            return c;
+        });
+    }
+
+    @Test
+    public void testParallelMapping() {
+        ExecutorService ec = Executors.newFixedThreadPool(4);
+        try {
+            DB.withConnection(false, c -> {
+                String query = "SELECT x AS id, CAST(x AS VARCHAR) AS label FROM SYSTEM_RANGE(1, 1000) ORDER BY x";
+                List<Integer> expected = new ArrayList<>();
+                for (int i = 1; i <= 1000; i++) {
+                    expected.add(i);
+                }
+                List<Integer> ordered = sql(c, query)
+                    .withParallelMapping(ec, 64, 3, true)
+                    .collect(row -> Integer.parseInt(row.str("label")) == row.getInt("id") ? Option.some(row.getInt("id")) : Option.none());
+                Assert.assertEquals(expected, ordered);
+
+                List<Integer> unordered = sql(c, query)
+                    .withParallelMapping(ec, 50, 2, false)
+                    .map(row -> row.getLong("id"))
+                    .filter(id -> id % 2 == 0)
+                    .map(Long::intValue)
+                    .run();
+                Collections.sort(unordered);
+                Assert.assertEquals(expected.stream().filter(i -> i % 2 == 0).collect(Collectors.toList()), unordered);
+
+                List<Row> rows = sql(c, "SELECT id, cell FROM Persons ORDER BY id").withParallelMapping().all();
+                Assert.assertEquals(3, rows.size());
+                Assert.assertEquals(3, rows.get(2).getInt("id"));
+                Assert.assertEquals("0606060606", rows.get(0).str("cell"));
+                return null;
+            });
+        } finally {
+            ec.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testPartitionedScan() {
+        PartitionedScan range = DB.partitionedScan("SELECT X AS id FROM SYSTEM_RANGE(1, 1000)", "id", 1, 1000, 4);
+        Assert.assertEquals(4, range.partitions());
+        Assert.assertEquals(500500L, range.reduce(() -> 0L, (acc, row) -> acc + row.getLong("id"), Long::sum).longValue());
+        try (java.util.stream.Stream<Long> ids = range.withBufferSize(16).stream(row -> row.getLong("id"))) {
+            Assert.assertEquals(1000L, ids.distinct().count());
+        }
+        List<Long> firsts = range.asObservable(row -> row.getLong("id")).take(10).toList().toBlocking().single();
+        Assert.assertEquals(10, firsts.size());
+
+        PartitionedScan persons = DB.partitionedScan("SELECT id, age FROM Persons WHERE age > {age}", "id", 1, 3, 8).on("age", 18);
+        Assert.assertEquals(3, persons.partitions());
+        Map<Boolean, List<Long>> groups = persons.groupBy(row -> row.getLong("age") > 50, row -> row.getLong("id"));
+        Assert.assertEquals(Arrays.asList(1L), groups.get(false));
+        Assert.assertEquals(Arrays.asList(3L), groups.get(true));
+    }
+
+    @Test(timeout = 10000)
+    public void testPartitionedScanFailure() {
+        PartitionedScan range = DB.partitionedScan("SELECT X AS id FROM SYSTEM_RANGE(1, 1000)", "id", 1, 1000, 4).withBufferSize(1);
+        try (java.util.stream.Stream<Long> ids = range.stream(row -> {
+            if (row.getLong("id") == 900L) {
+                throw new IllegalStateException("boom");
+            }
+            return row.getLong("id");
+        })) {
+            ids.count();
+            Assert.fail("the failure of a partition must reach the consumer");
+        } catch (IllegalStateException expected) {
+            Assert.assertEquals("boom", expected.getMessage());
+        }
+        try {
+            range.reduce(() -> 0L, (acc, row) -> {
+                if (row.getLong("id") == 900L) {
+                    throw new IllegalStateException("boom");
+                }
+                return acc + row.getLong("id");
+            }, Long::sum);
+            Assert.fail("the failure of a partition must reach the caller");
+        } catch (IllegalStateException expected) {
+            Assert.assertEquals("boom", expected.getMessage());
+        }
+    }
+
+    @Test(timeout = 10000)
+    public void testClosedPartitionedScanSkipsQueuedPartitions() throws Exception {
+        ExecutorService single = Executors.newSingleThreadExecutor();
+        try {
+            Set<Long> seen = Collections.newSetFromMap(new java.util.concurrent.ConcurrentHashMap<>());
+            PartitionedScan range = DB.partitionedScan("SELECT X AS id FROM SYSTEM_RANGE(1, 1000)", "id", 1, 1000, 4)
+                    .withExecutor(single).withBufferSize(1);
+            try (java.util.stream.Stream<Long> ids = range.stream(row -> {
+                seen.add(row.getLong("id"));
+                return row.getLong("id");
+            })) {
+                Assert.assertTrue(ids.findFirst().isPresent());
+            }
+            // the executor runs the queued partitions after the close, they must not query anything
+            single.submit(() -> { }).get();
+            for (long id : seen) {
+                Assert.assertTrue("row " + id + " of a partition queued after the close", id <= 250);
+            }
+        } finally {
+            single.shutdown();
+        }
+    }
+
+    @Test
+    public void testPrimitiveCollectors() {
+        DB.withConnection(false, c -> {
+            long[] ages = sql(c, "SELECT age FROM Persons ORDER BY id").collectLongs(longColumn("age"));
+            Assert.assertArrayEquals(new long[] {42L, 16L, 90L}, ages);
+            int[] ids = sql(c, "SELECT id FROM Persons ORDER BY id").collectInts(intColumn("id"));
+            Assert.assertArrayEquals(new int[] {1, 2, 3}, ids);
+            double[] halves = sql(c, "SELECT age FROM Persons ORDER BY id").asStream()
+                    .filter(row -> row.getLong("age") > 18L)
+                    .collectDoubles(row -> row.getDouble("age") / 2);
+            Assert.assertArrayEquals(new double[] {21d, 45d}, halves, 0.0001d);
+            long[] many = sql(c, "SELECT X FROM SYSTEM_RANGE(1, 1000)").collectLongs(row -> row.getLong(1));
+            Assert.assertEquals(1000, many.length);
+            Assert.assertEquals(1000L, many[999]);
+            sql(c, "SELECT CAST(NULL AS BIGINT) AS nothing FROM Persons WHERE id = 1").foreach(row -> {
+                Assert.assertEquals(0L, row.getLong("nothing"));
+                Assert.assertTrue(row.wasNull());
+                Assert.assertEquals(-1L, row.getLong("nothing", -1L));
+            });
+        });
+    }
+
+    @Test
+    public void testRowSchema() {
+        StringBuilder wide = new StringBuilder("SELECT id");
+        for (int i = 0; i < 200; i++) {
+            wide.append(", age + ").append(i).append(" as Col").append(i);
+        }
+        wide.append(" FROM Persons WHERE id = 1");
+        DB.withConnection(false, c -> {
+            for (int run = 0; run < 2; run++) {
+                sql(c, wide.toString()).foreach(row -> {
+                    RowSchema schema = row.schema();
+                    Assert.assertEquals(201, schema.columnCount());
+                    Assert.assertEquals(1, schema.indexOf("ID"));
+                    Assert.assertEquals(1, schema.indexOf("id"));
+                    for (int i = 0; i < 200; i++) {
+                        Assert.assertEquals(i + 2, schema.indexOf("col" + i));
+                        Assert.assertEquals(new Long(42L + i), row.lng("COL" + i));
+                    }
+                    Assert.assertEquals(-1, schema.indexOf("col200"));
+                    Assert.assertFalse(row.isPresent("col200"));
+                });
+            }
+        });
+    }
+
+    public enum Status { ACTIVE, DISABLED }
+
+    public static class Email {
+        public final String value;
+
+        public Email(String value) {
+            this.value = value;
+        }
+    }
+
+    @Test
+    public void testTypedParameters() {
+        registerBinder(Email.class, (pst, index, email) -> pst.setString(index, email.value.toLowerCase()));
+        bindEnumsByName();
+        DB.withConnection(true, c -> {
+            sql(c, "drop table if exists typed;").executeUpdate();
+            sql(c, "create table typed (id bigint, status varchar(100), day date, at timestamp, uid uuid, data binary(4), email varchar(100), ratio double);").executeUpdate();
+            UUID uid = UUID.randomUUID();
+            for (int i = 0; i < 3; i++) {
+                sql(c, "insert into typed values ({id}, {status}, {day}, {at}, {uid}, {data}, {email}, {ratio})")
+                    .on("id", (long) i)
+                    .on("status", i == 1 ? Status.DISABLED : Status.ACTIVE)
+                    .on("day", LocalDate.of(2016, 9, 1 + i))
+                    .on("at", LocalDateTime.of(2016, 9, 1, 12, 30, i))
+                    .on("uid", uid)
+                    .on("data", new byte[] {1, 2, 3, 4})
+                    .on("email", new Email("John.Doe@Gmail.com"))
+                    .on("ratio", 0.5d * i)
+                    .executeUpdate();
+            }
+            List<Long> ids = sql(c, "select * from typed where id = {id}").on("id", 1L).collect(row -> {
+                Assert.assertEquals("DISABLED", row.str("status"));
+                Assert.assertEquals(java.sql.Date.valueOf(LocalDate.of(2016, 9, 2)), row.date("day"));
+                Assert.assertEquals(Timestamp.valueOf(LocalDateTime.of(2016, 9, 1, 12, 30, 1)), row.timestamp("at"));
+                Assert.assertEquals(uid, row.obj("uid"));
+                Assert.assertArrayEquals(new byte[] {1, 2, 3, 4}, (byte[]) row.obj("data"));
+                Assert.assertEquals("john.doe@gmail.com", row.str("email"));
+                Assert.assertEquals(new Double(0.5d), row.dbl("ratio"));
+                return Option.some(row.lng("id"));
+            });
+            Assert.assertEquals(1, ids.size());
+        });
+    }
+
+    @Test
+    public void testBatchKeepsItsStatementWithoutCache() throws Exception {
+        AtomicInteger prepared = new AtomicInteger(0);
+        try (Connection raw = java.sql.DriverManager.getConnection("jdbc:h2:/tmp/test", "sa", "")) {
+            Connection counting = (Connection) java.lang.reflect.Proxy.newProxyInstance(Connection.class.getClassLoader(),
+                    new Class<?>[]{Connection.class}, (proxy, method, args) -> {
+                        if (method.getName().startsWith("prepare")) {
+                            prepared.incrementAndGet();
+                        }
+                        try {
+                            return method.invoke(raw, args);
+                        } catch (java.lang.reflect.InvocationTargetException e) {
+                            throw e.getCause();
+                        }
+                    });
+            Batch personBatch = batch(counting, 2, "insert into persons values ( {id}, {name}, {surname}, {age}, {cell}, {address}, {email} );");
+            for (int id = 4000; id < 4006; id++) {
+                personBatch.on("id", id).on("name", "John").on("surname", "Doe").on("age", 42)
+                    .on("cell", null).on("address", "Here").on("email", "plain@bob.com").batch();
+            }
+            personBatch.executeBatch();
+            Assert.assertEquals(1, prepared.get());
+        }
+    }
+
+    private static Database cachedDatabase() {
+        return database(provider(new Driver(), "jdbc:h2:/tmp/test", "sa", "")).withResultCache(16, 1, TimeUnit.MINUTES);
+    }
+
+    private static int countOlderThan(Connection c, int age) {
+        return sql(c, "SELECT COUNT(*) as howmany from Persons where age > {age}").cached().on("age", age)
+                .collectSingle(integerParser("howmany")).getOrElse(0);
+    }
+
+    private static int countOlderThan(Database db, int age) {
+        return db.withConnection(false, c -> {
+            return countOlderThan(c, age);
+        });
+    }
+
+    @Test
+    public void testResultCacheServesRepeatedQueries() {
+        Database cachedDb = cachedDatabase();
+        try {
+            ResultCache cache = cachedDb.resultCache();
+            Assert.assertEquals(2, countOlderThan(cachedDb, 20));
+            Assert.assertEquals(2, countOlderThan(cachedDb, 20));
+            Assert.assertEquals(1, countOlderThan(cachedDb, 50));
+            Assert.assertEquals(1L, cache.hits());
+            Assert.assertEquals(2L, cache.misses());
+            Assert.assertEquals(2, cache.size());
+        } finally {
+            cachedDb.close();
+        }
+    }
+
+    @Test
+    public void testResultCacheReadsOwnWrites() {
+        Database cachedDb = cachedDatabase();
+        try {
+            Assert.assertEquals(2, countOlderThan(cachedDb, 20));
+            cachedDb.withConnection(true, c -> {
+                sql(c, INSERT_PERSON).on(personParams(600, "cached@bob.com")).executeUpdate();
+                Assert.assertEquals(3, countOlderThan(c, 20));
+            });
+            Assert.assertEquals(0, cachedDb.resultCache().size());
+            Assert.assertEquals(3, countOlderThan(cachedDb, 20));
+            Assert.assertEquals(0L, cachedDb.resultCache().hits());
+        } finally {
+            cachedDb.close();
+        }
+    }
+
+    @Test
+    public void testResultCacheInvalidatedByBatch() {
+        Database cachedDb = cachedDatabase();
+        try {
+            Assert.assertEquals(2, countOlderThan(cachedDb, 20));
+            cachedDb.withConnection(true, c -> {
+                insertPersons(c, 601, 603, "cached@bob.com");
+            });
+            Assert.assertEquals(0, cachedDb.resultCache().size());
+            Assert.assertEquals(4, countOlderThan(cachedDb, 20));
+            Assert.assertEquals(0L, cachedDb.resultCache().hits());
+        } finally {
+            cachedDb.close();
+        }
+    }
+
+    @Test
+    public void testResultCacheInvalidatedByRxConnection() {
+        Database cachedDb = cachedDatabase();
+        try {
+            Assert.assertEquals(2, countOlderThan(cachedDb, 20));
+            Assert.assertEquals(1, cachedDb.resultCache().size());
+            int updated = cachedDb.withRxConnection(true, c -> Observable.just(
+                    sql(c, INSERT_PERSON).on(personParams(650, "cached@bob.com")).executeUpdate())).toBlocking().single();
+            Assert.assertEquals(1, updated);
+            Assert.assertEquals(0, cachedDb.resultCache().size());
+            Assert.assertEquals(3, countOlderThan(cachedDb, 20));
+        } finally {
+            cachedDb.close();
+        }
+    }
+
+    @Test
+    public void testQueryMetricsOfReads() {
+        InMemoryMetrics metrics = new InMemoryMetrics();
+        globalMetrics(metrics);
+        try {
+            String select = "select * from persons where age > {age}";
+            DB.withConnection(false, c -> {
+                Assert.assertEquals(3, sql(c, select).on("age", 0).all().size());
+                sql(c, select).on("age", 50).foreach(row -> { });
+            });
+            InMemoryMetrics.Stats reads = metrics.query(Query.preparedQuery(select).getPreparedSqlQuery());
+            Assert.assertEquals(2L, reads.executions());
+            Assert.assertEquals(4L, reads.rows());
+            Assert.assertEquals(2L, reads.firstRowLatency().count());
+            Assert.assertEquals(2L, reads.fetchLatency().count());
+            Assert.assertEquals(0L, reads.failures());
+            Assert.assertEquals(2L, metrics.totals().executions());
+        } finally {
+            globalMetrics(null);
+        }
+    }
+
+    @Test
+    public void testQueryMetricsOfWrites() {
+        InMemoryMetrics metrics = new InMemoryMetrics();
+        globalMetrics(metrics);
+        try {
+            DB.withConnection(false, c -> {
+                sql(c, INSERT_PERSON).on(personParams(700, "metrics@bob.com")).executeUpdate();
+                insertPersons(c, 701, 703, "metrics@bob.com");
+                try {
+                    sql(c, INSERT_PERSON).on(personParams(700, "metrics@bob.com")).executeUpdate();
+                    Assert.fail("The duplicate key must fail");
+                } catch (RuntimeException expected) {
+                    // counted as a failure
+                }
+            });
+            InMemoryMetrics.Stats writes = metrics.query(Query.preparedQuery(INSERT_PERSON).getPreparedSqlQuery());
+            Assert.assertEquals(2L, writes.executions());
+            Assert.assertEquals(3L, writes.updatedRows());
+            Assert.assertEquals(1L, writes.failures());
+            Assert.assertEquals(2L, metrics.totals().executions());
+        } finally {
+            globalMetrics(null);
+        }
+    }
+
+    private static SlowQueryLog slowQueryLog() {
+        SlowQueryLog log = new SlowQueryLog(4).withThreshold(0, TimeUnit.MILLISECONDS).withRedactor(SlowQueryLog.hiding("email"));
+        globalSlowQueryLog(log);
+        return log;
+    }
+
+    @Test
+    public void testSlowQueryLogRecordsQueries() {
+        SlowQueryLog log = slowQueryLog();
+        try {
+            DB.withConnection(false, c -> {
+                Assert.assertEquals(2, sql(c, "select * from persons where age > {age}").withPageOf(50).on("age", 20).all().size());
+            });
+            List<SlowQueryLog.Entry> entries = log.dump();
+            Assert.assertEquals(1, entries.size());
+            SlowQueryLog.Entry select = entries.get(0);
+            Assert.assertEquals("select * from persons where age > ?", select.sql());
+            Assert.assertEquals(20, select.parameters().get("age"));
+            Assert.assertEquals(2L, select.rows());
+            Assert.assertEquals(50, select.fetchSize());
+            Assert.assertFalse(select.sampled());
+            Assert.assertTrue(select.firstRowTime(TimeUnit.NANOSECONDS) >= 0);
+            Assert.assertEquals(SQLToolsTest.class.getName(), select.stack()[0].getClassName());
+        } finally {
+            globalSlowQueryLog(null);
+        }
+    }
+
+    @Test
+    public void testSlowQueryLogRedactsParameters() {
+        SlowQueryLog log = slowQueryLog();
+        try {
+            DB.withConnection(false, c -> {
+                sql(c, INSERT_PERSON).on(personParams(800, "secret@bob.com")).executeUpdate();
+            });
+            SlowQueryLog.Entry update = log.dump().get(0);
+            Assert.assertEquals(1L, update.updatedRows());
+            Assert.assertEquals("****", update.parameters().get("email"));
+            Assert.assertEquals("John", update.parameters().get("name"));
+        } finally {
+            globalSlowQueryLog(null);
+        }
+    }
+
+    @Test
+    public void testSlowQueryLogRecordsLastRowOfBatches() {
+        SlowQueryLog log = slowQueryLog();
+        try {
+            DB.withConnection(false, c -> {
+                for (int id = 801; id < 811; id += 2) {
+                    insertPersons(c, id, id + 2, "secret@bob.com");
+                }
+            });
+            Assert.assertEquals(5L, log.recorded());
+            List<SlowQueryLog.Entry> entries = log.dump();
+            Assert.assertEquals(4, entries.size());
+            for (int i = 0; i < entries.size(); i++) {
+                SlowQueryLog.Entry entry = entries.get(i);
+                Assert.assertEquals(2L, entry.updatedRows());
+                Assert.assertEquals(804 + 2 * i, entry.parameters().get("id"));
+                Assert.assertEquals("****", entry.parameters().get("email"));
+            }
+        } finally {
+            globalSlowQueryLog(null);
+        }
+    }
+
+    @Test
+    public void testSlowQueryLogThresholdAndSampling() {
+        SlowQueryLog log = slowQueryLog().withThreshold(1, TimeUnit.HOURS);
+        try {
+            DB.withConnection(false, c -> {
+                sql(c, "select * from persons").all();
+            });
+            Assert.assertTrue(log.dump().isEmpty());
+            log.withSampleRate(1.0);
+            DB.withConnection(false, c -> {
+                sql(c, "select * from persons").all();
+            });
+            Assert.assertEquals(1, log.dump().size());
+            Assert.assertTrue(log.dump().get(0).sampled());
+        } finally {
+            globalSlowQueryLog(null);
+        }
+    }
+
     @Test
     public void testInsertNull() {
         DB.withConnection(true, c -> {
@@ -419,6 +1276,51 @@ public class SQLToolsTest {
         });
     }
 
+    public static class PersonBean {
+
+        private long id;
+        private String firstName;
+        private Integer age;
+
+        public void setId(long id) {
+            this.id = id;
+        }
+
+        public void setFirstName(String firstName) {
+            this.firstName = firstName;
+        }
+
+        public void setAge(Integer age) {
+            this.age = age;
+        }
+
+        public long getId() {
+            return id;
+        }
+
+        public String getFirstName() {
+            return firstName;
+        }
+
+        public Integer getAge() {
+            return age;
+        }
+    }
+
+    public static class PersonValue {
+
+        private final Long id;
+        private final String name;
+        private final long age;
+
+        @java.beans.ConstructorProperties({"id", "name", "age"})
+        public PersonValue(Long id, String name, long age) {
+            this.id = id;
+            this.name = name;
+            this.age = age;
+        }
+    }
+
     public static class Person {
 
         public Long id;